@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -15,11 +17,15 @@ import simpledb.common.FieldType;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
@@ -444,7 +450,44 @@ public class Parser {
         return curtrans;
     }
 
+    /** COPY table FROM 'file' [DELIMITER 'c'], which ZQL does not parse */
+    private static final Pattern COPY_STATEMENT = Pattern.compile(
+        "copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Bulk-loads a text file into a table, bypassing the BufferPool; see
+     * {@link BulkLoader} for the file format.
+     */
+    public void handleCopyStatement(String table, File input, char separator, TransactionId tid)
+            throws simpledb.ParsingException, DbException, IOException, TransactionAbortedException {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + table);
+        }
+        if (!(file instanceof HeapFile)) {
+            throw new simpledb.ParsingException("COPY only loads heap files, " + table + " is a " + file.getClass().getSimpleName());
+        }
+        BulkLoader loader = new BulkLoader((HeapFile) file);
+        long rows = loader.load(tid, input, separator);
+        System.out.println(rows + " rows loaded into " + table
+                           + (loader.getBadLines() > 0 ? ", " + loader.getBadLines() + " bad lines skipped" : ""));
+    }
+
     public void processNextStatement(String s) {
+        Matcher copy = COPY_STATEMENT.matcher(s.trim());
+        if (copy.matches()) {
+            String table = copy.group(1);
+            File input = new File(copy.group(2));
+            char separator = copy.group(3) == null ? ',' : copy.group(3).charAt(0);
+            processStatement(tid -> {
+                handleCopyStatement(table, input, separator, tid);
+                return null;
+            });
+            return;
+        }
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
@@ -453,67 +496,90 @@ public class Parser {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
-            Query query = null;
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
-                if (!this.inUserTrans) {
-                    curtrans = new Transaction();
-                    curtrans.start();
-                    System.out.println("Started a new transaction tid = " + curtrans.getId().getId());
-                }
-                try {
+                processStatement(tid -> {
                     if (s instanceof ZInsert)
-                        query = handleInsertStatement((ZInsert) s, curtrans.getId());
+                        return handleInsertStatement((ZInsert) s, tid);
                     else if (s instanceof ZDelete)
-                        query = handleDeleteStatement((ZDelete) s, curtrans.getId());
+                        return handleDeleteStatement((ZDelete) s, tid);
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s, curtrans.getId());
-                    else {
-                        System.out
-                            .println("Can't parse "
-                                     + s
-                                     + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
-                    }
-                    if (query != null)
-                        query.execute();
+                        return handleQueryStatement((ZQuery) s, tid);
+                    System.out
+                        .println("Can't parse "
+                                 + s
+                                 + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                    return null;
+                });
+            }
 
-                    if (!inUserTrans && curtrans != null) {
-                        curtrans.commit();
-                        System.out.println("Transaction " + curtrans.getId().getId() + " committed.");
-                    }
-                } catch (Throwable a) {
-                    // Whenever error happens, abort the current transaction
-                    if (curtrans != null) {
-                        curtrans.abort();
-                        System.out.println("Transaction " + curtrans.getId().getId()
-                                           + " aborted because of unhandled error");
-                    }
-                    this.inUserTrans = false;
-
-                    if (a instanceof simpledb.ParsingException || a instanceof Zql.ParseException)
-                        throw new ParsingException((Exception) a);
-                    if (a instanceof Zql.TokenMgrError)
-                        throw (Zql.TokenMgrError) a;
-                    throw new DbException(a.getMessage());
-                } finally {
-                    if (!inUserTrans)
-                        curtrans = null;
-                }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+        } catch (ParseException | TokenMgrError e) {
+            System.out.println("Invalid SQL expression: \n \t " + e);
+        }
+    }
+
+    /** A statement other than a transaction statement, run by {@link #processStatement} */
+    private interface Statement {
+        /** @return the query to execute, or null if the statement is already done */
+        Query run(TransactionId tid) throws Exception;
+    }
+
+    /**
+     * Runs a statement in the current user transaction, or in a transaction
+     * of its own that commits once it succeeds. Whenever an error happens,
+     * the transaction is aborted.
+     */
+    private void processStatement(Statement statement) {
+        try {
+            if (!this.inUserTrans) {
+                curtrans = new Transaction();
+                curtrans.start();
+                System.out.println("Started a new transaction tid = " + curtrans.getId().getId());
             }
+            try {
+                Query query = statement.run(curtrans.getId());
+                if (query != null)
+                    query.execute();
 
+                if (!inUserTrans && curtrans != null) {
+                    curtrans.commit();
+                    System.out.println("Transaction " + curtrans.getId().getId() + " committed.");
+                }
+            } catch (Throwable a) {
+                // Whenever error happens, abort the current transaction
+                if (curtrans != null) {
+                    curtrans.abort();
+                    System.out.println("Transaction " + curtrans.getId().getId()
+                                       + " aborted because of unhandled error");
+                }
+                this.inUserTrans = false;
+
+                if (a instanceof simpledb.ParsingException || a instanceof Zql.ParseException)
+                    throw new ParsingException((Exception) a);
+                if (a instanceof Zql.TokenMgrError)
+                    throw (Zql.TokenMgrError) a;
+                throw new DbException(a.getMessage());
+            } finally {
+                if (!inUserTrans)
+                    curtrans = null;
+            }
         } catch (IOException | DbException e) {
             e.printStackTrace();
         } catch (simpledb.ParsingException e) {
             System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
-        } catch (ParseException | TokenMgrError e) {
+        } catch (TokenMgrError e) {
             System.out.println("Invalid SQL expression: \n \t " + e);
         }
     }
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where", "group by", "max(", "min(", "avg(",
-            "count", "rollback", "commit", "insert", "delete", "values", "into" };
+            "count", "rollback", "commit", "insert", "delete", "values", "into", "copy" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -602,7 +668,6 @@ public class Parser {
                     buffer.append(line, 0, split + 1);
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes(StandardCharsets.UTF_8);
                     if (cmd.equalsIgnoreCase("quit;") || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
                         quit = true;
@@ -610,7 +675,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n", ((double) time / 1000.0));
 
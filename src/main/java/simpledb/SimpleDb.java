@@ -1,9 +1,11 @@
 package simpledb;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.FieldType;
 import simpledb.common.Utility;
 import simpledb.storage.*;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -75,6 +77,34 @@ public class SimpleDb {
                     it.close();
                 }
                 break;
+            case "load":
+                // bulk-load a text file into a table of a catalog
+                if (args.length < 4 || args.length > 5) {
+                    System.err.println("Usage: load <catalog file> <table> <text file> [separator]");
+                    return;
+                }
+                Database.getCatalog().loadSchema(args[1]);
+                DbFile loadTable = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(args[2]));
+                if (!(loadTable instanceof HeapFile)) {
+                    System.err.println("Table " + args[2] + " is not a heap file");
+                    return;
+                }
+                Transaction loadTransaction = new Transaction();
+                loadTransaction.start();
+                try {
+                    BulkLoader loader = new BulkLoader((HeapFile) loadTable);
+                    long rows = loader.load(loadTransaction.getId(), new File(args[3]),
+                        args.length == 5 ? args[4].charAt(0) : ',');
+                    loadTransaction.commit();
+                    System.out.println(rows + " rows loaded, " + loader.getBadLines() + " bad lines skipped");
+                } catch (IOException | DbException | TransactionAbortedException e) {
+                    try {
+                        loadTransaction.abort();
+                    } catch (IOException ignored) {
+                    }
+                    throw new RuntimeException(e);
+                }
+                break;
             case "parser":
                 // Strip the first argument and call the parser
                 String[] newargs = new String[args.length - 1];
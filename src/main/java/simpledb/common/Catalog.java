@@ -1,5 +1,7 @@
 package simpledb.common;
 
+import simpledb.storage.ColumnFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -146,6 +148,17 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as <code>name (field type [pk], ...) [options]</code>,
+     * where the options are <code>mapped</code>: open the table read-only over a
+     * memory mapping of its file, for tables that are only scanned; and
+     * <code>slotted</code>: the table file is made of variable-length
+     * {@link simpledb.storage.SlottedHeapPage}s; and <code>compressed</code>:
+     * the pages are stored compressed, see {@link simpledb.storage.CompressedHeapFile};
+     * and <code>columnar</code>: each column is stored in its own files, see
+     * {@link simpledb.storage.ColumnFile}. A compressed table cannot be mapped,
+     * and a columnar table takes no other option. A string field of a columnar
+     * table annotated <code>dict</code>, e.g. <code>status string dict</code>, is
+     * dictionary-encoded.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -163,6 +176,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<FieldType> types = new ArrayList<>();
                 String primaryKey = "";
+                List<Integer> dictionaryColumns = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -174,19 +188,60 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict") && types.get(types.size() - 1) == FieldType.STRING_TYPE)
+                            dictionaryColumns.add(types.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                // table options follow the field list, e.g. "name (f int, g string) mapped"
+                boolean mapped = false;
+                boolean slotted = false;
+                boolean compressed = false;
+                boolean columnar = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("mapped"))
+                        mapped = true;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        slotted = true;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (option.equalsIgnoreCase("columnar"))
+                        columnar = true;
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 FieldType[] typeAr = types.toArray(new FieldType[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                if (mapped && compressed) {
+                    System.out.println("Table " + name + " cannot be both mapped and compressed");
+                    System.exit(0);
+                }
+                if (columnar && (mapped || slotted || compressed)) {
+                    System.out.println("Table " + name + " cannot be columnar and " + options);
+                    System.exit(0);
+                }
+                if (!columnar && !dictionaryColumns.isEmpty()) {
+                    System.out.println("Table " + name + " must be columnar to dictionary-encode columns");
+                    System.exit(0);
+                }
+                File tableFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (columnar)
+                    tabHf = new ColumnFile(tableFile, t, dictionaryColumns);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(tableFile, t, slotted);
+                else
+                    tabHf = new HeapFile(tableFile, t, mapped, slotted);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,11 @@ public enum FieldType implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buffer) {
+            return new IntField(buffer.getInt());
+        }
+
     },
     STRING_TYPE() {
         @Override
@@ -47,6 +53,15 @@ public enum FieldType implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buffer) {
+            int strLen = buffer.getInt();
+            byte[] bs = new byte[strLen];
+            buffer.get(bs);
+            buffer.position(buffer.position() + STRING_LEN - strLen);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -65,4 +80,12 @@ public enum FieldType implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @return a Field object of the same type as this object that has contents
+     *   read from the specified buffer at its current position; the position is
+     *   advanced past the field.
+     * @param buffer The buffer to read from
+     */
+    public abstract Field parse(ByteBuffer buffer);
+
 }
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.*;
+import simpledb.storage.page.FreeSpaceMap;
 
 import java.io.*;
 import java.util.List;
@@ -100,7 +101,8 @@ public class Utility {
      * A utility method to create a new HeapFile with a single empty page,
      * assuming the path does not already exist. If the path exists, the file
      * will be overwritten. The new table will be added to the Catalog with
-     * the specified number of columns as IntFields.
+     * the specified number of columns as IntFields. The free space map of the
+     * table is deleted when the VM exits, as it is only a hint.
      */
     public static HeapFile createEmptyHeapFile(String path, int cols) throws IOException {
         File f = new File(path);
@@ -108,6 +110,9 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        File fsm = new File(path + FreeSpaceMap.SUFFIX);
+        fsm.delete();
+        fsm.deleteOnExit();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
@@ -0,0 +1,58 @@
+package simpledb.core.file;
+
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link PageFileChannel} per file on disk, shared by every DbFile
+ * that points at it.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class FileChannelManager {
+
+    private static final FileChannelManager INSTANCE = new FileChannelManager();
+
+    private final ConcurrentMap<File, PageFileChannel> channels = Maps.newConcurrentMap();
+
+    public static FileChannelManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared handle for the given file, opening it if needed.
+     */
+    public PageFileChannel get(File file) {
+        return channels.computeIfAbsent(file.getAbsoluteFile(), PageFileChannel::new);
+    }
+
+    /**
+     * Returns the shared handle for the given file, re-binding it to the file
+     * currently at that path if that is not the one it has open. DbFiles call
+     * this when they are constructed, as the file may have been deleted and
+     * recreated since the handle was opened; other DbFiles on the same file
+     * keep using the handle meanwhile.
+     */
+    public PageFileChannel open(File file) {
+        PageFileChannel channel = get(file);
+        try {
+            channel.reopenIfReplaced();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return channel;
+    }
+
+    public void close(File file) throws IOException {
+        PageFileChannel channel = channels.remove(file.getAbsoluteFile());
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
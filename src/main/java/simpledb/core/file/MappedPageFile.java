@@ -0,0 +1,98 @@
+package simpledb.core.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A read-only, memory-mapped view of a paged file. The file is mapped in
+ * chunks of at most {@link #MAX_CHUNK_SIZE} bytes (a single mapping cannot
+ * exceed 2GB), each chunk holding a whole number of pages so no page spans
+ * two chunks. Reads are served from the OS page cache without a syscall.
+ * <p>
+ * The mapping covers the file as it was when it was mapped; it is re-mapped
+ * once if a read falls past its end, after which the caller should fall back
+ * to regular reads.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class MappedPageFile {
+
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final PageFileChannel channel;
+
+    private volatile Mapping mapping;
+
+    public MappedPageFile(PageFileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Copies the page of the given size at the given position into dst.
+     *
+     * @return false if the page lies outside the mapped file
+     */
+    public boolean read(byte[] dst, long position, int pageSize) throws IOException {
+        ByteBuffer page = slice(position, pageSize);
+        if (page == null) {
+            return false;
+        }
+        page.get(dst, 0, pageSize);
+        return true;
+    }
+
+    /**
+     * Returns a read-only buffer over the page of the given size at the given
+     * position, without copying it, or null if the page lies outside the mapped file.
+     */
+    public ByteBuffer slice(long position, int pageSize) throws IOException {
+        Mapping current = mapping;
+        if (current == null || current.pageSize != pageSize || position + pageSize > current.length) {
+            current = remap(position + pageSize, pageSize);
+            if (current == null) {
+                return null;
+            }
+        }
+        int chunk = (int) (position / current.chunkSize);
+        int offset = (int) (position % current.chunkSize);
+        ByteBuffer page = current.chunks[chunk].duplicate();
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice();
+    }
+
+    private synchronized Mapping remap(long required, int pageSize) throws IOException {
+        Mapping current = mapping;
+        if (current != null && current.pageSize == pageSize && required <= current.length) {
+            return current;
+        }
+        long length = channel.size();
+        if (required > length - length % pageSize) {
+            return null;
+        }
+        mapping = new Mapping(channel, length, pageSize);
+        return mapping;
+    }
+
+    private static final class Mapping {
+        private final long length;
+        private final int pageSize;
+        private final long chunkSize;
+        private final MappedByteBuffer[] chunks;
+
+        private Mapping(PageFileChannel channel, long length, int pageSize) throws IOException {
+            this.length = length - length % pageSize;
+            this.pageSize = pageSize;
+            this.chunkSize = MAX_CHUNK_SIZE - MAX_CHUNK_SIZE % pageSize;
+            int numChunks = (int) ((this.length + chunkSize - 1) / chunkSize);
+            this.chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = i * chunkSize;
+                chunks[i] = channel.map(start, Math.min(chunkSize, this.length - start));
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package simpledb.core.file;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+/**
+ * A long-lived handle over the file backing a DbFile. Pages are read and
+ * written with positional I/O on a single FileChannel, so no open/seek/close
+ * is paid per page.
+ * <p>
+ * Handles are shared per file and obtained from {@link FileChannelManager}.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class PageFileChannel implements Closeable {
+
+    private final File file;
+
+    private volatile FileChannel channel;
+
+    /** The identity of the file the channel was opened on; protected by this */
+    private Object identity;
+
+    PageFileChannel(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads into dst starting at the given file position until dst is full
+     * or the end of the file is reached.
+     *
+     * @return the number of bytes read, 0 if position is at or past the end of file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (channel == null && !file.exists()) {
+            return 0;
+        }
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int read = channel().read(dst, position + total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Same as {@link #read(ByteBuffer, long)}, but fails if dst cannot be filled.
+     */
+    public void readFully(ByteBuffer dst, long position) throws IOException {
+        int expected = dst.remaining();
+        int read = read(dst, position);
+        if (read < expected) {
+            throw new EOFException("read " + read + " of " + expected + " bytes at " + position + " from " + file);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src at the given file position.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        long offset = position;
+        while (src.hasRemaining()) {
+            offset += channel().write(src, offset);
+        }
+    }
+
+    /**
+     * Writes a batch of buffers keyed by file position, in position order.
+     * Buffers that are contiguous on disk are coalesced into a single
+     * gathering write, so a batch of adjacent pages costs one syscall.
+     */
+    public synchronized void write(SortedMap<Long, ByteBuffer> buffers) throws IOException {
+        List<ByteBuffer> run = new ArrayList<>();
+        long runStart = -1;
+        long runEnd = -1;
+        for (Map.Entry<Long, ByteBuffer> entry : buffers.entrySet()) {
+            if (entry.getKey() != runEnd) {
+                writeRun(run, runStart);
+                runStart = entry.getKey();
+                runEnd = runStart;
+            }
+            run.add(entry.getValue());
+            runEnd += entry.getValue().remaining();
+        }
+        writeRun(run, runStart);
+    }
+
+    private void writeRun(List<ByteBuffer> run, long position) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        if (run.size() == 1) {
+            write(run.get(0), position);
+        } else {
+            // gathering writes go through the channel position, which is
+            // only ever moved here, under the monitor of this handle
+            FileChannel current = channel();
+            ByteBuffer[] srcs = run.toArray(new ByteBuffer[0]);
+            current.position(position);
+            while (srcs[srcs.length - 1].hasRemaining()) {
+                current.write(srcs);
+            }
+        }
+        run.clear();
+    }
+
+    /**
+     * Appends all remaining bytes of src at the current end of the file.
+     *
+     * @return the file position the bytes were written at
+     */
+    public synchronized long append(ByteBuffer src) throws IOException {
+        long position = size();
+        write(src, position);
+        return position;
+    }
+
+    /**
+     * @return the current size of the file, taken from the open descriptor
+     */
+    public long size() throws IOException {
+        if (channel == null && !file.exists()) {
+            return 0;
+        }
+        return channel().size();
+    }
+
+    /**
+     * Maps a read-only region of the file into memory.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    public void force(boolean metaData) throws IOException {
+        channel().force(metaData);
+    }
+
+    /**
+     * Drops the underlying descriptor if the file at this path is no longer
+     * the one it was opened on, i.e. it was deleted, or replaced by a new
+     * file, since. A file rewritten in place keeps its descriptor, which
+     * already sees the new bytes.
+     */
+    synchronized void reopenIfReplaced() throws IOException {
+        if (channel != null && !Objects.equals(identity, identityOf(file))) {
+            close();
+        }
+    }
+
+    /**
+     * Drops the underlying descriptor; the next access re-opens whatever is
+     * currently at this path.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        FileChannel old = channel;
+        channel = null;
+        identity = null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel current = channel;
+        if (current == null || !current.isOpen()) {
+            synchronized (this) {
+                if (channel == null || !channel.isOpen()) {
+                    channel = openChannel(file);
+                    identity = identityOf(file);
+                }
+                current = channel;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns what tells the file at the given path apart from any other,
+     * its inode where the platform has one, or null if there is no file.
+     */
+    private static Object identityOf(File file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+}
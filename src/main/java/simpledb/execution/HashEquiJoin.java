@@ -60,7 +60,7 @@ public class HashEquiJoin extends Operator {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
-            t1 = child1.next();
+            t1 = child1.next().materialize();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
             if (cnt++ == MAP_SIZE)
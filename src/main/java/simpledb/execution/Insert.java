@@ -99,7 +99,7 @@ public class Insert extends Operator {
         }
         int counter = 0;
         while (child.hasNext()) {
-            Tuple tuple = child.next();
+            Tuple tuple = child.next().materialize();
             try {
                 Database.getBufferPool().insertTuple(this.transactionId, tableId, tuple);
             } catch (IOException e) {
@@ -60,7 +60,7 @@ public class OrderBy extends Operator {
         child.open();
         // load all the tuples in a collection, and sort it
         while (child.hasNext())
-            childTups.add(child.next());
+            childTups.add(child.next().materialize());
         childTups.sort(new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
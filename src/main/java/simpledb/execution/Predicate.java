@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleView;
 
 import java.io.Serializable;
 
@@ -106,6 +107,9 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (t instanceof TupleView) {
+            return ((TupleView) t).compare(field, op, operand);
+        }
         return t.getField(field).compare(op, operand);
     }
 
@@ -5,6 +5,7 @@ import simpledb.common.FieldType;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleView;
 
 import java.util.*;
 
@@ -18,6 +19,10 @@ public class Project extends Operator {
     private final TupleDesc     td;
     private final List<Integer> outFieldIds;
 
+    /** The view the child returns, and the projection of it this returns */
+    private transient TupleView  source;
+    private transient TupleView  projected;
+
     /**
      * Constructor accepts a child operator to read tuples to apply projection
      * to and a list of fields in output tuple
@@ -70,6 +75,16 @@ public class Project extends Operator {
         if (!child.hasNext())
             return null;
         Tuple t = child.next();
+        if (t instanceof TupleView) {
+            // project the view rather than decoding the fields
+            TupleView view = (TupleView) t;
+            if (view != source) {
+                source = view;
+                projected = view.project(fieldIds(), td);
+            }
+            projected.moveTo(view);
+            return projected;
+        }
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
@@ -78,6 +93,14 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    private int[] fieldIds() {
+        int[] ids = new int[outFieldIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = outFieldIds.get(i);
+        }
+        return ids;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -88,7 +88,8 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        // the caller may keep the tuple
+        return op.next().materialize();
     }
 
     /** Close the iterator */
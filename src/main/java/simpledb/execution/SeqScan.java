@@ -1,8 +1,10 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
@@ -30,6 +32,17 @@ public class SeqScan implements OpIterator {
 
     private DbFileIterator iterator;
 
+    /**
+     * The fields the operators above this scan use, or null if all are used.
+     */
+    private Set<Integer> columns;
+
+    /**
+     * Whether a scan of a HeapFile returns one {@link TupleView} moved from
+     * tuple to tuple, rather than a Tuple per tuple.
+     */
+    private boolean tupleViews;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -88,6 +101,44 @@ public class SeqScan implements OpIterator {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
         this.dbFile = Database.getCatalog().getDatabaseFile(this.tableId);
+        this.columns = null;
+        this.tupleViews = false;
+    }
+
+    /**
+     * Tells the scan which fields of its tuples are used by the operators
+     * above it. A scan of a {@link ColumnFile} then only reads the columns of
+     * those fields and leaves the other fields of its tuples null; other
+     * files ignore this.
+     *
+     * @param columns the indexes of the used fields, or null if all are used
+     */
+    public void setColumns(Collection<Integer> columns) {
+        this.columns = columns == null ? null : new TreeSet<>(columns);
+    }
+
+    /**
+     * @return the indexes of the fields this scan reads, or null if it reads all of them
+     */
+    public Set<Integer> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Makes a scan of a {@link HeapFile} return a single {@link TupleView}
+     * moved from tuple to tuple instead of decoding each tuple, so the
+     * operators above it must not keep its tuples past their next call
+     * without materializing them; other files ignore this.
+     */
+    public void setTupleViews(boolean tupleViews) {
+        this.tupleViews = tupleViews;
+    }
+
+    /**
+     * @return whether this scan returns tuple views
+     */
+    public boolean isTupleViews() {
+        return tupleViews;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -96,7 +147,13 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator = dbFile.iterator(transactionId);
+        if (columns != null && dbFile instanceof ColumnFile) {
+            iterator = ((ColumnFile) dbFile).iterator(transactionId, columns);
+        } else if (tupleViews && dbFile instanceof HeapFile) {
+            iterator = ((HeapFile) dbFile).viewIterator(transactionId);
+        } else {
+            iterator = dbFile.iterator(transactionId);
+        }
         iterator.open();
     }
 
@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -9,6 +10,9 @@ import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.PageFileChannel;
+import simpledb.storage.page.PageReadAhead;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -32,6 +36,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int       tableid;
     private final int       keyField;
+    private final PageFileChannel channel;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +51,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = FileChannelManager.getInstance().open(f);
     }
 
     /**
@@ -85,13 +91,18 @@ public class BTreeFile implements DbFile {
      * @return the page constructed from the contents on disk
      */
     public Page readPage(PageId pid) {
+        return readPage(pid, null);
+    }
+
+    @Override
+    public Page readPage(PageId pid, ByteBuffer frame) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(ByteBuffer.wrap(pageBuf), 0);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -101,15 +112,14 @@ public class BTreeFile implements DbFile {
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1)
-                             * BufferPool.getPageSize()) != BTreeRootPtrPage.getPageSize()
-                                                            + (long) (id.getPageNumber() - 1)
-                                                            * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to seek to correct place in BTreeFile");
+                // header pages are copied out of their buffer, so never read into a frame
+                if (frame == null || id.pgcateg() == BTreePageId.HEADER) {
+                    frame = ByteBuffer.allocate(BufferPool.getPageSize());
                 }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                ByteBuffer page = frame;
+                page.clear();
+                int retval = channel.read(page, pageOffset(id.getPageNumber()));
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -117,19 +127,38 @@ public class BTreeFile implements DbFile {
                                                        + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+                // the page takes over the buffer read into
+                page.clear();
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, page, keyField);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, page, keyField);
                 } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
+                    return new BTreeHeaderPage(id, page.array());
                 }
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    @Override
+    public Page createPage(PageId pid, byte[] data) {
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            switch (id.pgcateg()) {
+                case BTreePageId.ROOT_PTR:
+                    return new BTreeRootPtrPage(id, data);
+                case BTreePageId.INTERNAL:
+                    return new BTreeInternalPage(id, data, keyField);
+                case BTreePageId.LEAF:
+                    return new BTreeLeafPage(id, data, keyField);
+                default:
+                    return new BTreeHeaderPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -142,24 +171,45 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(ByteBuffer.wrap(data), 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1)
-                    * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(ByteBuffer.wrap(data), pageOffset(page.getId().getPageNumber()));
         }
     }
 
+    /**
+     * Write a batch of pages to disk in file order, coalescing adjacent pages.
+     *
+     * @param pages - the pages to write to disk
+     */
+    public void writePages(Collection<Page> pages) throws IOException {
+        SortedMap<Long, ByteBuffer> buffers = new TreeMap<>();
+        for (Page page : pages) {
+            BTreePageId id = (BTreePageId) page.getId();
+            long offset = id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.getPageNumber());
+            buffers.put(offset, ByteBuffer.wrap(page.getPageData()));
+        }
+        channel.write(buffers);
+    }
+
+    /**
+     * Returns the offset in the file of the (non root pointer) page with the given number
+     */
+    private static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
         // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        try {
+            return (int) ((channel.size() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -1043,14 +1093,12 @@ public class BTreeFile implements DbFile {
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException,
                                                                                     TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (channel.size() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.append(ByteBuffer.wrap(emptyRootPtrData));
+                channel.append(ByteBuffer.wrap(emptyLeafData));
             }
         }
 
@@ -1105,10 +1153,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.append(ByteBuffer.wrap(emptyData));
                 emptyPageNo = numPages();
             }
         }
@@ -1140,10 +1186,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache		
         Database.getBufferPool().discardPage(newPageId);
@@ -1278,6 +1321,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final BTreeFile     f;
+    final PageReadAhead readAhead;
 
     /**
      * Constructor for this iterator
@@ -1287,6 +1331,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public BTreeFileIterator(BTreeFile f, TransactionId tid) {
         this.f = f;
         this.tid = tid;
+        // leaves are scanned by following right sibling pointers
+        this.readAhead = new PageReadAhead(Database.getBufferPool(),
+            (pid, page) -> page instanceof BTreeLeafPage ? ((BTreeLeafPage) page).getRightSiblingId() : null);
     }
 
     /**
@@ -1298,6 +1345,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreePageId root = rootPtr.getRootId();
         curp = f.findLeafPage(tid, root, null);
         it = curp.iterator();
+        readAhead.reset();
+        readAhead.accessed(curp.getId(), curp.getRightSiblingId());
     }
 
     /**
@@ -1313,10 +1362,12 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
         while (it == null && curp != null) {
             BTreePageId nextp = curp.getRightSiblingId();
+            Database.getBufferPool().unpinPage(tid, curp);
             if (nextp == null) {
                 curp = null;
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+                readAhead.accessed(nextp, curp.getRightSiblingId());
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1342,7 +1393,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
-        curp = null;
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp);
+            curp = null;
+        }
     }
 }
 
@@ -1414,6 +1468,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             }
 
             BTreePageId nextp = curp.getRightSiblingId();
+            Database.getBufferPool().unpinPage(tid, curp);
+            curp = null;
             // if there are no more pages to the right, end the iteration
             if (nextp == null) {
                 return null;
@@ -1440,5 +1496,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp);
+            curp = null;
+        }
     }
 }
@@ -201,20 +201,83 @@ public class BTreeFileEncoder {
         HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
         HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
-        // read all the tuples from the heap file and sort them on the keyField
-        List<Tuple> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+        build(heapf, bf, npagebytes, typeAr, keyField, ExternalTupleSorter.DEFAULT_RUN_SIZE,
+            Runtime.getRuntime().availableProcessors());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return bf;
+    }
+
+    /**
+     * Builds a B+ tree over the tuples of an existing table, which need not
+     * fit in memory: they are sorted externally, see {@link ExternalTupleSorter},
+     * and the sorted stream is packed into full leaf pages, with the internal
+     * pages written bottom-up as they fill.
+     *
+     * @param source - the table to index
+     * @param bFile - the data file for the BTreeFile; it must not exist or be empty
+     * @param keyField - the field of the tuples the B+ tree will be keyed on
+     * @return the B+ tree file, added to the catalog
+     */
+    public static BTreeFile convert(HeapFile source, File bFile, int keyField) throws IOException, DbException,
+                                                                             TransactionAbortedException {
+        return convert(source, bFile, keyField, ExternalTupleSorter.DEFAULT_RUN_SIZE,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds a B+ tree over the tuples of an existing table.
+     *
+     * @param source - the table to index
+     * @param bFile - the data file for the BTreeFile; it must not exist or be empty
+     * @param keyField - the field of the tuples the B+ tree will be keyed on
+     * @param runSize - the number of tuples sorted in memory at a time by each thread
+     * @param threads - the number of threads sorting runs
+     * @return the B+ tree file, added to the catalog
+     */
+    public static BTreeFile convert(HeapFile source, File bFile, int keyField, int runSize, int threads)
+                                                                                                      throws IOException,
+                                                                                                      DbException,
+                                                                                                      TransactionAbortedException {
+        TupleDesc td = source.getTupleDesc();
+        FieldType[] typeAr = new FieldType[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+        }
+        BTreeFile bf = new BTreeFile(bFile, keyField, td);
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        build(source, bf, BufferPool.getPageSize(), typeAr, keyField, runSize, threads);
+        return bf;
+    }
+
+    /**
+     * Writes the tuples of the source, sorted on the keyField, into the empty
+     * BTreeFile.
+     */
+    private static void build(DbFile source, BTreeFile bf, int npagebytes, FieldType[] typeAr, int keyField,
+                              int runSize, int threads) throws IOException, DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();
-        DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
+        DbFileIterator it = source.iterator(tid);
+        ExternalTupleSorter sorter = new ExternalTupleSorter(source.getTupleDesc(), new TupleComparator(keyField),
+            runSize, threads);
         it.open();
-        while (it.hasNext()) {
-            Tuple tup = it.next();
-            tuples.add(tup);
+        ExternalTupleSorter.SortedIterator tuples;
+        try {
+            tuples = sorter.sort(it);
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
-        it.close();
-        tuples.sort(new TupleComparator(keyField));
+        try {
+            build(tuples, bf, npagebytes, typeAr.length, typeAr, keyField);
+        } finally {
+            tuples.close();
+        }
+    }
 
-        // add the tuples to B+ tree file
-        BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+    private static void build(Iterator<Tuple> tuples, BTreeFile bf, int npagebytes, int numFields, FieldType[] typeAr,
+                              int keyField) throws IOException, DbException {
         FieldType keyType = typeAr[keyField];
         int tableid = bf.getId();
 
@@ -244,7 +307,8 @@ public class BTreeFileEncoder {
         List<Tuple> page1 = new ArrayList<>();
         List<Tuple> page2 = new ArrayList<>();
         BTreePageId leftSiblingId = null;
-        for (Tuple tup : tuples) {
+        while (tuples.hasNext()) {
+            Tuple tup = tuples.next();
             if (page1.size() < nrecords) {
                 page1.add(tup);
             } else if (page2.size() < nrecords) {
@@ -320,30 +384,27 @@ public class BTreeFileEncoder {
 
         // set all the parent and sibling pointers
         setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
-        setRightSiblingPtrs(bf, lastPid, null);
-
-        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-        return bf;
+        setRightSiblingPtrs(bf, lastPid);
     }
 
     /**
      * Set all the right sibling pointers by following the left sibling pointers
      * 
      * @param bf - the BTreeFile
-     * @param pid - the id of the page to update with the right sibling pointer
-     * @param rightSiblingId - the id of the page's right sibling
+     * @param lastPid - the id of the last leaf page, which has no right sibling
      * @throws IOException
      * @throws DbException
      */
-    private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId)
-                                                                                                      throws IOException,
-                                                                                                      DbException {
-        BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
-        page.setRightSiblingId(rightSiblingId);
-        BTreePageId leftSiblingId = page.getLeftSiblingId();
-        bf.writePage(page);
-        if (leftSiblingId != null) {
-            setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+    private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId lastPid) throws IOException, DbException {
+        // a loop rather than recursion: there may be more leaves than stack frames
+        BTreePageId pid = lastPid;
+        BTreePageId rightSiblingId = null;
+        while (pid != null) {
+            BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+            page.setRightSiblingId(rightSiblingId);
+            bf.writePage(page);
+            rightSiblingId = pid;
+            pid = page.getLeftSiblingId();
         }
     }
 
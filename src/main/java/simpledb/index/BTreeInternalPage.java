@@ -2,16 +2,15 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
-import simpledb.common.FieldType;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
 
 /**
@@ -23,12 +22,14 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
-    private final byte[]  header;
-    private final Field[] keys;
-    private final int[]   children;
-    private final int     numSlots;
+    private static final int CHILD_CATEGORY_OFFSET = PARENT_OFFSET + INDEX_SIZE; // either leaf or internal
+    private static final int HEADER_OFFSET         = CHILD_CATEGORY_OFFSET + 1;
 
-    private int           childCategory; // either leaf or internal
+    private final Field[] keys;       // keys decoded from the page so far
+    private final int     numSlots;
+    private final int     keySize;
+    private final int     keysOffset;
+    private final int     childrenOffset;
 
     public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
         Field prev = lowerBound;
@@ -71,49 +72,23 @@ public class BTreeInternalPage extends BTreePage {
      * @param key - the field which the index is keyed on
      */
     public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-        super(id, key);
-        this.numSlots = getMaxEntries() + 1;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // Read the parent pointer
-        try {
-            Field f = FieldType.INT_TYPE.parse(dis);
-            this.parent = ((IntField) f).getValue();
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-        }
-
-        // read the child page category
-        childCategory = dis.readByte();
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        keys = new Field[numSlots];
-        try {
-            // allocate and read the keys of this page
-            // start from 1 because the first key slot is not used
-            // since a node with m keys has m+1 pointers
-            keys[0] = null;
-            for (int i = 1; i < keys.length; i++)
-                keys[i] = readNextKey(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-
-        children = new int[numSlots];
-        try {
-            // allocate and read the child pointers of this page
-            for (int i = 0; i < children.length; i++)
-                children[i] = readNextChild(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())), key);
+    }
 
-        setBeforeImage();
+    /**
+     * Create a BTreeInternalPage over a buffer holding the page as read from
+     * disk, without copying it; keys are decoded on first access.
+     *
+     * @see #BTreeInternalPage(BTreePageId, byte[], int)
+     */
+    public BTreeInternalPage(BTreePageId id, ByteBuffer data, int key) {
+        super(id, data, key);
+        this.numSlots = getMaxEntries() + 1;
+        this.keySize = td.getFieldType(keyField).getLen();
+        // the first key slot is not stored since a node with m keys has m+1 pointers
+        this.keysOffset = HEADER_OFFSET + getHeaderSize() - keySize;
+        this.childrenOffset = keysOffset + keySize * numSlots;
+        this.keys = new Field[numSlots];
     }
 
     /** 
@@ -145,11 +120,7 @@ public class BTreeInternalPage extends BTreePage {
         -- used by recovery */
     public BTreeInternalPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new BTreeInternalPage(pid, oldDataRef, keyField);
+            return new BTreeInternalPage(pid, getBeforeImageData(), keyField);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -158,183 +129,41 @@ public class BTreeInternalPage extends BTreePage {
         return null;
     }
 
-    public void setBeforeImage() {
-        synchronized (oldDataLock) {
-            oldData = getPageData().clone();
-        }
+    private int keyOffset(int slotId) {
+        return keysOffset + slotId * keySize;
     }
 
-    /**
-     * Read keys from the source file.
-     */
-    private Field readNextKey(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next key, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getFieldType(keyField).getLen(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty key");
-                }
-            }
-            return null;
-        }
-
-        // read the key field
-        Field f = null;
-        try {
-            f = td.getFieldType(keyField).parse(dis);
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    private int childOffset(int slotId) {
+        return childrenOffset + slotId * INDEX_SIZE;
+    }
 
-        return f;
+    private int getChild(int slotId) {
+        return buffer.getInt(childOffset(slotId));
     }
 
-    /**
-     * Read child pointers from the source file.
-     */
-    private int readNextChild(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next child pointer, and
-        // return -1.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < INDEX_SIZE; i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty child pointer");
-                }
-            }
-            return -1;
-        }
+    private void setChild(int slotId, int child) {
+        buffer.putInt(childOffset(slotId), child);
+    }
 
-        // read child pointer
-        int child = -1;
-        try {
-            Field f = FieldType.INT_TYPE.parse(dis);
-            child = ((IntField) f).getValue();
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    private void setKey(int slotId, Field key) {
+        key.serialize(bufferAt(keyOffset(slotId)));
+        keys[slotId] = key;
+    }
 
-        return child;
+    private int getChildCategory() {
+        return buffer.get(CHILD_CATEGORY_OFFSET);
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the BTreeInternalPage constructor and
-     * have it produce an identical BTreeInternalPage object.
-     *
-     * @see #BTreeInternalPage
-     * @return A byte array correspond to the bytes of this page.
+     * Empties the key and child pointer of the specified slot.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // write out the parent pointer
-        try {
-            dos.writeInt(parent);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // write out the child page category
-        try {
-            dos.writeByte((byte) childCategory);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    private void clearSlot(int slotId) {
+        markSlotUsed(slotId, false);
+        if (slotId > 0) {
+            clear(keyOffset(slotId), keySize);
         }
-
-        // create the keys
-        // start from 1 because the first key slot is not used
-        // since a node with m keys has m+1 pointers
-        for (int i = 1; i < keys.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getFieldType(keyField).getLen(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            try {
-                keys[i].serialize(dos);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-        }
-
-        // create the child pointers
-        for (int i = 0; i < children.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < INDEX_SIZE; j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            try {
-                dos.writeInt(children[i]);
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize()
-                      - (INDEX_SIZE + 1 + header.length + td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE
-                                                                                                                   * children.length);
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        clear(childOffset(slotId), INDEX_SIZE);
+        keys[slotId] = null;
     }
 
     /**
@@ -357,13 +186,14 @@ public class BTreeInternalPage extends BTreePage {
             throw new DbException("tried to delete entry on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null entry.");
+        copyBeforeImage();
         if (deleteRightChild) {
-            markSlotUsed(rid.getTupleNumber(), false);
+            clearSlot(rid.getTupleNumber());
         } else {
             for (int i = rid.getTupleNumber() - 1; i >= 0; i--) {
                 if (isSlotUsed(i)) {
-                    children[i] = children[rid.getTupleNumber()];
-                    markSlotUsed(rid.getTupleNumber(), false);
+                    setChild(i, getChild(rid.getTupleNumber()));
+                    clearSlot(rid.getTupleNumber());
                     break;
                 }
             }
@@ -417,25 +247,26 @@ public class BTreeInternalPage extends BTreePage {
 
         for (int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
             if (isSlotUsed(i)) {
-                if (keys[i].compare(Op.LESS_THAN, e.getKey())) {
+                if (getKey(i).compare(Op.LESS_THAN, e.getKey())) {
                     throw new DbException("attempt to update entry with invalid key " + e.getKey()
                                           + " HINT: updated key must be less than or equal to keys on the right");
                 }
                 break;
             }
         }
+        copyBeforeImage();
         for (int i = rid.getTupleNumber() - 1; i >= 0; i--) {
             if (isSlotUsed(i)) {
-                if (i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+                if (i > 0 && getKey(i).compare(Op.GREATER_THAN, e.getKey())) {
                     throw new DbException("attempt to update entry with invalid key " + e.getKey()
                                           + " HINT: updated key must be greater than or equal to keys on the left");
                 }
-                children[i] = e.getLeftChild().getPageNumber();
+                setChild(i, e.getLeftChild().getPageNumber());
                 break;
             }
         }
-        children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
-        keys[rid.getTupleNumber()] = e.getKey();
+        setChild(rid.getTupleNumber(), e.getRightChild().getPageNumber());
+        setKey(rid.getTupleNumber(), e.getKey());
     }
 
     /**
@@ -452,19 +283,22 @@ public class BTreeInternalPage extends BTreePage {
         if (e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
             throw new DbException("table id mismatch in insertEntry");
 
+        int childCategory = getChildCategory();
         if (childCategory == 0) {
             if (e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
                 throw new DbException("child page category mismatch in insertEntry");
 
-            childCategory = e.getLeftChild().pgcateg();
+            copyBeforeImage();
+            buffer.put(CHILD_CATEGORY_OFFSET, (byte) e.getLeftChild().pgcateg());
         } else if (e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
             throw new DbException("child page category mismatch in insertEntry");
 
         // if this is the first entry, add it and return
         if (getNumEmptySlots() == getMaxEntries()) {
-            children[0] = e.getLeftChild().getPageNumber();
-            children[1] = e.getRightChild().getPageNumber();
-            keys[1] = e.getKey();
+            copyBeforeImage();
+            setChild(0, e.getLeftChild().getPageNumber());
+            setChild(1, e.getRightChild().getPageNumber());
+            setKey(1, e.getKey());
             markSlotUsed(0, true);
             markSlotUsed(1, true);
             e.setRecordId(new RecordId(pid, 1));
@@ -484,11 +318,13 @@ public class BTreeInternalPage extends BTreePage {
             throw new DbException("called insertEntry on page with no empty slots.");
 
         // find the child pointer matching the left or right child in this entry
+        copyBeforeImage();
         int lessOrEqKey = -1;
         for (int i = 0; i < numSlots; i++) {
             if (isSlotUsed(i)) {
-                if (children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
-                    if (i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+                int child = getChild(i);
+                if (child == e.getLeftChild().getPageNumber() || child == e.getRightChild().getPageNumber()) {
+                    if (i > 0 && getKey(i).compare(Op.GREATER_THAN, e.getKey())) {
                         throw new DbException("attempt to insert invalid entry with left child "
                                               + e.getLeftChild().getPageNumber() + ", right child "
                                               + e.getRightChild().getPageNumber() + " and key " + e.getKey()
@@ -497,12 +333,12 @@ public class BTreeInternalPage extends BTreePage {
                                               + " left and right keys");
                     }
                     lessOrEqKey = i;
-                    if (children[i] == e.getRightChild().getPageNumber()) {
-                        children[i] = e.getLeftChild().getPageNumber();
+                    if (child == e.getRightChild().getPageNumber()) {
+                        setChild(i, e.getLeftChild().getPageNumber());
                     }
                 } else if (lessOrEqKey != -1) {
                     // validate that the next key is greater than or equal to the one we are inserting
-                    if (keys[i].compare(Op.LESS_THAN, e.getKey())) {
+                    if (getKey(i).compare(Op.LESS_THAN, e.getKey())) {
                         throw new DbException("attempt to insert invalid entry with left child "
                                               + e.getLeftChild().getPageNumber() + ", right child "
                                               + e.getRightChild().getPageNumber() + " and key " + e.getKey()
@@ -542,8 +378,8 @@ public class BTreeInternalPage extends BTreePage {
         markSlotUsed(goodSlot, true);
         Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(),
             pid.getPageNumber(), goodSlot);
-        keys[goodSlot] = e.getKey();
-        children[goodSlot] = e.getRightChild().getPageNumber();
+        setKey(goodSlot, e.getKey());
+        setChild(goodSlot, e.getRightChild().getPageNumber());
         e.setRecordId(new RecordId(pid, goodSlot));
     }
 
@@ -554,9 +390,10 @@ public class BTreeInternalPage extends BTreePage {
     private void moveEntry(int from, int to) {
         if (!isSlotUsed(to) && isSlotUsed(from)) {
             markSlotUsed(to, true);
+            copy(keyOffset(from), keyOffset(to), keySize);
+            copy(childOffset(from), childOffset(to), INDEX_SIZE);
             keys[to] = keys[from];
-            children[to] = children[from];
-            markSlotUsed(from, false);
+            clearSlot(from);
         }
     }
 
@@ -586,7 +423,7 @@ public class BTreeInternalPage extends BTreePage {
     public boolean isSlotUsed(int i) {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
-        return (header[headerbyte] & (1 << headerbit)) != 0;
+        return (buffer.get(HEADER_OFFSET + headerbyte) & (1 << headerbit)) != 0;
     }
 
     /**
@@ -597,10 +434,12 @@ public class BTreeInternalPage extends BTreePage {
         int headerbyte = (i - headerbit) / 8;
 
         Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+        byte bits = buffer.get(HEADER_OFFSET + headerbyte);
         if (value)
-            header[headerbyte] |= 1 << headerbit;
+            bits |= 1 << headerbit;
         else
-            header[headerbyte] &= (0xFF ^ (1 << headerbit));
+            bits &= (0xFF ^ (1 << headerbit));
+        buffer.put(HEADER_OFFSET + headerbyte, bits);
     }
 
     /**
@@ -639,7 +478,12 @@ public class BTreeInternalPage extends BTreePage {
             }
 
             Debug.log(1, "BTreeInternalPage.getKey: returning key %d", i);
-            return keys[i];
+            Field key = keys[i];
+            if (key == null) {
+                key = td.getFieldType(keyField).parse(bufferAt(keyOffset(i)));
+                keys[i] = key;
+            }
+            return key;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
@@ -654,7 +498,7 @@ public class BTreeInternalPage extends BTreePage {
      */
     protected BTreePageId getChildId(int i) throws NoSuchElementException {
 
-        if (i < 0 || i >= children.length)
+        if (i < 0 || i >= numSlots)
             throw new NoSuchElementException();
 
         try {
@@ -665,7 +509,7 @@ public class BTreeInternalPage extends BTreePage {
             }
 
             Debug.log(1, "BTreeInternalPage.getChildId: returning child id %d", i);
-            return new BTreePageId(pid.getTableId(), children[i], childCategory);
+            return new BTreePageId(pid.getTableId(), getChild(i), getChildCategory());
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
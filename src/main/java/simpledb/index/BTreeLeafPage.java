@@ -4,12 +4,12 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
-import simpledb.common.FieldType;
 import simpledb.execution.Predicate;
 import simpledb.storage.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -20,12 +20,13 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
-    private final byte[]  header;
-    private final Tuple[] tuples;
-    private final int     numSlots;
+    private static final int LEFT_SIBLING_OFFSET  = PARENT_OFFSET + INDEX_SIZE;      // leaf node or 0
+    private static final int RIGHT_SIBLING_OFFSET = LEFT_SIBLING_OFFSET + INDEX_SIZE; // leaf node or 0
+    private static final int HEADER_OFFSET        = RIGHT_SIBLING_OFFSET + INDEX_SIZE;
 
-    private int           leftSibling; // leaf node or 0
-    private int           rightSibling; // leaf node or 0
+    private final Tuple[] tuples;     // tuples decoded from the page so far
+    private final int     numSlots;
+    private final int     slotsOffset;
 
     public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
         Field prev = lowerBound;
@@ -66,48 +67,20 @@ public class BTreeLeafPage extends BTreePage {
      * @param key - the field which the index is keyed on
      */
     public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-        super(id, key);
-        this.numSlots = getMaxTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // Read the parent and sibling pointers
-        try {
-            Field f = FieldType.INT_TYPE.parse(dis);
-            this.parent = ((IntField) f).getValue();
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            Field f = FieldType.INT_TYPE.parse(dis);
-            this.leftSibling = ((IntField) f).getValue();
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            Field f = FieldType.INT_TYPE.parse(dis);
-            this.rightSibling = ((IntField) f).getValue();
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-        }
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())), key);
+    }
 
-        setBeforeImage();
+    /**
+     * Create a BTreeLeafPage over a buffer holding the page as read from disk,
+     * without copying it; tuples are decoded on first access.
+     *
+     * @see #BTreeLeafPage(BTreePageId, byte[], int)
+     */
+    public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) {
+        super(id, data, key);
+        this.numSlots = getMaxTuples();
+        this.slotsOffset = HEADER_OFFSET + getHeaderSize();
+        this.tuples = new Tuple[numSlots];
     }
 
     /** 
@@ -136,11 +109,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
     public BTreeLeafPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new BTreeLeafPage(pid, oldDataRef, keyField);
+            return new BTreeLeafPage(pid, getBeforeImageData(), keyField);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -149,136 +118,26 @@ public class BTreeLeafPage extends BTreePage {
         return null;
     }
 
-    public void setBeforeImage() {
-        synchronized (oldDataLock) {
-            oldData = getPageData().clone();
-        }
-    }
-
     /**
-     * Read tuples from the source file.
+     * Decode the tuple in the specified slot from the page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple readTuple(int slotId) {
+        ByteBuffer in = bufferAt(slotOffset(slotId));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = td.getFieldType(j).parse(in);
+            t.setField(j, f);
         }
 
         return t;
     }
 
-    /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the BTreeLeafPage constructor and
-     * have it produce an identical BTreeLeafPage object.
-     *
-     * @see #BTreeLeafPage
-     * @return A byte array corresponding to the bytes of this page.
-     */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // write out the parent and sibling pointers
-        try {
-            dos.writeInt(parent);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        try {
-            dos.writeInt(leftSibling);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        try {
-            dos.writeInt(rightSibling);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    private int slotOffset(int slotId) {
+        return slotsOffset + slotId * td.getSize();
     }
 
     /**
@@ -297,7 +156,10 @@ public class BTreeLeafPage extends BTreePage {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null tuple.");
+        copyBeforeImage();
         markSlotUsed(rid.getTupleNumber(), false);
+        clear(slotOffset(rid.getTupleNumber()), td.getSize());
+        tuples[rid.getTupleNumber()] = null;
         t.setRecordId(null);
     }
 
@@ -330,7 +192,7 @@ public class BTreeLeafPage extends BTreePage {
         Field key = t.getField(keyField);
         for (int i = 0; i < numSlots; i++) {
             if (isSlotUsed(i)) {
-                if (tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+                if (getTuple(i).getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
                     lessOrEqKey = i;
                 else
                     break;
@@ -339,6 +201,7 @@ public class BTreeLeafPage extends BTreePage {
 
         // shift records back or forward to fill empty slot and make room for new record
         // while keeping records in sorted order
+        copyBeforeImage();
         int goodSlot = -1;
         if (emptySlot < lessOrEqKey) {
             for (int i = emptySlot; i < lessOrEqKey; i++) {
@@ -353,6 +216,10 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         // insert new record into the correct spot in sorted order
+        ByteBuffer out = bufferAt(slotOffset(goodSlot));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(out);
+        }
         markSlotUsed(goodSlot, true);
         Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(),
             pid.getPageNumber(), goodSlot);
@@ -368,10 +235,14 @@ public class BTreeLeafPage extends BTreePage {
     private void moveRecord(int from, int to) {
         if (!isSlotUsed(to) && isSlotUsed(from)) {
             markSlotUsed(to, true);
-            RecordId rid = new RecordId(pid, to);
+            copy(slotOffset(from), slotOffset(to), td.getSize());
             tuples[to] = tuples[from];
-            tuples[to].setRecordId(rid);
+            if (tuples[to] != null) {
+                tuples[to].setRecordId(new RecordId(pid, to));
+            }
             markSlotUsed(from, false);
+            clear(slotOffset(from), td.getSize());
+            tuples[from] = null;
         }
     }
 
@@ -380,6 +251,7 @@ public class BTreeLeafPage extends BTreePage {
      * @return the id of the left sibling
      */
     public BTreePageId getLeftSiblingId() {
+        int leftSibling = buffer.getInt(LEFT_SIBLING_OFFSET);
         if (leftSibling == 0) {
             return null;
         }
@@ -391,6 +263,7 @@ public class BTreeLeafPage extends BTreePage {
      * @return the id of the right sibling
      */
     public BTreePageId getRightSiblingId() {
+        int rightSibling = buffer.getInt(RIGHT_SIBLING_OFFSET);
         if (rightSibling == 0) {
             return null;
         }
@@ -404,7 +277,8 @@ public class BTreeLeafPage extends BTreePage {
      */
     public void setLeftSiblingId(BTreePageId id) throws DbException {
         if (id == null) {
-            leftSibling = 0;
+            copyBeforeImage();
+            buffer.putInt(LEFT_SIBLING_OFFSET, 0);
         } else {
             if (id.getTableId() != pid.getTableId()) {
                 throw new DbException("table id mismatch in setLeftSiblingId");
@@ -412,7 +286,8 @@ public class BTreeLeafPage extends BTreePage {
             if (id.pgcateg() != BTreePageId.LEAF) {
                 throw new DbException("leftSibling must be a leaf node");
             }
-            leftSibling = id.getPageNumber();
+            copyBeforeImage();
+            buffer.putInt(LEFT_SIBLING_OFFSET, id.getPageNumber());
         }
     }
 
@@ -423,7 +298,8 @@ public class BTreeLeafPage extends BTreePage {
      */
     public void setRightSiblingId(BTreePageId id) throws DbException {
         if (id == null) {
-            rightSibling = 0;
+            copyBeforeImage();
+            buffer.putInt(RIGHT_SIBLING_OFFSET, 0);
         } else {
             if (id.getTableId() != pid.getTableId()) {
                 throw new DbException("table id mismatch in setRightSiblingId");
@@ -431,7 +307,8 @@ public class BTreeLeafPage extends BTreePage {
             if (id.pgcateg() != BTreePageId.LEAF) {
                 throw new DbException("rightSibling must be a leaf node");
             }
-            rightSibling = id.getPageNumber();
+            copyBeforeImage();
+            buffer.putInt(RIGHT_SIBLING_OFFSET, id.getPageNumber());
         }
     }
 
@@ -459,7 +336,7 @@ public class BTreeLeafPage extends BTreePage {
     public boolean isSlotUsed(int i) {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
-        return (header[headerbyte] & (1 << headerbit)) != 0;
+        return (buffer.get(HEADER_OFFSET + headerbyte) & (1 << headerbit)) != 0;
     }
 
     /**
@@ -470,10 +347,12 @@ public class BTreeLeafPage extends BTreePage {
         int headerbyte = (i - headerbit) / 8;
 
         Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+        byte bits = buffer.get(HEADER_OFFSET + headerbyte);
         if (value)
-            header[headerbyte] |= 1 << headerbit;
+            bits |= 1 << headerbit;
         else
-            header[headerbyte] &= (0xFF ^ (1 << headerbit));
+            bits &= (0xFF ^ (1 << headerbit));
+        buffer.put(HEADER_OFFSET + headerbyte, bits);
     }
 
     /**
@@ -511,7 +390,12 @@ public class BTreeLeafPage extends BTreePage {
             }
 
             Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+            Tuple t = tuples[i];
+            if (t == null) {
+                t = readTuple(i);
+                tuples[i] = t;
+            }
+            return t;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
@@ -9,6 +9,8 @@ import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -20,6 +22,7 @@ import simpledb.transaction.TransactionId;
 public abstract class BTreePage implements Page {
     protected volatile boolean       dirty       = false;
     protected volatile TransactionId dirtier     = null;
+    protected volatile long          lsn         = 0;
 
     protected final static int       INDEX_SIZE  = FieldType.INT_TYPE.getLen();
 
@@ -27,9 +30,20 @@ public abstract class BTreePage implements Page {
     protected final TupleDesc        td;
     protected final int              keyField;
 
-    protected int                    parent;                              // parent is always internal node or 0 for root node
+    protected final static int       PARENT_OFFSET = 0;                  // parent is always internal node or 0 for root node
+
+    /**
+     * The bytes of this page, exactly as they are written to disk; subclasses
+     * read and update their pointers, headers and slots in place.
+     */
+    protected final ByteBuffer       buffer;
+
+    /**
+     * The before image, or null while the page is unchanged since the last
+     * {@link #setBeforeImage()}; it is copied just before the first modification.
+     */
     protected byte[]                 oldData;
-    protected final Byte             oldDataLock = (byte) 0;
+    protected final Object           oldDataLock = new Object();
 
     /**
      * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -52,12 +66,100 @@ public abstract class BTreePage implements Page {
      * @see BufferPool#getPageSize()
      * 
      * @param id - the id of this page
+     * @param data - the raw data of this page; the page takes ownership of the
+     *        bytes between its position and limit
      * @param key - the field which the index is keyed on
      */
-    public BTreePage(BTreePageId id, int key) {
+    public BTreePage(BTreePageId id, ByteBuffer data, int key) {
         this.pid = id;
         this.keyField = key;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = BufferPool.getPageSize();
+        if (data.remaining() == pageSize) {
+            this.buffer = data.slice();
+        } else {
+            this.buffer = ByteBuffer.allocate(pageSize);
+            ByteBuffer src = data.duplicate();
+            src.limit(src.position() + Math.min(src.remaining(), pageSize));
+            this.buffer.put(src).clear();
+        }
+    }
+
+    /**
+     * @return a buffer positioned at the given offset of the page; it shares the
+     *   page data but not the position, so concurrent readers do not interfere
+     */
+    protected ByteBuffer bufferAt(int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        return b;
+    }
+
+    /**
+     * Zeroes length bytes of the page starting at offset.
+     */
+    protected void clear(int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Copies length bytes of the page from one offset to another.
+     */
+    protected void copy(int from, int to, int length) {
+        ByteBuffer src = bufferAt(from);
+        src.limit(from + length);
+        bufferAt(to).put(src);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the constructor of the page and
+     * have it produce an identical page object.
+     * <p>
+     * The page already holds its on-disk bytes, so this is usually the
+     * backing array itself rather than a copy; see {@link Page#getPageData()}.
+     *
+     * @return A byte array corresponding to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity()) {
+            return buffer.array();
+        }
+        byte[] data = new byte[buffer.capacity()];
+        bufferAt(0).get(data);
+        return data;
+    }
+
+    /**
+     * @return the bytes of this page before it was modified
+     */
+    protected byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData != null ? oldData : getPageData();
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Keeps a copy of the current page data as the before image, if there is
+     * none yet; called before every modification of {@link #buffer}.
+     */
+    protected void copyBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData().clone();
+            }
+        }
     }
 
     /**
@@ -86,6 +188,7 @@ public abstract class BTreePage implements Page {
      * @return the parent id
      */
     public BTreePageId getParentId() {
+        int parent = buffer.getInt(PARENT_OFFSET);
         if (parent == 0) {
             return BTreeRootPtrPage.getId(pid.getTableId());
         }
@@ -107,10 +210,11 @@ public abstract class BTreePage implements Page {
         if (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
             throw new DbException("parent must be an internal node or root pointer");
         }
+        copyBeforeImage();
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            parent = 0;
+            buffer.putInt(PARENT_OFFSET, 0);
         } else {
-            parent = id.getPageNumber();
+            buffer.putInt(PARENT_OFFSET, id.getPageNumber());
         }
     }
 
@@ -134,6 +238,14 @@ public abstract class BTreePage implements Page {
             return null;
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
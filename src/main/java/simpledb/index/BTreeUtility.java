@@ -538,7 +538,11 @@ public class BTreeUtility {
                     error = e;
                 }
 
-                Database.getBufferPool().transactionComplete(tid, false);
+                try {
+                    Database.getBufferPool().transactionComplete(tid, false);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
             }
         }
 
@@ -621,7 +625,11 @@ public class BTreeUtility {
                     error = e;
                 }
 
-                Database.getBufferPool().transactionComplete(tid, false);
+                try {
+                    Database.getBufferPool().transactionComplete(tid, false);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
             }
         }
 
@@ -689,7 +697,11 @@ public class BTreeUtility {
                     error = e;
                 }
 
-                Database.getBufferPool().transactionComplete(tid, false);
+                try {
+                    Database.getBufferPool().transactionComplete(tid, false);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
             }
         }
 
@@ -787,7 +799,7 @@ public class BTreeUtility {
                 try {
                     insertedTuples.put(tuple);
                     Database.getBufferPool().transactionComplete(tid, false);
-                } catch (InterruptedException e2) {
+                } catch (InterruptedException | IOException e2) {
                     e2.printStackTrace();
                 }
             }
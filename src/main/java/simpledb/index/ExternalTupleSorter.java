@@ -0,0 +1,296 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sorts a stream of tuples that need not fit in memory. The input is cut into
+ * runs of a fixed number of tuples that worker threads sort and spill to
+ * temporary files, while the calling thread keeps reading; the runs are then
+ * merged, at most {@link #MAX_FAN_IN} at a time, into one sorted stream.
+ * <p>
+ * Spilled tuples keep their fields but lose their RecordIds.
+ */
+public class ExternalTupleSorter {
+
+    public static final int DEFAULT_RUN_SIZE = 1 << 16;
+
+    /** The most runs merged at once, to bound the open files and read buffers. */
+    public static final int MAX_FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+
+    private final Comparator<Tuple> comparator;
+
+    private final int runSize;
+
+    private final int threads;
+
+    /**
+     * @param runSize the number of tuples each worker sorts in memory at a time
+     * @param threads the number of threads sorting runs
+     */
+    public ExternalTupleSorter(TupleDesc td, Comparator<Tuple> comparator, int runSize, int threads) {
+        this.td = td;
+        this.comparator = comparator;
+        this.runSize = Math.max(1, runSize);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Reads the open iterator to its end and returns its tuples in sorted
+     * order. The temporary files are deleted once the returned iterator is
+     * closed.
+     */
+    public SortedIterator sort(DbFileIterator input) throws DbException, TransactionAbortedException, IOException {
+        List<Run> runs = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // sorted runs still held in memory, at most one per worker
+        Deque<Future<Run>> inFlight = new ArrayDeque<>();
+        try {
+            List<Tuple> run = new ArrayList<>();
+            while (input.hasNext()) {
+                run.add(input.next());
+                if (run.size() == runSize) {
+                    if (inFlight.size() == threads) {
+                        runs.add(get(inFlight.poll()));
+                    }
+                    List<Tuple> full = run;
+                    inFlight.add(workers.submit(() -> spill(full)));
+                    run = new ArrayList<>();
+                }
+            }
+            if (runs.isEmpty() && inFlight.isEmpty()) {
+                // everything fits in one run: no need to spill it
+                run.sort(comparator);
+                return new SortedIterator(run.iterator(), Collections.emptyList());
+            }
+            if (!run.isEmpty()) {
+                List<Tuple> last = run;
+                inFlight.add(workers.submit(() -> spill(last)));
+            }
+            while (!inFlight.isEmpty()) {
+                runs.add(get(inFlight.poll()));
+            }
+        } catch (DbException | TransactionAbortedException | IOException | RuntimeException e) {
+            for (Future<Run> f : inFlight) {
+                f.cancel(true);
+            }
+            delete(runs);
+            throw e;
+        } finally {
+            workers.shutdown();
+        }
+
+        while (runs.size() > MAX_FAN_IN) {
+            List<Run> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<Run> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                merged.add(group.size() == 1 ? group.get(0) : merge(group));
+            }
+            runs = merged;
+        }
+        return new SortedIterator(new MergeIterator(runs), runs);
+    }
+
+    private static Run get(Future<Run> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("sort interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("sort failed", e.getCause());
+        }
+    }
+
+    /**
+     * Sorts the tuples and writes them to a temporary file.
+     */
+    private Run spill(List<Tuple> tuples) throws IOException {
+        tuples.sort(comparator);
+        return write(tuples.iterator());
+    }
+
+    private Run write(Iterator<Tuple> tuples) throws IOException {
+        File f = File.createTempFile("sortRun", ".dat");
+        f.deleteOnExit();
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),
+            BUFFER_SIZE))) {
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.getField(i).serialize(out);
+                }
+                count++;
+            }
+        } catch (IOException | RuntimeException e) {
+            f.delete();
+            throw e;
+        }
+        return new Run(f, count);
+    }
+
+    /**
+     * Merges the runs into a new one and deletes them.
+     */
+    private Run merge(List<Run> runs) throws IOException {
+        try (MergeIterator it = new MergeIterator(runs)) {
+            return write(it);
+        } finally {
+            delete(runs);
+        }
+    }
+
+    private static void delete(List<Run> runs) {
+        for (Run run : runs) {
+            run.file.delete();
+        }
+    }
+
+    private static final class Run {
+        private final File file;
+        private final long count;
+
+        private Run(File file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Reads the tuples of a run back, one at a time.
+     */
+    private final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private long remaining;
+        private Tuple current;
+
+        RunReader(Run run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), BUFFER_SIZE));
+            this.remaining = run.count;
+        }
+
+        /** Reads the next tuple into {@link #current}, or returns false at the end of the run. */
+        boolean advance() {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Field f = td.getFieldType(i).parse(in);
+                    t.setField(i, f);
+                }
+            } catch (ParseException e) {
+                throw new UncheckedIOException(new IOException("corrupt sort run", e));
+            }
+            remaining--;
+            current = t;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A k-way merge of sorted runs.
+     */
+    private final class MergeIterator implements Iterator<Tuple>, Closeable {
+        private final PriorityQueue<RunReader> heads;
+        private final List<RunReader> readers = new ArrayList<>();
+
+        MergeIterator(List<Run> runs) throws IOException {
+            this.heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                (r1, r2) -> comparator.compare(r1.current, r2.current));
+            try {
+                for (Run run : runs) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        heads.add(reader);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Tuple next() {
+            RunReader reader = heads.poll();
+            if (reader == null) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = reader.current;
+            if (reader.advance()) {
+                heads.add(reader);
+            }
+            return t;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * The sorted tuples; closing it deletes the temporary files they were
+     * merged from.
+     */
+    public static final class SortedIterator implements Iterator<Tuple>, Closeable {
+        private final Iterator<Tuple> tuples;
+        private final List<Run> runs;
+
+        private SortedIterator(Iterator<Tuple> tuples, List<Run> runs) {
+            this.tuples = tuples;
+            this.runs = runs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return tuples.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            return tuples.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (tuples instanceof Closeable) {
+                    ((Closeable) tuples).close();
+                }
+            } finally {
+                delete(runs);
+            }
+        }
+    }
+}
@@ -282,6 +282,48 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the fields of a table that the query uses anywhere: in the select
+     *  list, filters, joins, aggregate, GROUP BY and ORDER BY.
+     *  @param alias the alias of the table
+     *  @param td the TupleDesc of the scan of the table, with alias-qualified names
+     *  @return the indexes of the used fields in td, or null if the query uses
+     *    all of them or a field cannot be resolved
+     */
+    private Set<Integer> usedColumns(String alias, TupleDesc td) {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.f2QuantifiedName);
+            }
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        Set<Integer> columns = new TreeSet<>();
+        for (String name : names) {
+            if (name == null || !name.startsWith(alias + ".")) {
+                continue;
+            }
+            try {
+                columns.add(td.fieldNameToIndex(name));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -311,6 +353,11 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
 
+            if (Database.getCatalog().getDatabaseFile(table.t) instanceof ColumnFile) {
+                ss.setColumns(usedColumns(table.alias, ss.getTupleDesc()));
+            }
+            // the operators of a plan materialize the tuples they keep
+            ss.setTupleViews(true);
             subplanMap.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
@@ -11,14 +11,22 @@ import simpledb.storage.lock.LockManager;
 import simpledb.storage.lock.Locker;
 import simpledb.storage.page.DefaultPageManager;
 import simpledb.storage.page.PageManager;
+import simpledb.storage.page.ReplacementPolicy;
+import simpledb.storage.page.ScanRing;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -46,10 +54,59 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * Default share of the pool a table must be larger than for its scans to
+     * read through a {@link ScanRing} rather than the pool.
+     */
+    public static final double DEFAULT_SCAN_RING_THRESHOLD = 0.75;
+
+    private volatile double scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+
     private final PageManager pageManager;
 
     private final LockManager lockManager;
 
+    private volatile boolean stealNoForce;
+
+    /**
+     * The dirty pages whose contents a committed transaction logged, and
+     * which need no UPDATE record when they are written.
+     */
+    private final Map<PageId, TransactionId> loggedPages = new ConcurrentHashMap<>();
+
+    /**
+     * The dirty page table: for each page with logged changes that may not
+     * be on disk, the LSN of the first record it may miss. A page enters it
+     * when it is logged, under the lock of the log, and leaves it when it is
+     * written or discarded.
+     */
+    private final Map<PageId, Long> recoveryLsns = new ConcurrentHashMap<>();
+
+    /**
+     * The transaction each thread fetches or adds pages for, while it does,
+     * so that evictions it makes may write the pages that transaction holds.
+     */
+    private final ThreadLocal<TransactionId> requesters = new ThreadLocal<>();
+
+    /**
+     * The transaction the pages written back are held shared for, while
+     * they are in {@link #writing}.
+     */
+    private static final TransactionId WRITER = new TransactionId();
+
+    /**
+     * The pages being written back: a page is written by one thread at a
+     * time, which alone holds it for {@link #WRITER}.
+     */
+    private final Set<PageId> writing = ConcurrentHashMap.newKeySet();
+
+    private volatile BackgroundWriter backgroundWriter;
+
+    /** The failure that stopped the background writer, until it is started again */
+    private volatile IOException backgroundWriterFailure;
+
+    private final LongAdder backgroundWrites = new LongAdder();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -57,8 +114,51 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        pageManager = new DefaultPageManager(numPages);
-        lockManager = new DefaultLockManager();
+        this(new DefaultPageManager(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the specified replacement policy, such as
+     * {@link simpledb.storage.page.TwoQueuePolicy#FACTORY} to keep large
+     * scans from flushing the pool.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy creates the replacement policies of the pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Factory policy) {
+        this(new DefaultPageManager(numPages, policy));
+    }
+
+    /**
+     * Creates a BufferPool that caches pages in the specified manager, such
+     * as an {@link simpledb.storage.page.ArenaPageManager} to keep the page
+     * bytes off the heap.
+     */
+    public BufferPool(PageManager pageManager) {
+        this.pageManager = pageManager;
+        this.lockManager = new DefaultLockManager();
+    }
+
+    /**
+     * Switches between NO-STEAL/FORCE buffer management, the default, and
+     * STEAL/NO-FORCE.
+     * <p>
+     * In STEAL/NO-FORCE mode, a commit only logs the UPDATE records of the
+     * pages the transaction dirtied and its COMMIT record, and forces the
+     * log; the pages stay dirty in the pool until they are evicted or
+     * flushed. The pool evicts dirty pages when it has no clean page to
+     * evict, after forcing their UPDATE record, whether their transaction
+     * committed or not; an abort rolls them back through the log, and
+     * {@link LogFile#recover} redoes and undoes what the pages on disk miss.
+     */
+    public void setStealNoForce(boolean stealNoForce) {
+        this.stealNoForce = stealNoForce;
+        pageManager.setWriteBack(stealNoForce ? page -> writeBack(page) : null);
+    }
+
+    public boolean isStealNoForce() {
+        return stealNoForce;
     }
 
     public static int getPageSize() {
@@ -93,6 +193,44 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException,
                                                                         DbException {
         // some code goes here
+        lockPage(tid, pid, perm);
+        requesters.set(tid);
+        try {
+            Page page;
+            do {
+                page = pageManager.getOrCreate(pid, tid, perm);
+            } while (page != null && !pageManager.pin(tid, page));
+            return page;
+        } finally {
+            requesters.remove();
+        }
+    }
+
+    /**
+     * Tells the pool that a transaction no longer reads a page it got from
+     * {@link #getPage}, such as a scan that moved to the next page, so that
+     * the memory of the page can be reused once the page is evicted. The
+     * transaction keeps its lock on the page; the pages it does not unpin
+     * are unpinned when it completes.
+     *
+     * @param tid the ID of the transaction that got the page
+     * @param page the page, as returned to the transaction
+     */
+    public void unpinPage(TransactionId tid, Page page) {
+        pageManager.unpin(tid, page);
+    }
+
+    /**
+     * Acquires a lock on the specified page on behalf of a transaction,
+     * without loading the page. Used by writers that build pages outside
+     * the buffer pool, such as {@link BulkLoader}, to keep other
+     * transactions off those pages until they complete.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
         Locker locker = lockManager.getLock(tid, pid);
         try {
             if (!locker.tryLock(DefaultLockContext.builder()
@@ -103,12 +241,83 @@ public class BufferPool {
                 throw new TransactionAbortedException("tid: " + tid + ", pid: " + pid + ", perm: " + perm);
             }
             lockManager.record(tid, pid, perm);
-            return pageManager.getOrCreate(pid, tid, perm);
         } catch (InterruptedException | CycleDetectedException e) {
             throw new TransactionAbortedException(e);
         }
     }
 
+    /**
+     * Retrieves a page for a sequential scan reading through a ring: the
+     * page is locked as by {@link #getPage}, and the version in the pool is
+     * returned if the page is resident; otherwise the page is read into the
+     * ring, and the pool is left alone.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param ring the ring of the scan
+     */
+    public Page getScanPage(TransactionId tid, PageId pid, ScanRing ring) throws TransactionAbortedException {
+        lockPage(tid, pid, Permissions.READ_ONLY);
+        Page page = pageManager.get(pid);
+        return page != null && pageManager.pin(tid, page) ? page : ring.read(pid);
+    }
+
+    /**
+     * Returns a ring for a sequential scan of a table of the specified size,
+     * or null if the table is small enough to scan through the pool. A ring
+     * holds at least two pages and at most an eighth of the pool, so pools
+     * of fewer than 16 pages have no rings.
+     */
+    public ScanRing newScanRing(int numPages) {
+        int frames = Math.min(ScanRing.DEFAULT_FRAMES, getNumPages() / 8);
+        if (frames < 2 || numPages <= getNumPages() * scanRingThreshold) {
+            return null;
+        }
+        return new ScanRing(frames);
+    }
+
+    public double getScanRingThreshold() {
+        return scanRingThreshold;
+    }
+
+    /**
+     * Sets the share of the pool a table must be larger than for its scans
+     * to read through a ring; a share of 0 makes every scan use one.
+     */
+    public void setScanRingThreshold(double scanRingThreshold) {
+        this.scanRingThreshold = scanRingThreshold;
+    }
+
+    /**
+     * Loads the specified page into the buffer pool without acquiring a lock,
+     * unless it is already resident. Used by {@link PageReadAhead} to bring in
+     * pages a scan is about to request; the scan still locks each page through
+     * {@link #getPage} when it gets there.
+     *
+     * @param pid the ID of the page to load
+     * @return the page in the pool, or null if it could not be loaded
+     */
+    public Page prefetchPage(PageId pid) {
+        return pageManager.prefetch(pid);
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool holds
+     */
+    public int getNumPages() {
+        return pageManager.capacity();
+    }
+
+    /**
+     * @return the share of the page requests of transactions that found the
+     *   page in the pool, or 0 before any request
+     */
+    public double getHitRatio() {
+        long hits = pageManager.getHits();
+        long requests = hits + pageManager.getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -132,6 +341,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        pageManager.unpinAll(tid);
         lockManager.releaseAll(tid);
     }
 
@@ -145,20 +355,325 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * A commit that fails keeps the locks of the transaction, which the
+     * caller then aborts. An abort always releases them: if it fails, the
+     * pages of the transaction are discarded from the pool all the same, and
+     * the changes it wrote to disk are undone by recovery, since the
+     * transaction has no ABORT record.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws IOException if the pages or the log records could not be written
      */
-    public void transactionComplete(TransactionId tid, boolean commit) {
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
         if (commit) {
-            flushLogs(tid);
-            flushPages(tid);
-        } else {
+            if (stealNoForce) {
+                logCommit(tid);
+            } else {
+                flushPages(tid);
+            }
+            pageManager.unpinAll(tid);
+            lockManager.releaseAll(tid);
+            return;
+        }
+        try {
+            if (stealNoForce) {
+                rollback(tid);
+            }
+        } finally {
             discardPages(tid);
+            pageManager.unpinAll(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Commits a transaction without forcing its pages: logs an UPDATE
+     * record for each page it dirtied, then its COMMIT record, which forces
+     * the log. The pages stay dirty in the pool. Fails, logging nothing, if
+     * the background writer failed.
+     */
+    private void logCommit(TransactionId tid) throws IOException {
+        checkBackgroundWriter();
+        List<Page> dirtyPages = collectDirtyPages(tid);
+        LogFile logFile = Database.getLogFile();
+        synchronized (logFile) {
+            if (dirtyPages.isEmpty() && !logFile.isActive(tid)) {
+                // nothing to make durable
+                return;
+            }
+            for (Page page : dirtyPages) {
+                logUpdate(logFile, tid, page);
+                loggedPages.put(page.getId(), tid);
+            }
+            if (!logFile.isActive(tid)) {
+                logFile.logXactionBegin(tid);
+            }
+        }
+        // outside the lock of the log, so that commits are forced in groups
+        logFile.logCommit(tid);
+    }
+
+    /**
+     * Rolls back a transaction whose pages may have been stolen: the pages
+     * it logged are restored by the log, and the ones it dirtied in the pool
+     * get their before image back on disk, since it may hold changes that
+     * were committed but not written yet.
+     */
+    private void rollback(TransactionId tid) throws IOException {
+        LogFile logFile = Database.getLogFile();
+        if (logFile.isActive(tid)) {
+            logFile.logAbort(tid);
+        }
+        for (Page page : collectDirtyPages(tid)) {
+            Page before = page.getBeforeImage();
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(before);
+            discardPage(page.getId());
+        }
+    }
+
+    /**
+     * Logs an UPDATE record for a dirty page, with a BEGIN record first if
+     * the transaction has no log record yet, so that it can be rolled back.
+     * The logged image becomes the before image of the page: the next record
+     * for the page only holds what changed since, and a DELTA record can
+     * only be redone on top of the image its page had when it was logged.
+     * The side files the page refers to are forced first.
+     */
+    private void logUpdate(LogFile logFile, TransactionId tid, Page page) throws IOException {
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).forceSideFiles();
+        synchronized (logFile) {
+            if (stealNoForce && !logFile.isActive(tid)) {
+                logFile.logXactionBegin(tid);
+            }
+            logFile.logWrite(tid, page.getBeforeImage(), page);
+            page.setBeforeImage();
+            recoveryLsns.putIfAbsent(page.getId(), page.getLsn());
+        }
+    }
+
+    /**
+     * Takes a page written to disk out of the dirty page table, unless it
+     * was logged again after the record with the specified LSN, in which
+     * case its redo may start at that record.
+     */
+    private void written(Page page, long lsn) {
+        recoveryLsns.computeIfPresent(page.getId(), (pid, recoveryLsn) -> page.getLsn() > lsn ? lsn : null);
+    }
+
+    /**
+     * Returns a copy of the dirty page table: the pages whose logged changes
+     * may not be on disk, and the LSN of the first record each may miss. The
+     * caller holds the lock of the log, so that no page is being logged.
+     *
+     * @see LogFile#logCheckpoint
+     */
+    Map<PageId, Long> dirtyPageTable() {
+        return new HashMap<>(recoveryLsns);
+    }
+
+    /**
+     * Writes a dirty page the pool evicts in STEAL mode. Uncommitted changes
+     * are logged and the log forced before the page is written, as write
+     * ahead logging requires.
+     * <p>
+     * Transactions only change pages they hold the exclusive lock of, so the
+     * page is held shared while it is logged, written and marked clean, and
+     * is left alone if another transaction holds it, since it may be
+     * changing it, or if another thread is writing it. The transaction this
+     * thread fetches a page for is not changing any page meanwhile, so the
+     * pages it holds are written.
+     *
+     * @return whether the page was written
+     */
+    private boolean writeBack(Page page) throws IOException {
+        PageId pid = page.getId();
+        TransactionId requester = requesters.get();
+        Locker locker = lockManager.getLock(requester, pid);
+        boolean latched = false;
+        if (requester == null || !locker.hasHolder(requester, Permissions.READ_WRITE)) {
+            if (!writing.add(pid)) {
+                return false;
+            }
+            if (!locker.tryLockShared(WRITER)) {
+                writing.remove(pid);
+                return false;
+            }
+            latched = true;
+        }
+        try {
+            TransactionId dirtier = page.isDirty();
+            if (dirtier == null) {
+                return false;
+            }
+            LogFile logFile = Database.getLogFile();
+            if (!dirtier.equals(loggedPages.get(pid))) {
+                logUpdate(logFile, dirtier, page);
+            }
+            long lsn = page.getLsn();
+            logFile.force(lsn);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            written(page, lsn);
+            page.markDirty(false, null);
+            loggedPages.remove(pid, dirtier);
+            return true;
+        } finally {
+            if (latched) {
+                locker.release(WRITER);
+                writing.remove(pid);
+            }
+        }
+    }
+
+    /**
+     * Writes dirty pages in the background, in STEAL/NO-FORCE mode: every
+     * interval, up to the specified number of the pages whose changes
+     * committed transactions logged, those missing the oldest log records
+     * first. Evictions then find clean pages, and checkpoints move the start
+     * of recovery forward. Replaces the writer running, if any, and clears
+     * the failure that stopped the previous one.
+     * <p>
+     * A writer that fails to write a page stops; until a writer is started
+     * again, commits and checkpoints throw its failure.
+     *
+     * @see LogFile#logCheckpoint
+     * @see #getBackgroundWriterFailure
+     */
+    public void startBackgroundWriter(long interval, TimeUnit unit, int maxPages) {
+        stopBackgroundWriter();
+        backgroundWriterFailure = null;
+        BackgroundWriter writer = new BackgroundWriter(unit.toNanos(interval), maxPages);
+        backgroundWriter = writer;
+        writer.start();
+    }
+
+    /**
+     * Stops the background writer, if one runs, and waits for the pages it
+     * is writing, if any.
+     */
+    public void stopBackgroundWriter() {
+        BackgroundWriter writer = backgroundWriter;
+        backgroundWriter = null;
+        if (writer == null) {
+            return;
+        }
+        // not interrupted, which would close the file channel it writes to
+        synchronized (writer.signal) {
+            writer.signal.notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the failure that stopped the background writer, or null if it
+     * did not fail since it was started.
+     */
+    public IOException getBackgroundWriterFailure() {
+        return backgroundWriterFailure;
+    }
+
+    /**
+     * Throws the failure that stopped the background writer, if any, so
+     * that commits and checkpoints do not go on while pages cannot be
+     * written.
+     */
+    void checkBackgroundWriter() throws IOException {
+        IOException failure = backgroundWriterFailure;
+        if (failure != null) {
+            throw new IOException("the background writer failed", failure);
+        }
+    }
+
+    /**
+     * Returns the number of pages the background writer wrote.
+     */
+    public long getBackgroundWrites() {
+        return backgroundWrites.sum();
+    }
+
+    /**
+     * Writes up to the specified number of the dirty pages committed
+     * transactions logged, those missing the oldest log records first.
+     */
+    private void writeLoggedPages(int maxPages) throws IOException {
+        List<Page> pages = new ArrayList<>();
+        pageManager.traverse(new PageManager.Traverser() {
+            @Override
+            public void action(Page page) {
+                if (page.isDirty() != null && loggedPages.containsKey(page.getId())) {
+                    pages.add(page);
+                }
+            }
+        });
+        pages.sort(Comparator.comparingLong(page -> recoveryLsns.getOrDefault(page.getId(), Long.MAX_VALUE)));
+        for (Page page : pages.subList(0, Math.min(maxPages, pages.size()))) {
+            if (writeBack(page)) {
+                backgroundWrites.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes logged pages every interval, until it is no longer the
+     * background writer or fails to write a page.
+     */
+    private final class BackgroundWriter extends Thread {
+        private final long intervalNanos;
+
+        private final int maxPages;
+
+        /** Notified when the writer is stopped */
+        private final Object signal = new Object();
+
+        private BackgroundWriter(long intervalNanos, int maxPages) {
+            super("buffer-pool-writer");
+            this.intervalNanos = intervalNanos;
+            this.maxPages = maxPages;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (signal) {
+                    long deadline = System.nanoTime() + intervalNanos;
+                    long left = intervalNanos;
+                    while (backgroundWriter == this && left > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(signal, left);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        left = deadline - System.nanoTime();
+                    }
+                }
+                if (backgroundWriter != this) {
+                    return;
+                }
+                try {
+                    writeLoggedPages(maxPages);
+                } catch (IOException e) {
+                    backgroundWriterFailure = e;
+                    if (backgroundWriter == this) {
+                        backgroundWriter = null;
+                    }
+                    return;
+                }
+            }
         }
-        lockManager.releaseAll(tid);
     }
 
     /**
@@ -182,9 +697,14 @@ public class BufferPool {
         // not necessary for lab1
         DbFile heapFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = heapFile.insertTuple(tid, t);
-        for (Page page : pages) {
-            pageManager.add(page);
-            page.markDirty(true, tid);
+        requesters.set(tid);
+        try {
+            for (Page page : pages) {
+                pageManager.add(page);
+                page.markDirty(true, tid);
+            }
+        } finally {
+            requesters.remove();
         }
     }
 
@@ -219,18 +739,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        pageManager.traverse(new PageManager.Traverser() {
-            @Override
-            public void action(Page page) {
-                if (page.isDirty() != null) {
-                    try {
-                        flushPage(page);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
-        });
+        flushPages(collectDirtyPages(null));
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -245,6 +754,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         pageManager.remove(pid);
+        loggedPages.remove(pid);
+        recoveryLsns.remove(pid);
     }
 
     public synchronized void discardPages(TransactionId transactionId) {
@@ -269,91 +780,73 @@ public class BufferPool {
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a batch of dirty pages to disk. The update records of all pages
+     * are logged and forced once, then the pages are written table by table in
+     * file order, so that adjacent pages are coalesced into sequential writes.
      *
-     * @param page an ID indicating the page to flush
+     * @param pages the dirty pages to flush
      */
-    private synchronized void flushPage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
-        try {
-            // for lab6, write update record first
-            if (page.isDirty() != null) {
-                final LogFile logFile = Database.getLogFile();
-                logFile.logWrite(page.isDirty(), page.getBeforeImage(), page);
-                logFile.force();
+    private synchronized void flushPages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        // for lab6, write update records first, unless a commit already logged the page
+        final LogFile logFile = Database.getLogFile();
+        long pageLsn = 0;
+        for (Page page : pages) {
+            if (!page.isDirty().equals(loggedPages.get(page.getId()))) {
+                logUpdate(logFile, page.isDirty(), page);
             }
+            pageLsn = Math.max(pageLsn, page.getLsn());
+        }
+        // the log only needs to be durable up to the last record of these pages
+        logFile.force(pageLsn);
 
-            // Write page
-            final DbFile tableFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
-            tableFile.writePage(page);
+        // Write pages, grouped by table and sorted by page number
+        Map<Integer, List<Page>> pagesByTable = new LinkedHashMap<>();
+        for (Page page : pages) {
+            pagesByTable.computeIfAbsent(page.getId().getTableId(), tableId -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> entry : pagesByTable.entrySet()) {
+            final DbFile tableFile = Database.getCatalog().getDatabaseFile(entry.getKey());
+            tableFile.writePages(entry.getValue());
+        }
+        for (Page page : pages) {
+            written(page, page.getLsn());
+            loggedPages.remove(page.getId(), page.isDirty());
             page.markDirty(false, null);
             page.setBeforeImage();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Collects the dirty pages in the pool, sorted by table and page number.
+     *
+     * @param tid only collect pages dirtied by this transaction, or all dirty pages if null
      */
-    public synchronized void flushPages(TransactionId tid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+    private List<Page> collectDirtyPages(TransactionId tid) {
+        List<Page> dirtyPages = new ArrayList<>();
         pageManager.traverse(new PageManager.Traverser() {
             @Override
-            public void action(Page page) throws IOException {
-                if (tid.equals(page.isDirty())) {
-                    flushPage(page);
-                }
-            }
-        });
-    }
-
-    private synchronized void flushLogs(TransactionId tid) {
-        pageManager.traverse(new PageManager.Traverser() {
-            @Override
-            public void action(Page page) throws IOException {
-                if (tid.equals(page.isDirty())) {
-                    page.setBeforeImage();
+            public void action(Page page) {
+                TransactionId dirtier = page.isDirty();
+                if (dirtier != null && (tid == null || tid.equals(dirtier))) {
+                    dirtyPages.add(page);
                 }
             }
         });
+        dirtyPages.sort(Comparator.comparingInt((Page page) -> page.getId().getTableId())
+                .thenComparingInt(page -> page.getId().getPageNumber()));
+        return dirtyPages;
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Write all pages of the specified transaction to disk.
      */
-    private synchronized void evictPage() throws DbException {
+    public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1
-        AtomicBoolean isAllDirty = new AtomicBoolean(true);
-        AtomicBoolean stop = new AtomicBoolean(false);
-        pageManager.evict(new PageManager.EvictFunction() {
-            @Override
-            public void action(Page page) {
-                if (stop.get()) {
-                    return;
-                }
-                if (page.isDirty() == null) {
-                    discardPage(page.getId());
-                    stop.set(true);
-                    isAllDirty.set(false);
-                }
-            }
-        });
-        if (isAllDirty.get()) {
-            throw new DbException("All pages are dirty in buffer pool");
-        }
-    }
-
-    private void writePage(Page page) {
-        try {
-            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // not necessary for lab1|lab2
+        flushPages(collectDirtyPages(tid));
     }
 
 }
@@ -0,0 +1,307 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.FieldType;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a text file into a HeapFile without going through the BufferPool.
+ * The input is cut into chunks of whole lines that worker threads parse and
+ * pack into full pages in parallel, while the calling thread appends the
+ * pages of each chunk, in input order, to the end of the file with one
+ * large write.
+ * <p>
+ * The input has the format of {@link HeapFileEncoder}: one tuple per line,
+ * fields separated by a separator character; malformed lines are reported
+ * and skipped. The appended pages are locked for the loading transaction and
+ * forced to disk before {@link #load} returns, and the whole load is logged as
+ * one BULK_APPEND record instead of one record per page, see {@link LogFile}.
+ * Inserts that need a new page wait until the load ends.
+ */
+public class BulkLoader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private final HeapFile file;
+
+    private final int threads;
+
+    private final int chunkSize;
+
+    private long badLines;
+
+    /**
+     * Creates a loader for the specified file that parses chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} bytes on one thread per processor.
+     */
+    public BulkLoader(HeapFile file) {
+        this(file, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threads the number of threads parsing the input
+     * @param chunkSize the number of bytes of input each of them parses at a time
+     */
+    public BulkLoader(HeapFile file, int threads, int chunkSize) {
+        if (file.isMapped()) {
+            throw new IllegalArgumentException("HeapFile " + file.getFile() + " is opened read-only");
+        }
+        this.file = file;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Returns the number of malformed lines skipped by the last load.
+     */
+    public long getBadLines() {
+        return badLines;
+    }
+
+    /**
+     * Appends the tuples of the input file to the table on behalf of the
+     * transaction. The tuples are visible to other transactions once it
+     * commits; if it aborts, the appended pages are emptied again.
+     *
+     * @param separator the character separating the fields of a line
+     * @return the number of tuples loaded
+     */
+    public long load(TransactionId tid, File input, char separator) throws IOException, DbException,
+                                                                     TransactionAbortedException {
+        badLines = 0;
+        long tuples = 0;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        synchronized (file.appendLock) {
+            int firstPage = file.numPages();
+            int nextPage = firstPage;
+            Database.getLogFile().logBulkAppendStart(tid, file.getId(), firstPage);
+            try (InputStream in = new FileInputStream(input)) {
+                ChunkReader reader = new ChunkReader(in);
+                // keep a few chunks in flight, writing them back in input order
+                Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+                byte[] lines;
+                while ((lines = reader.next()) != null || !inFlight.isEmpty()) {
+                    if (lines != null) {
+                        byte[] chunk = lines;
+                        inFlight.add(workers.submit(() -> parse(chunk, separator)));
+                        if (inFlight.size() < 2 * threads) {
+                            continue;
+                        }
+                    }
+                    Chunk chunk = get(inFlight.poll());
+                    List<Page> pages = new ArrayList<>(chunk.pages.size());
+                    for (ByteBuffer data : chunk.pages) {
+                        HeapPageId pid = new HeapPageId(file.getId(), nextPage++);
+                        Database.getBufferPool().lockPage(tid, pid, Permissions.READ_WRITE);
+                        pages.add(file.newPage(pid, data));
+                    }
+                    file.writePages(pages);
+                    tuples += chunk.tuples;
+                    badLines += chunk.badLines;
+                }
+                file.force();
+            } finally {
+                workers.shutdownNow();
+                Database.getLogFile().logBulkAppendEnd(tid, nextPage - firstPage);
+            }
+        }
+        return tuples;
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("bulk load failed", e.getCause());
+        }
+    }
+
+    /**
+     * Parses the lines of a chunk into pages. The last page is only as full as
+     * the chunk makes it.
+     */
+    private Chunk parse(byte[] lines, char separator) {
+        TupleDesc td = file.getTupleDesc();
+        Pattern split = Pattern.compile(Pattern.quote(String.valueOf(separator)));
+        PageBuilder builder = file.isSlotted() ? new SlottedPageBuilder() : new HeapPageBuilder(td);
+        Chunk chunk = new Chunk();
+        int start = 0;
+        for (int i = 0; i <= lines.length; i++) {
+            if (i < lines.length && lines[i] != '\n') {
+                continue;
+            }
+            String line = new String(lines, start, i - start, StandardCharsets.ISO_8859_1).trim();
+            start = i + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+            Tuple t = parseLine(td, split.split(line, -1));
+            if (t == null) {
+                System.out.println("BAD LINE : " + line);
+                chunk.badLines++;
+                continue;
+            }
+            if (!builder.add(t)) {
+                chunk.pages.add(builder.finish());
+                builder.add(t);
+            }
+            chunk.tuples++;
+        }
+        if (chunk.tuples > 0) {
+            chunk.pages.add(builder.finish());
+        }
+        return chunk;
+    }
+
+    private static Tuple parseLine(TupleDesc td, String[] values) {
+        if (values.length < td.numFields()) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            String s = values[i].trim();
+            if (td.getFieldType(i) == FieldType.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                t.setField(i, new StringField(s, FieldType.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Cuts the input into chunks of about chunkSize bytes that end at a line end.
+     */
+    private final class ChunkReader {
+        private final InputStream in;
+        private byte[] carry = new byte[0];
+        private boolean eof = false;
+
+        ChunkReader(InputStream in) {
+            this.in = in;
+        }
+
+        byte[] next() throws IOException {
+            if (eof) {
+                return null;
+            }
+            byte[] buf = Arrays.copyOf(carry, carry.length + chunkSize);
+            int n = carry.length;
+            while (n < buf.length) {
+                int read = in.read(buf, n, buf.length - n);
+                if (read < 0) {
+                    eof = true;
+                    break;
+                }
+                n += read;
+            }
+            if (eof) {
+                carry = new byte[0];
+                return n == 0 ? null : Arrays.copyOf(buf, n);
+            }
+            int end = n;
+            while (end > 0 && buf[end - 1] != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                // a line longer than a chunk: keep reading it
+                carry = Arrays.copyOf(buf, n);
+                return next();
+            }
+            carry = Arrays.copyOfRange(buf, end, n);
+            return Arrays.copyOf(buf, end);
+        }
+    }
+
+    private static final class Chunk {
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        private long tuples;
+        private long badLines;
+    }
+
+    private interface PageBuilder {
+        /** Adds the tuple to the page being built, or returns false if it is full. */
+        boolean add(Tuple t);
+
+        /** Returns the page built and starts a new one. */
+        ByteBuffer finish();
+    }
+
+    /**
+     * Builds pages in the {@link HeapPage} format.
+     */
+    private static final class HeapPageBuilder implements PageBuilder {
+        private final int tupleSize;
+        private final int numSlots;
+        private final int headerSize;
+        private ByteBuffer page;
+        private int used;
+
+        HeapPageBuilder(TupleDesc td) {
+            this.tupleSize = td.getSize();
+            this.numSlots = BufferPool.getPageSize() * 8 / (tupleSize * 8 + 1);
+            this.headerSize = (numSlots + 7) / 8;
+            this.page = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+
+        @Override
+        public boolean add(Tuple t) {
+            if (used == numSlots) {
+                return false;
+            }
+            page.put(used / Byte.SIZE, (byte) (page.get(used / Byte.SIZE) | (1 << (used % Byte.SIZE))));
+            page.position(headerSize + used * tupleSize);
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                t.getField(i).serialize(page);
+            }
+            used++;
+            return true;
+        }
+
+        @Override
+        public ByteBuffer finish() {
+            ByteBuffer full = page;
+            full.clear();
+            page = ByteBuffer.allocate(BufferPool.getPageSize());
+            used = 0;
+            return full;
+        }
+    }
+
+    /**
+     * Builds pages in the {@link SlottedHeapPage} format.
+     */
+    private static final class SlottedPageBuilder implements PageBuilder {
+        private ByteBuffer page = ByteBuffer.allocate(BufferPool.getPageSize());
+
+        @Override
+        public boolean add(Tuple t) {
+            return SlottedHeapPage.append(page, t);
+        }
+
+        @Override
+        public ByteBuffer finish() {
+            ByteBuffer full = page;
+            full.clear();
+            page = ByteBuffer.allocate(BufferPool.getPageSize());
+            return full;
+        }
+    }
+}
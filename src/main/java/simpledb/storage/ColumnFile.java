@@ -0,0 +1,440 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.FieldType;
+import simpledb.common.Permissions;
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.PageFileChannel;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table in its own sequence of ColumnPages, for wide tables whose queries
+ * only touch a few columns: a scan that is given the columns it needs, see
+ * {@link #iterator(TransactionId, Collection)}, reads and decodes only the
+ * pages of those columns.
+ * <p>
+ * Column i is stored in the file named after the table file with the suffix
+ * {@link #COLUMN_SUFFIX} followed by i. Rows are numbered in insertion order
+ * and row r of the table is stored in slot r % n of page r / n of every
+ * column, where n is the number of values of that column a page holds.
+ * Inserts append rows at the end; the rows of deleted tuples are not reused.
+ * <p>
+ * A string column with few distinct values can be dictionary-encoded: its
+ * pages then store int codes of the values in a {@link StringDictionary}, and
+ * scans return a single shared {@link DictionaryStringField} per value.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    public static final String COLUMN_SUFFIX = ".col";
+
+    private final File file;
+
+    private final TupleDesc tupleDesc;
+
+    private final int tableId;
+
+    private final PageFileChannel[] columns;
+
+    /**
+     * The dictionary of each column, null for the columns that are not
+     * dictionary-encoded.
+     */
+    private final StringDictionary[] dictionaries;
+
+    /**
+     * Values per page of each column.
+     */
+    private final int[] slotsPerPage;
+
+    /**
+     * Number of rows allocated so far, including deleted and uncommitted ones.
+     */
+    private int numRows;
+
+    /**
+     * Opens the column file of a table, creating the files of its columns if
+     * they do not exist.
+     *
+     * @param f
+     *            the table file; the columns are stored next to it, see
+     *            {@link #getColumnFile(int)}.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, Collections.emptySet());
+    }
+
+    /**
+     * Opens the column file of a table, creating the files of its columns if
+     * they do not exist.
+     *
+     * @param f
+     *            the table file; the columns are stored next to it, see
+     *            {@link #getColumnFile(int)}.
+     * @param dictionaryColumns
+     *            the string columns to dictionary-encode; the dictionary of
+     *            column i is stored in its column file name plus
+     *            {@link StringDictionary#SUFFIX}. A column must always be
+     *            opened with the same encoding.
+     * @throws IllegalArgumentException if one of the dictionaryColumns is not
+     *            a string column
+     */
+    public ColumnFile(File f, TupleDesc td, Collection<Integer> dictionaryColumns) {
+        this.file = f;
+        this.tupleDesc = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.columns = new PageFileChannel[td.numFields()];
+        this.dictionaries = new StringDictionary[td.numFields()];
+        this.slotsPerPage = new int[td.numFields()];
+        for (int column : dictionaryColumns) {
+            if (td.getFieldType(column) != FieldType.STRING_TYPE) {
+                throw new IllegalArgumentException("column " + column + " of " + td + " is not a string column");
+            }
+            dictionaries[column] = new StringDictionary(new File(getColumnFile(column).getPath() + StringDictionary.SUFFIX));
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = FileChannelManager.getInstance().open(getColumnFile(i));
+            slotsPerPage[i] = ColumnPage.getNumSlots(
+                dictionaries[i] == null ? td.getFieldType(i).getLen() : StringDictionary.getCodeLen());
+        }
+        this.numRows = countRows();
+    }
+
+    /**
+     * Counts the rows of the table from the header of the last page of its
+     * first column, so that inserts continue after the last stored row.
+     */
+    private int countRows() {
+        try {
+            int pages = numPages(0);
+            if (pages == 0) {
+                return 0;
+            }
+            int slots = slotsPerPage[0];
+            ByteBuffer header = ByteBuffer.allocate((slots + 7) / 8);
+            columns[0].read(header, (long) (pages - 1) * BufferPool.getPageSize());
+            int last = -1;
+            for (int i = slots - 1; i >= 0 && last < 0; i--) {
+                if ((header.get(i / Byte.SIZE) & (1 << (i % Byte.SIZE))) != 0) {
+                    last = i;
+                }
+            }
+            return (pages - 1) * slots + last + 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the table file this ColumnFile was opened with.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the file that stores the pages of the specified column.
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + COLUMN_SUFFIX + column);
+    }
+
+    /**
+     * Returns the dictionary of the specified column, or null if the column
+     * is not dictionary-encoded.
+     */
+    public StringDictionary getDictionary(int column) {
+        return dictionaries[column];
+    }
+
+    public int getId() {
+        return tableId;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the number of pages of the specified column.
+     */
+    public int numPages(int column) {
+        try {
+            return (int) (columns[column].size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages of all columns together.
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int i = 0; i < columns.length; i++) {
+            pages += numPages(i);
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the number of rows allocated in this file, including the rows
+     * of deleted tuples.
+     */
+    public synchronized int numRows() {
+        return numRows;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != tableId) {
+            throw new IllegalArgumentException("page " + pid + " is not in " + file);
+        }
+        ColumnPageId columnPageId = (ColumnPageId) pid;
+        try {
+            ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+            columns[columnPageId.getColumn()].read(data, getPageStartPosition(pid));
+            data.clear();
+            return new ColumnPage(columnPageId, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public Page createPage(PageId pid, byte[] data) {
+        return new ColumnPage((ColumnPageId) pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(Collection<Page> pages) throws IOException {
+        forceSideFiles();
+        // one sorted, coalesced write per column
+        Map<Integer, SortedMap<Long, ByteBuffer>> byColumn = new TreeMap<>();
+        for (Page page : pages) {
+            int column = ((ColumnPageId) page.getId()).getColumn();
+            byColumn.computeIfAbsent(column, c -> new TreeMap<>())
+                    .put(getPageStartPosition(page.getId()), ByteBuffer.wrap(page.getPageData()));
+        }
+        for (Map.Entry<Integer, SortedMap<Long, ByteBuffer>> entry : byColumn.entrySet()) {
+            columns[entry.getKey()].write(entry.getValue());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void forceSideFiles() throws IOException {
+        for (StringDictionary dictionary : dictionaries) {
+            if (dictionary != null) {
+                dictionary.force();
+            }
+        }
+    }
+
+    private long getPageStartPosition(PageId pid) {
+        return (long) pid.getPageNumber() * BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the id of the page of the specified column that holds the given row.
+     */
+    private ColumnPageId pageOf(int column, int row) {
+        return new ColumnPageId(tableId, column, row / slotsPerPage[column]);
+    }
+
+    private RecordId recordIdOf(int row) {
+        return new RecordId(pageOf(0, row), row % slotsPerPage[0]);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
+                                                             TransactionAbortedException {
+        if (!tupleDesc.equals(t.getTupleDesc())) {
+            throw new DbException("tuple desc not matched: " + t.getTupleDesc());
+        }
+        for (int column = 0; column < columns.length; column++) {
+            if (t.getField(column) == null) {
+                throw new DbException("tuple has no value for column " + column);
+            }
+        }
+        int row;
+        synchronized (this) {
+            row = numRows++;
+        }
+        List<Page> pages = new ArrayList<>(columns.length);
+        for (int column = 0; column < columns.length; column++) {
+            ColumnPageId pid = pageOf(column, row);
+            appendPagesUpTo(pid);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.setValue(row % slotsPerPage[column], t.getField(column));
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        t.setRecordId(recordIdOf(row));
+        return pages;
+    }
+
+    /**
+     * Makes sure the page exists on disk, so that the BufferPool can read it.
+     */
+    private synchronized void appendPagesUpTo(ColumnPageId pid) throws IOException {
+        PageFileChannel channel = columns[pid.getColumn()];
+        for (int pageNo = numPages(pid.getColumn()); pageNo <= pid.getPageNumber(); pageNo++) {
+            channel.write(ByteBuffer.wrap(ColumnPage.createEmptyPageData()), (long) pageNo * BufferPool.getPageSize());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not stored in " + file);
+        }
+        int row = rid.getPageId().getPageNumber() * slotsPerPage[0] + rid.getTupleNumber();
+        List<Page> pages = new ArrayList<>(columns.length);
+        for (int column = 0; column < columns.length; column++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool()
+                    .getPage(tid, pageOf(column, row), Permissions.READ_WRITE);
+            int slot = row % slotsPerPage[column];
+            if (!page.isSlotUsed(slot)) {
+                throw new DbException("Slot is not used");
+            }
+            page.clearValue(slot);
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        List<Integer> all = new ArrayList<>(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            all.add(i);
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that only reads the
+     * specified columns. The tuples have the TupleDesc of the file, with the
+     * fields of the other columns left null.
+     *
+     * @param columns the indexes of the columns to read; if empty, the
+     *        first column is read to find the rows
+     */
+    public DbFileIterator iterator(TransactionId tid, Collection<Integer> columns) {
+        SortedSet<Integer> read = new TreeSet<>(columns);
+        if (read.isEmpty()) {
+            read.add(0);
+        }
+        for (int column : read) {
+            if (column < 0 || column >= this.columns.length) {
+                throw new IllegalArgumentException("no column " + column + " in " + tupleDesc);
+            }
+        }
+        return new ColumnFileIterator(tid, this, read.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static final class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId transactionId;
+
+        private final ColumnFile columnFile;
+
+        /**
+         * The columns read, the first one also telling which rows are in use.
+         */
+        private final int[] columns;
+
+        /**
+         * The page currently read of each of the columns.
+         */
+        private final ColumnPage[] pages;
+
+        private boolean open = false;
+
+        private int row = 0;
+
+        private int numRows = 0;
+
+        ColumnFileIterator(TransactionId transactionId, ColumnFile columnFile, int[] columns) {
+            this.transactionId = transactionId;
+            this.columnFile = columnFile;
+            this.columns = columns;
+            this.pages = new ColumnPage[columns.length];
+        }
+
+        @Override
+        public void open() {
+            open = true;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return null;
+            }
+            // the row count is only re-read once the cached one is used up
+            if (row >= numRows) {
+                numRows = columnFile.numRows();
+            }
+            for (; row < numRows; row++) {
+                if (!page(0).isSlotUsed(row % columnFile.slotsPerPage[columns[0]])) {
+                    continue;
+                }
+                Tuple t = new Tuple(columnFile.tupleDesc);
+                t.setRecordId(columnFile.recordIdOf(row));
+                for (int i = 0; i < columns.length; i++) {
+                    t.setField(columns[i], page(i).getValue(row % columnFile.slotsPerPage[columns[i]]));
+                }
+                row++;
+                return t;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the page of the i-th column read that holds the current row.
+         */
+        private ColumnPage page(int i) throws DbException, TransactionAbortedException {
+            ColumnPageId pid = columnFile.pageOf(columns[i], row);
+            if (pages[i] == null || !pages[i].getId().equals(pid)) {
+                pages[i] = (ColumnPage) Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY);
+                if (pages[i] == null) {
+                    throw new DbException("all page is dirty");
+                }
+            }
+            return pages[i];
+        }
+
+        @Override
+        public void rewind() {
+            row = 0;
+            numRows = 0;
+            Arrays.fill(pages, null);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            open = false;
+            Arrays.fill(pages, null);
+        }
+    }
+}
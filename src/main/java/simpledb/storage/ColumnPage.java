@@ -0,0 +1,248 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.FieldType;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A page of one column of a ColumnFile. It holds the values of that column
+ * for a run of consecutive rows: a header bitmap of the slots in use followed
+ * by fixed-size value slots, like a HeapPage whose tuples have a single field.
+ * The number of slots is
+ * <p>
+ *          floor((BufferPool.getPageSize()*8) / (field size * 8 + 1))
+ * <p>
+ * so a page of an int column holds many more rows than a page of a string
+ * column, and slot i of page p holds row p * numSlots + i of the table.
+ * The slots of a dictionary-encoded column hold the int codes of the values
+ * in the {@link StringDictionary} of the column.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final FieldType    type;
+    /** The dictionary of the column, or null if its values are stored as is. */
+    final StringDictionary dictionary;
+    final int          valueLen;
+    final int          numSlots;
+    final int          headerSize;
+
+    /**
+     * The bytes of this page, exactly as they are written to disk; {@link #values}
+     * only caches the values decoded from it.
+     */
+    private final ByteBuffer buffer;
+    private final Field[]    values;
+
+    /**
+     * The before image, or null while the page is unchanged since the last
+     * {@link #setBeforeImage()}; it is copied just before the first modification.
+     */
+    private byte[]           oldData;
+    private final Object     oldDataLock = new Object();
+
+    private TransactionId transactionId;
+
+    private volatile long lsn;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * data is copied, so the caller may keep using the array.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a ColumnPage over a buffer holding the page as read from disk,
+     * without copying it: the page takes ownership of the bytes between the
+     * buffer's position and limit.
+     */
+    public ColumnPage(ColumnPageId id, ByteBuffer data) {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.dictionary = file instanceof ColumnFile ? ((ColumnFile) file).getDictionary(id.getColumn()) : null;
+        this.valueLen = dictionary == null ? type.getLen() : StringDictionary.getCodeLen();
+        this.numSlots = getNumSlots(valueLen);
+        this.headerSize = (numSlots + 7) / 8;
+
+        int pageSize = BufferPool.getPageSize();
+        if (data.remaining() == pageSize) {
+            this.buffer = data.slice();
+        } else {
+            this.buffer = ByteBuffer.allocate(pageSize);
+            ByteBuffer src = data.duplicate();
+            src.limit(src.position() + Math.min(src.remaining(), pageSize));
+            this.buffer.put(src).clear();
+        }
+        this.values = new Field[numSlots];
+    }
+
+    /**
+     * Returns the number of values of the given size a page holds.
+     */
+    public static int getNumSlots(int valueLen) {
+        return BufferPool.getPageSize() * 8 / (valueLen * 8 + 1);
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the value in the specified slot, decoding it from the page data
+     * on first access.
+     *
+     * @return the value, or null if the slot is empty
+     */
+    public Field getValue(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Field f = values[slotId];
+        if (f == null) {
+            f = dictionary == null ? type.parse(slot(slotId)) : dictionary.decode(slot(slotId).getInt());
+            values[slotId] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Stores a value in the specified slot and marks the slot used. The value
+     * of a dictionary-encoded column is added to the dictionary if needed.
+     */
+    public void setValue(int slotId, Field value) {
+        copyBeforeImage();
+        if (dictionary != null) {
+            DictionaryStringField encoded = dictionary.encode((StringField) value);
+            slot(slotId).putInt(encoded.getCode());
+            value = encoded;
+        } else {
+            value.serialize(slot(slotId));
+        }
+        markSlotUsed(slotId, true);
+        values[slotId] = value;
+    }
+
+    /**
+     * Empties the specified slot.
+     */
+    public void clearValue(int slotId) {
+        copyBeforeImage();
+        markSlotUsed(slotId, false);
+        ByteBuffer out = slot(slotId);
+        for (int i = 0; i < valueLen; i++) {
+            out.put((byte) 0);
+        }
+        values[slotId] = null;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        if (i >= numSlots) {
+            return false;
+        }
+        return (buffer.get(i / Byte.SIZE) & (1 << (i % Byte.SIZE))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        int index = i / Byte.SIZE;
+        byte bits = buffer.get(index);
+        if (value) {
+            bits |= (1 << (i % Byte.SIZE));
+        } else {
+            bits &= ~(1 << (i % Byte.SIZE));
+        }
+        buffer.put(index, bits);
+    }
+
+    /**
+     * @return the index of the last used slot on this page, or -1 if the page is empty
+     */
+    public int getLastUsedSlot() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a buffer positioned at the start of the specified slot, sharing
+     *   the page data but not the position
+     */
+    private ByteBuffer slot(int slotId) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(headerSize + slotId * valueLen);
+        return in;
+    }
+
+    public byte[] getPageData() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity()) {
+            return buffer.array();
+        }
+        return copyPageData();
+    }
+
+    private byte[] copyPageData() {
+        byte[] data = new byte[buffer.capacity()];
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    public ColumnPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new ColumnPage(pid, oldDataRef == null ? getPageData() : oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void copyBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = copyPageData();
+            }
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.transactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return transactionId;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a ColumnFile. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+
+    private final int column;
+
+    private final int pageNum;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The index of the column in the table's TupleDesc
+     * @param pgNo The page number in the page sequence of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNum = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose values are stored on this page */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the page sequence of column getColumn()
+     *   of table getTableId()
+     */
+    public int getPageNumber() {
+        return pageNum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ColumnPageId)) {
+            return false;
+        }
+        ColumnPageId that = (ColumnPageId) o;
+        return tableId == that.tableId && column == that.column && pageNum == that.pageNum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(tableId, column, pageNum);
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pageNum };
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnPageId{" +
+                "tableId=" + tableId +
+                ", column=" + column +
+                ", pageNum=" + pageNum +
+                '}';
+    }
+}
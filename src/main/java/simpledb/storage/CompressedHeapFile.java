@@ -0,0 +1,360 @@
+package simpledb.storage;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.PageFileChannel;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A HeapFile whose pages are stored zlib-compressed on disk, for large tables
+ * that are rarely updated. Pages are decompressed by readPage into the same
+ * in-memory pages a plain HeapFile uses, so operators and the BufferPool do
+ * not see the difference; the file trades CPU for disk space and read I/O.
+ * <p>
+ * The data file holds the compressed pages one after the other. A page-offset
+ * index in a side file (the data file name plus {@link #INDEX_SUFFIX}) holds
+ * a long offset and an int length per page. Writing a page appends its new
+ * compressed version to the data file and points the index at it; the space
+ * of the old version is not reused, see {@link Stats#getDeadBytes()}.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private final PageFileChannel data;
+
+    private final PageFileChannel index;
+
+    private long[] offsets;
+
+    private int[] lengths;
+
+    private int numPages;
+
+    private final Stats stats = new Stats();
+
+    /**
+     * Opens the compressed heap file stored in the specified file and its
+     * index side file, creating them if they do not exist.
+     *
+     * @param f
+     *            the file that stores the compressed pages of this heap file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param slotted
+     *            if true, the pages are SlottedHeapPages, see
+     *            {@link HeapFile#HeapFile(File, TupleDesc, boolean, boolean)}.
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean slotted) {
+        super(f, td, false, slotted);
+        this.data = FileChannelManager.getInstance().get(f);
+        this.index = FileChannelManager.getInstance().open(new File(f.getPath() + INDEX_SUFFIX));
+        loadIndex();
+    }
+
+    private void loadIndex() {
+        try {
+            numPages = (int) (index.size() / INDEX_ENTRY_SIZE);
+            offsets = new long[Math.max(numPages, 16)];
+            lengths = new int[offsets.length];
+            ByteBuffer entries = ByteBuffer.allocate(numPages * INDEX_ENTRY_SIZE);
+            index.readFully(entries, 0);
+            entries.flip();
+            long live = 0;
+            for (int i = 0; i < numPages; i++) {
+                offsets[i] = entries.getLong();
+                lengths[i] = entries.getInt();
+                live += lengths[i];
+            }
+            stats.compressedBytes.set(live);
+            stats.rawBytes.set((long) numPages * BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the pages of a plain heap file into a new compressed heap file.
+     *
+     * @param heapFile the heap file to compress
+     * @param outFile the compressed heap file to create; an existing file and
+     *        its index are replaced
+     */
+    public static void compress(File heapFile, File outFile) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        File indexFile = new File(outFile.getPath() + INDEX_SUFFIX);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(heapFile));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+             DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            byte[] page = new byte[pageSize];
+            long offset = 0;
+            int read;
+            while ((read = readFully(in, page)) > 0) {
+                Arrays.fill(page, read, pageSize, (byte) 0);
+                byte[] compressed = deflate(page);
+                out.write(compressed);
+                idx.writeLong(offset);
+                idx.writeInt(compressed.length);
+                offset += compressed.length;
+            }
+        }
+        FileChannelManager.getInstance().open(outFile);
+        FileChannelManager.getInstance().open(indexFile);
+    }
+
+    /**
+     * Estimates how well the pages of a plain heap file would compress, to
+     * decide whether a table is worth storing compressed, by compressing up
+     * to maxPages of its pages spread evenly over the file.
+     *
+     * @return the raw size of the sampled pages divided by their compressed size
+     */
+    public static double estimateRatio(File heapFile, int maxPages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long numPages = heapFile.length() / pageSize;
+        if (numPages == 0 || maxPages <= 0) {
+            return 1.0;
+        }
+        long step = Math.max(1, numPages / maxPages);
+        long raw = 0;
+        long compressed = 0;
+        try (RandomAccessFile in = new RandomAccessFile(heapFile, "r")) {
+            byte[] page = new byte[pageSize];
+            for (long pageNo = 0; pageNo < numPages; pageNo += step) {
+                in.seek(pageNo * pageSize);
+                in.readFully(page);
+                raw += pageSize;
+                compressed += deflate(page).length;
+            }
+        }
+        return (double) raw / compressed;
+    }
+
+    private static int readFully(InputStream in, byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int count = in.read(b, n, b.length - n);
+            if (count < 0) {
+                break;
+            }
+            n += count;
+        }
+        return n;
+    }
+
+    private static byte[] deflate(byte[] page) throws IOException {
+        ZStream z = new ZStream();
+        // zlib never grows its input by more than a small per-block overhead
+        byte[] out = new byte[page.length + page.length / 1000 + 64];
+        z.deflateInit(JZlib.Z_DEFAULT_COMPRESSION);
+        try {
+            z.next_in = page;
+            z.next_in_index = 0;
+            z.avail_in = page.length;
+            z.next_out = out;
+            z.next_out_index = 0;
+            z.avail_out = out.length;
+            int err = z.deflate(JZlib.Z_FINISH);
+            if (err != JZlib.Z_STREAM_END) {
+                throw new IOException("deflate failed: " + err + " " + z.msg);
+            }
+            return Arrays.copyOf(out, z.next_out_index);
+        } finally {
+            z.deflateEnd();
+        }
+    }
+
+    private static void inflate(byte[] compressed, byte[] page) throws IOException {
+        ZStream z = new ZStream();
+        z.inflateInit();
+        try {
+            z.next_in = compressed;
+            z.next_in_index = 0;
+            z.avail_in = compressed.length;
+            z.next_out = page;
+            z.next_out_index = 0;
+            z.avail_out = page.length;
+            int err = z.inflate(JZlib.Z_FINISH);
+            if (err != JZlib.Z_STREAM_END) {
+                throw new IOException("inflate failed: " + err + " " + z.msg);
+            }
+        } finally {
+            z.inflateEnd();
+        }
+    }
+
+    @Override
+    protected ByteBuffer readPageData(HeapPageId pid, ByteBuffer frame) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pid.getPageNumber() >= numPages) {
+                return frame == null ? ByteBuffer.wrap(page) : copyToFrame(page, frame);
+            }
+            offset = offsets[pid.getPageNumber()];
+            length = lengths[pid.getPageNumber()];
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(length);
+        data.readFully(compressed, offset);
+        long start = System.nanoTime();
+        inflate(compressed.array(), page);
+        stats.pagesRead.incrementAndGet();
+        stats.inflateNanos.addAndGet(System.nanoTime() - start);
+        return frame == null ? ByteBuffer.wrap(page) : copyToFrame(page, frame);
+    }
+
+    private static ByteBuffer copyToFrame(byte[] page, ByteBuffer frame) {
+        frame.clear();
+        frame.put(page).clear();
+        return frame;
+    }
+
+    @Override
+    protected synchronized void writePageData(Collection<Page> pages) throws IOException {
+        SortedMap<Integer, byte[]> compressed = new TreeMap<>();
+        long start = System.nanoTime();
+        for (Page page : pages) {
+            compressed.put(page.getId().getPageNumber(), deflate(page.getPageData()));
+        }
+        stats.deflateNanos.addAndGet(System.nanoTime() - start);
+
+        // append the new versions in one write, then point the index at them
+        SortedMap<Long, ByteBuffer> buffers = new TreeMap<>();
+        long offset = data.size();
+        for (byte[] bytes : compressed.values()) {
+            buffers.put(offset, ByteBuffer.wrap(bytes));
+            offset += bytes.length;
+        }
+        data.write(buffers);
+
+        int lastPage = compressed.lastKey();
+        if (lastPage >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(lastPage + 1, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        Iterator<Long> positions = buffers.keySet().iterator();
+        for (Map.Entry<Integer, byte[]> entry : compressed.entrySet()) {
+            int pageNo = entry.getKey();
+            long old = pageNo < numPages ? lengths[pageNo] : 0;
+            offsets[pageNo] = positions.next();
+            lengths[pageNo] = entry.getValue().length;
+            stats.compressedBytes.addAndGet(lengths[pageNo] - old);
+            stats.pagesWritten.incrementAndGet();
+        }
+        if (lastPage >= numPages) {
+            stats.rawBytes.addAndGet((long) (lastPage + 1 - numPages) * BufferPool.getPageSize());
+            numPages = lastPage + 1;
+        }
+        writeIndex(compressed.firstKey(), lastPage);
+    }
+
+    private void writeIndex(int fromPage, int toPage) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate((toPage - fromPage + 1) * INDEX_ENTRY_SIZE);
+        for (int i = fromPage; i <= toPage; i++) {
+            entries.putLong(offsets[i]);
+            entries.putInt(lengths[i]);
+        }
+        entries.flip();
+        index.write(entries, (long) fromPage * INDEX_ENTRY_SIZE);
+    }
+
+    @Override
+    void force() throws IOException {
+        data.force(false);
+        index.force(false);
+    }
+
+    /**
+     * Returns the number of pages in this file, as recorded in its index.
+     */
+    @Override
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns the compression statistics of this table.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Compression statistics of a CompressedHeapFile: the sizes of its pages
+     * before and after compression, and the pages and CPU time spent
+     * compressing and decompressing since it was opened.
+     */
+    public final class Stats {
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong compressedBytes = new AtomicLong();
+        private final AtomicLong pagesRead = new AtomicLong();
+        private final AtomicLong pagesWritten = new AtomicLong();
+        private final AtomicLong inflateNanos = new AtomicLong();
+        private final AtomicLong deflateNanos = new AtomicLong();
+
+        /** Returns the size of the pages of the table, uncompressed. */
+        public long getRawBytes() {
+            return rawBytes.get();
+        }
+
+        /** Returns the size of the current version of every page, compressed. */
+        public long getCompressedBytes() {
+            return compressedBytes.get();
+        }
+
+        /** Returns the raw size divided by the compressed size. */
+        public double getRatio() {
+            long compressed = getCompressedBytes();
+            return compressed == 0 ? 1.0 : (double) getRawBytes() / compressed;
+        }
+
+        /** Returns the bytes of the data file taken by superseded page versions. */
+        public long getDeadBytes() {
+            try {
+                return data.size() - getCompressedBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public long getPagesRead() {
+            return pagesRead.get();
+        }
+
+        public long getPagesWritten() {
+            return pagesWritten.get();
+        }
+
+        /** Returns the time spent decompressing pages, in nanoseconds. */
+        public long getInflateNanos() {
+            return inflateNanos.get();
+        }
+
+        /** Returns the time spent compressing pages, in nanoseconds. */
+        public long getDeflateNanos() {
+            return deflateNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d pages, %d -> %d bytes (%.2fx), %d dead bytes, "
+                                 + "%d pages read in %d ms, %d pages written in %d ms",
+                getFile().getName(), numPages(), getRawBytes(), getCompressedBytes(), getRatio(), getDeadBytes(),
+                getPagesRead(), inflateNanos.get() / 1000000, getPagesWritten(), deflateNanos.get() / 1000000);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -23,6 +24,30 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into a frame of a buffer pool. Files
+     * that can build the page over the frame read it there; the page then
+     * owns the frame until it is garbage collected. Other files ignore the
+     * frame and read the page as {@link #readPage(PageId)} does.
+     *
+     * @param frame a buffer of exactly one page, whose contents are undefined
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
+    /**
+     * Build a page of this file from its on-disk bytes, as read by
+     * {@link #readPage(PageId)}. Used by recovery to write pages it rebuilt
+     * from log records.
+     *
+     * @throws UnsupportedOperationException if the file cannot build pages from bytes
+     */
+    default Page createPage(PageId id, byte[] data) {
+        throw new UnsupportedOperationException("cannot create pages of " + getClass().getName());
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -32,6 +57,31 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push a batch of pages to disk. The default writes them one by one;
+     * implementations that know the on-disk layout should write them in file
+     * order, coalescing adjacent pages.
+     *
+     * @param pages The pages to write, all belonging to this file.
+     * @throws IOException if the write fails
+     */
+    default void writePages(Collection<Page> pages) throws IOException {
+        for (Page page : pages) {
+            writePage(page);
+        }
+    }
+
+    /**
+     * Forces to disk the side files the pages of this file refer to, such
+     * as dictionaries, so that no page, or log record of a page, that
+     * reaches disk refers to data a crash could lose. Called before pages
+     * are logged or written. The default does nothing.
+     *
+     * @throws IOException if the force fails
+     */
+    default void forceSideFiles() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import simpledb.common.FieldType;
+import simpledb.execution.Predicate;
+
+/**
+ * A StringField read from a dictionary-encoded column: besides its value it
+ * holds its code in the {@link StringDictionary} of the column. Equality
+ * tests against fields of the same dictionary, and against predicate
+ * constants, compare codes instead of strings; hashCode stays the hash of the
+ * value, so these fields mix with plain StringFields in hash tables.
+ */
+public class DictionaryStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dictionary;
+
+    private final int code;
+
+    DictionaryStringField(String value, StringDictionary dictionary, int code) {
+        super(value, FieldType.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the code of this value in its dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the dictionary this value was read from
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (field instanceof DictionaryStringField && dictionary != null
+                && ((DictionaryStringField) field).dictionary == dictionary) {
+            return ((DictionaryStringField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (dictionary != null && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            int other = dictionary.codeOf(val);
+            return (other == code) == (op == Predicate.Op.EQUALS);
+        }
+        return super.compare(op, val);
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.FieldType;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -17,6 +18,13 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into the specified buffer at
+     * its current position, in the same format as {@link #serialize(DataOutputStream)}.
+     * @param buffer The buffer to write to; its position is advanced past the field.
+     */
+    void serialize(ByteBuffer buffer);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
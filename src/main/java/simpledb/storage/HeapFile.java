@@ -4,12 +4,17 @@ import com.google.common.collect.Lists;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
-import simpledb.core.file.ByteArrayFileReader;
-import simpledb.core.file.RandomAccessFileWriter;
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.MappedPageFile;
+import simpledb.core.file.PageFileChannel;
+import simpledb.storage.page.FreeSpaceMap;
+import simpledb.storage.page.PageReadAhead;
+import simpledb.storage.page.ScanRing;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -18,9 +23,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A table of mostly short strings can use the variable-length
+ * SlottedHeapPage format instead.
  * 
  * @see HeapPage#HeapPage
+ * @see SlottedHeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
@@ -31,6 +38,31 @@ public class HeapFile implements DbFile {
 
     private final FileMeta fileMeta;
 
+    private final PageFileChannel channel;
+
+    /**
+     * Non-null when this file is opened read-only and memory-mapped.
+     */
+    private final MappedPageFile mappedFile;
+
+    /**
+     * True when the pages of this file are SlottedHeapPages rather than HeapPages.
+     */
+    private final boolean slotted;
+
+    /**
+     * Free slots per page, used to pick the page an insert goes to. Null when
+     * the file is mapped, as it takes no inserts.
+     */
+    private final FreeSpaceMap freeSpace;
+
+    /**
+     * Held while pages are appended to the end of the file, so that an
+     * insert that adds a page and a {@link BulkLoader} do not both take the
+     * same page numbers.
+     */
+    final Object appendLock = new Object();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -39,10 +71,46 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            if true, the file is opened read-only and pages are served
+     *            from a memory mapping of it. Meant for bulk-loaded tables
+     *            that are only scanned afterwards; inserts, deletes and page
+     *            writes are rejected.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            if true, the file is opened read-only over a memory mapping,
+     *            see {@link #HeapFile(File, TupleDesc, boolean)}.
+     * @param slotted
+     *            if true, the file is made of SlottedHeapPages, which store
+     *            strings in the bytes they use.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, boolean slotted) {
         this.file = f;
+        this.slotted = slotted;
         this.tupleDesc = td;
         this.fileMeta = new FileMeta(f);
+        this.channel = FileChannelManager.getInstance().open(f);
+        this.mappedFile = mapped ? new MappedPageFile(channel) : null;
+        this.freeSpace = mapped ? null : new FreeSpaceMap(f);
     }
 
     /**
@@ -55,6 +123,20 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Returns true if this HeapFile is opened read-only over a memory mapping.
+     */
+    public boolean isMapped() {
+        return mappedFile != null;
+    }
+
+    /**
+     * Returns true if the pages of this HeapFile are SlottedHeapPages.
+     */
+    public boolean isSlotted() {
+        return slotted;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -82,26 +164,100 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        return readPage(pid, null);
+    }
+
+    @Override
+    public Page readPage(PageId pid, ByteBuffer frame) {
         try {
-            int pageNum = pid.getPageNumber();
-            int begin = BufferPool.getPageSize() * pageNum;
-            int end = BufferPool.getPageSize() * (pageNum + 1);
             HeapPageId pageId = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-            return new HeapPage(pageId, new ByteArrayFileReader().getContent(this.file, begin, end));
+            TuplePage page = newPage(pageId, readPageData(pageId, frame));
+            if (freeSpace != null) {
+                freeSpace.update(pid.getPageNumber(), page.getNumEmptySlots());
+            }
+            return page;
         } catch (Throwable throwable) {
             throw new IllegalArgumentException(throwable);
         }
     }
 
+    /**
+     * Reads the on-disk bytes of a page into the frame, or into a new buffer
+     * if the frame is null. The page is built over the returned buffer
+     * without copying it; a page past the end of the file reads as zeroes.
+     */
+    protected ByteBuffer readPageData(HeapPageId pid, ByteBuffer frame) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long position = getPageStartPosition(pid);
+        // a mapped page is used in place; otherwise the page takes over the buffer read into
+        ByteBuffer data = mappedFile == null ? null : mappedFile.slice(position, pageSize);
+        if (data == null) {
+            data = frame == null ? ByteBuffer.allocate(pageSize) : frame;
+            data.clear();
+            channel.read(data, position);
+            // a frame still holds the bytes of the page it was last used for
+            while (frame != null && data.hasRemaining()) {
+                data.put((byte) 0);
+            }
+            data.clear();
+        }
+        return data;
+    }
+
+    TuplePage newPage(HeapPageId pageId, ByteBuffer data) {
+        return slotted ? new SlottedHeapPage(pageId, data) : new HeapPage(pageId, data);
+    }
+
+    @Override
+    public Page createPage(PageId pid, byte[] data) {
+        return newPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), ByteBuffer.wrap(data));
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        new RandomAccessFileWriter().writePage(file, getPageStartPosition(page), page);
+        writePages(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(Collection<Page> pages) throws IOException {
+        if (mappedFile != null) {
+            throw new IOException("HeapFile " + file + " is opened read-only");
+        }
+        writePageData(pages);
+        int firstPage = Integer.MAX_VALUE;
+        int lastPage = -1;
+        for (Page page : pages) {
+            int pageNo = page.getId().getPageNumber();
+            freeSpace.update(pageNo, ((TuplePage) page).getNumEmptySlots());
+            firstPage = Math.min(firstPage, pageNo);
+            lastPage = Math.max(lastPage, pageNo);
+        }
+        freeSpace.persist(firstPage, lastPage);
     }
 
-    private int getPageStartPosition(Page page) {
-        return page.getId().getPageNumber() * BufferPool.getPageSize();
+    /**
+     * Writes the on-disk bytes of the given pages, in file order with
+     * contiguous pages coalesced into single writes.
+     */
+    protected void writePageData(Collection<Page> pages) throws IOException {
+        SortedMap<Long, ByteBuffer> buffers = new TreeMap<>();
+        for (Page page : pages) {
+            buffers.put(getPageStartPosition(page.getId()), ByteBuffer.wrap(page.getPageData()));
+        }
+        channel.write(buffers);
+    }
+
+    /**
+     * Forces the pages written to this file to disk.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    private long getPageStartPosition(PageId pid) {
+        return (long) pid.getPageNumber() * BufferPool.getPageSize();
     }
 
     /**
@@ -110,7 +266,11 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) file.length() / BufferPool.getPageSize();
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -118,24 +278,37 @@ public class HeapFile implements DbFile {
                                                              TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkWritable();
         BufferPool bufferPool = Database.getBufferPool();
-        for (int pageNum = 0; pageNum < numPages(); pageNum++) {
-            HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), pageNum), Permissions.READ_WRITE);
-            if (heapPage == null || heapPage.getNumEmptySlots() == 0) {
+        // only lock the pages the free-space map says may have room
+        int numPages = numPages();
+        for (int pageNum = freeSpace.nextCandidate(0, numPages); pageNum >= 0;
+             pageNum = freeSpace.nextCandidate(pageNum + 1, numPages)) {
+            TuplePage heapPage = (TuplePage) bufferPool.getPage(tid, new HeapPageId(getId(), pageNum), Permissions.READ_WRITE);
+            if (heapPage == null) {
+                continue;
+            }
+            int emptySlots = heapPage.getNumEmptySlots();
+            if (emptySlots == 0) {
+                freeSpace.update(pageNum, 0);
                 continue;
             }
             heapPage.insertTuple(t);
             heapPage.markDirty(true, tid);
+            freeSpace.update(pageNum, emptySlots - 1);
             return Lists.newArrayList(heapPage);
         }
         // go into insert page logic
-        final HeapPageId heapPageId = new HeapPageId(getId(), this.numPages());
-        HeapPage newPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
-        writePage(newPage);
+        final HeapPageId heapPageId;
+        synchronized (appendLock) {
+            heapPageId = new HeapPageId(getId(), this.numPages());
+            writePage(newPage(heapPageId, ByteBuffer.wrap(HeapPage.createEmptyPageData())));
+        }
         // Through buffer pool to get newPage
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+        TuplePage heapPage = (TuplePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
         heapPage.insertTuple(t);
         heapPage.markDirty(true, tid);
+        freeSpace.update(heapPageId.getPageNumber(), heapPage.getNumEmptySlots());
         return Lists.newArrayList(heapPage);
     }
 
@@ -143,17 +316,34 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkWritable();
         RecordId recordId = t.getRecordId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, recordId.getPageId(), Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, recordId.getPageId(), Permissions.READ_WRITE);
 //        page.markDirty(true, tid);
         page.deleteTuple(t);
+        freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots());
         return Lists.newArrayList(page);
     }
 
+    private void checkWritable() throws DbException {
+        if (mappedFile != null) {
+            throw new DbException("HeapFile " + file + " is opened read-only");
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid, this);
+        return new HeapFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that returns a single
+     * {@link TupleView} moved from tuple to tuple rather than a Tuple per
+     * tuple, for callers that do not keep tuples past the next call.
+     */
+    public DbFileIterator viewIterator(TransactionId tid) {
+        return new HeapFileIterator(tid, this, new TupleView(tupleDesc));
     }
 
     private static final class FileMeta {
@@ -172,15 +362,33 @@ public class HeapFile implements DbFile {
 
         private int pageNum = 0;
 
+        private int numPages = 0;
+
         private Iterator<Tuple> tupleIterator;
 
+        /** The page tupleIterator iterates over, unpinned once the scan leaves it */
+        private Page page;
+
+        /** The view returned for every tuple, or null to return decoded tuples */
+        private final TupleView view;
+
         private final AtomicBoolean switcher = new AtomicBoolean(false);
 
         private final AtomicBoolean closeGate = new AtomicBoolean(false);
 
-        public HeapFileIterator(TransactionId transactionId, HeapFile heapFile) {
+        private final PageReadAhead readAhead;
+
+        /** The ring of a scan of a table larger than the pool can hold, or null */
+        private ScanRing ring;
+
+        public HeapFileIterator(TransactionId transactionId, HeapFile heapFile, TupleView view) {
             this.transactionId = transactionId;
             this.heapFile = heapFile;
+            this.view = view;
+            this.readAhead = new PageReadAhead(Database.getBufferPool(), (pid, page) -> {
+                int next = pid.getPageNumber() + 1;
+                return next < heapFile.numPages() ? new HeapPageId(pid.getTableId(), next) : null;
+            });
         }
 
         @Override
@@ -188,42 +396,68 @@ public class HeapFile implements DbFile {
             if (closeGate.get()) {
                 throw new NoSuchElementException("iterator not open yet");
             }
-            if (!switcher.get() || pageNum > heapFile.numPages()) {
+            if (!switcher.get()) {
                 return null;
             }
             if (tupleIterator != null && tupleIterator.hasNext()) {
                 return tupleIterator.next();
             }
-            while (pageNum < heapFile.numPages() && (tupleIterator == null || !tupleIterator.hasNext())) {
-                HeapPage page = (HeapPage) Database.getBufferPool()
-                        .getPage(transactionId,
-                                new HeapPageId(heapFile.getId(), pageNum),
-                                Permissions.READ_ONLY);
+            // the page count is only re-read once the cached one is used up
+            if (pageNum >= numPages) {
+                numPages = heapFile.numPages();
+            }
+            while (pageNum < numPages && (tupleIterator == null || !tupleIterator.hasNext())) {
+                HeapPageId pid = new HeapPageId(heapFile.getId(), pageNum);
+                unpin();
+                if (ring != null) {
+                    // pages of large tables bypass the pool, and so does their read-ahead
+                    TuplePage page = (TuplePage) Database.getBufferPool().getScanPage(transactionId, pid, ring);
+                    this.page = page;
+                    tupleIterator = view == null ? page.iterator() : page.iterator(view);
+                    pageNum ++;
+                    continue;
+                }
+                TuplePage page = (TuplePage) Database.getBufferPool()
+                        .getPage(transactionId, pid, Permissions.READ_ONLY);
                 if (page == null) {
                     throw new DbException("all page is dirty");
                 }
-                tupleIterator = page.iterator();
+                this.page = page;
+                readAhead.accessed(pid, pageNum + 1 < numPages ? new HeapPageId(heapFile.getId(), pageNum + 1) : null);
+                tupleIterator = view == null ? page.iterator() : page.iterator(view);
                 pageNum ++;
             }
-            return tupleIterator.next();
+            return tupleIterator == null || !tupleIterator.hasNext() ? null : tupleIterator.next();
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             switcher.compareAndSet(false, true);
+            ring = Database.getBufferPool().newScanRing(heapFile.numPages());
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             pageNum = 0;
+            numPages = 0;
             tupleIterator = null;
+            unpin();
+            readAhead.reset();
         }
 
         @Override
         public void close() {
             closeGate.compareAndSet(false, true);
+            unpin();
             super.close();
         }
+
+        private void unpin() {
+            if (page != null) {
+                Database.getBufferPool().unpinPage(transactionId, page);
+                page = null;
+            }
+        }
     }
 
 }
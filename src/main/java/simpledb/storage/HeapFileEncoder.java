@@ -4,8 +4,10 @@ import simpledb.common.FieldType;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -67,6 +69,59 @@ public class HeapFileEncoder {
         convert(inFile, outFile, npagebytes, numFields, typeAr, ',');
     }
 
+    /** Convert the specified input text file into a binary page file, made of
+     * {@link SlottedHeapPage}s if slotted is true and of HeapPages otherwise.
+     * The input format is the same as for
+     * {@link #convert(File, File, int, int, FieldType[], char)}; a malformed
+     * line is reported and skipped.
+     *
+     * @see SlottedHeapPage
+     */
+    public static void convert(File inFile, File outFile, int npagebytes, int numFields, FieldType[] typeAr,
+                               char fieldSeparator, boolean slotted) throws IOException {
+        if (!slotted) {
+            convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+            return;
+        }
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        String separator = Pattern.quote(String.valueOf(fieldSeparator));
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+             FileOutputStream os = new FileOutputStream(outFile)) {
+            ByteBuffer page = ByteBuffer.allocate(npagebytes);
+            boolean empty = true;
+            int npages = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split(separator, -1);
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < numFields; i++) {
+                        String s = values[i].trim();
+                        t.setField(i, typeAr[i] == FieldType.INT_TYPE ? new IntField(Integer.parseInt(s))
+                                : new StringField(s, FieldType.STRING_LEN));
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.out.println("BAD LINE : " + line);
+                    continue;
+                }
+                if (!SlottedHeapPage.append(page, t)) {
+                    os.write(page.array());
+                    npages++;
+                    page = ByteBuffer.allocate(npagebytes);
+                    SlottedHeapPage.append(page, t);
+                }
+                empty = false;
+            }
+            // flush the last page, or an empty page if this file is empty
+            if (!empty || npages == 0) {
+                os.write(page.array());
+            }
+        }
+    }
+
     /** Convert the specified input text file into a binary
      * page file. <br>
      * Assume format of the input file is (note that only integer fields are
@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -19,19 +20,32 @@ import java.io.*;
 //TODO: add freelist, to hold deleted tuples
 // 1. when insert, use free tuples first, and release free list
 // 2. when delete, send delete tuple to free list, and free used tuple
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId   pid;
     final TupleDesc tupleDesc;
-    final byte[]       header;
-    final Tuple[]      tuples;
     final int          numSlots;
+    final int          headerSize;
+
+    /**
+     * The bytes of this page, exactly as they are written to disk. Header bits
+     * and tuple slots are read and updated in place; {@link #tuples} only
+     * caches the tuples decoded from it.
+     */
+    private final ByteBuffer buffer;
+    final Tuple[]      tuples;
 
+    /**
+     * The before image, or null while the page is unchanged since the last
+     * {@link #setBeforeImage()}; it is copied just before the first modification.
+     */
     byte[]             oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     private TransactionId transactionId;
 
+    private volatile long lsn;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -44,32 +58,40 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The data is copied, so the caller may keep using the array.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the page as read from disk,
+     * without copying it: the page takes ownership of the bytes between the
+     * buffer's position and limit. A read-only buffer gives a page that
+     * cannot be modified.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.tupleDesc = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.headerSize = getHeaderSize();
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        int pageSize = BufferPool.getPageSize();
+        if (data.remaining() == pageSize) {
+            this.buffer = data.slice();
+        } else {
+            this.buffer = ByteBuffer.allocate(pageSize);
+            ByteBuffer src = data.duplicate();
+            src.limit(src.position() + Math.min(src.remaining(), pageSize));
+            this.buffer.put(src).clear();
         }
-        dis.close();
-
-        setBeforeImage();
+        // tuples are decoded lazily, see #getTuple
+        this.tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -96,11 +118,14 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef == null) {
+            oldDataRef = getPageData();
+        }
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -112,7 +137,19 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
+        }
+    }
+
+    /**
+     * Keeps a copy of the current page data as the before image, if there is
+     * none yet; called before every modification of {@link #buffer}.
+     */
+    private void copyBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = copyPageData();
+            }
         }
     }
 
@@ -125,39 +162,52 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, decoding it from the page data
+     * on first access.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < tupleDesc.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = readTuple(slotId);
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Decode the tuple in the specified slot from the page data.
+     */
+    private Tuple readTuple(int slotId) {
+        ByteBuffer in = slot(slotId);
 
         // read fields in the tuple
         Tuple t = new Tuple(tupleDesc);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j = 0; j < tupleDesc.numFields(); j++) {
-                Field f = tupleDesc.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        for (int j = 0; j < tupleDesc.numFields(); j++) {
+            Field f = tupleDesc.getFieldType(j).parse(in);
+            t.setField(j, f);
         }
 
         return t;
     }
 
+    /**
+     * @return a buffer positioned at the start of the specified slot; it
+     *   shares the page data but not the position, so concurrent readers
+     *   do not interfere
+     */
+    private ByteBuffer slot(int slotId) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(headerSize + slotId * tupleDesc.getSize());
+        return in;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -165,69 +215,26 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page already holds its on-disk bytes, so this is usually the
+     * backing array itself rather than a copy; see {@link Page#getPageData()}.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < tupleDesc.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < tupleDesc.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + tupleDesc.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity()) {
+            return buffer.array();
         }
+        return copyPageData();
+    }
 
-        return baos.toByteArray();
+    private byte[] copyPageData() {
+        byte[] data = new byte[buffer.capacity()];
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
     }
 
     /**
@@ -263,7 +270,12 @@ public class HeapPage implements Page {
         if (!isSlotUsed(tn)) {
             throw new DbException("Slot is not used");
         }
+        copyBeforeImage();
         markSlotUsed(tn, false);
+        ByteBuffer out = slot(tn);
+        for (int i = 0; i < tupleDesc.getSize(); i++) {
+            out.put((byte) 0);
+        }
         this.tuples[tn] = null;
     }
 
@@ -284,6 +296,11 @@ public class HeapPage implements Page {
             if (isSlotUsed(tupleNumber)) {
                 continue;
             }
+            copyBeforeImage();
+            ByteBuffer out = slot(tupleNumber);
+            for (int j = 0; j < tupleDesc.numFields(); j++) {
+                t.getField(j).serialize(out);
+            }
             markSlotUsed(tupleNumber, true);
             t.setRecordId(new RecordId(this.pid, tupleNumber));
             this.tuples[tupleNumber] = t;
@@ -315,6 +332,14 @@ public class HeapPage implements Page {
         return this.transactionId;
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -339,7 +364,7 @@ public class HeapPage implements Page {
         }
         int index = i / Byte.SIZE;
         int pos = i % Byte.SIZE;
-        return ((header[index]) & (1 << pos)) > 0;
+        return (buffer.get(index) & (1 << pos)) != 0;
     }
 
     /**
@@ -350,13 +375,13 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int index = tupleNum / Byte.SIZE;
         int pos = tupleNum % Byte.SIZE;
+        byte bits = buffer.get(index);
         if (value) {
-            header[index] |= (1 << pos);
+            bits |= (1 << pos);
         } else {
-            byte sign = (byte)(1 << pos);
-            sign = (byte) ~sign;
-            header[index] = (byte) (sign & header[index]);
+            bits &= ~(1 << pos);
         }
+        buffer.put(index, bits);
     }
 
     /**
@@ -368,14 +393,27 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
+    @Override
+    public Iterator<Tuple> iterator(TupleView view) {
+        return new HeapPageIterator(this, view);
+    }
+
     private static final class HeapPageIterator implements Iterator<Tuple> {
 
         private final HeapPage heapPage;
 
+        /** The view moved to each tuple, or null to return the decoded tuples */
+        private final TupleView view;
+
         private int indexer = 0;
 
         public HeapPageIterator(HeapPage heapPage) {
+            this(heapPage, null);
+        }
+
+        public HeapPageIterator(HeapPage heapPage, TupleView view) {
             this.heapPage = heapPage;
+            this.view = view;
         }
 
         @Override
@@ -391,7 +429,14 @@ public class HeapPage implements Page {
             if (indexer >= heapPage.numSlots) {
                 return null;
             }
-            Tuple tuple = heapPage.tuples[indexer];
+            Tuple tuple;
+            if (view != null) {
+                view.moveTo(heapPage, heapPage.buffer,
+                    indexer, heapPage.headerSize + indexer * heapPage.tupleDesc.getSize());
+                tuple = view;
+            } else {
+                tuple = heapPage.getTuple(indexer);
+            }
             indexer ++;
             return tuple;
         }
@@ -0,0 +1,99 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The in-memory tail of a log: log records are serialized into a reusable
+ * buffer, through a DataOutputStream, and appended to the
+ * {@link LogSegments segments} of the log in large writes when the buffer
+ * fills up or is flushed, instead of one small write per field of a record.
+ * <p>
+ * The buffer must be flushed before the log is read for the reads to see
+ * the buffered records. Not thread safe: {@link LogFile} only uses it under
+ * its lock.
+ */
+class LogBuffer extends OutputStream {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final ByteBuffer buffer;
+
+    private LogSegments segments;
+
+    /** The LSN of the first byte of the buffer */
+    private long position;
+
+    private long writes;
+
+    LogBuffer(LogSegments segments, long position) {
+        this(segments, position, DEFAULT_CAPACITY);
+    }
+
+    LogBuffer(LogSegments segments, long position, int capacity) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        reset(segments, position);
+    }
+
+    /**
+     * Drops the buffered bytes and appends at the specified LSN of the
+     * specified segments from now on.
+     */
+    void reset(LogSegments segments, long position) {
+        this.segments = segments;
+        this.position = position;
+        buffer.clear();
+    }
+
+    /**
+     * Returns the LSN the next byte will be written at.
+     */
+    long end() {
+        return position + buffer.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the segments, without forcing them to disk.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        int n = buffer.remaining();
+        segments.write(buffer, position);
+        position += n;
+        buffer.clear();
+        writes++;
+    }
+
+    /**
+     * Returns the number of times the buffer was written to the segments.
+     */
+    long getWrites() {
+        return writes;
+    }
+}
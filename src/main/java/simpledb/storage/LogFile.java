@@ -5,8 +5,13 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -42,20 +47,26 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file holds a single long integer, the LSN of the last
+written checkpoint record, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are in segment files of a fixed size, in the
+directory named after the log file with a .segments suffix (see
+{@link LogSegments}).  Log records are variable length, and may span
+segments.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record is preceded by its integer length and the integer
+CRC-32 of its bytes, and begins with an integer type and a long integer
+transaction id.  Zeros where a record is expected, such as those that
+follow the last record in its preallocated segment, and a record that is
+cut short or fails its checksum, such as one a crash tore, mark the end
+of the log.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer, the LSN of the record:
+the position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+CHECKPOINT, and BULK_APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -64,18 +75,50 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> DELTA records stand for UPDATE records whose images differ in a
+small part of the page only, such as the slot and header byte of a tuple
+inserted into or deleted from a HeapPage, or the entries of a B+ tree leaf
+that changed. They consist of the serialized page id and of the ranges of
+bytes in which the images differ, with the before and after bytes of
+each (see {@link PageDelta}). Redo writes the after bytes into the page,
+undo the before bytes; structure modifications such as splits and merges
+change too much of their pages, and are logged as UPDATE records.
+
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of the
+dirty page table: the pages whose logged changes may not be on disk, and
+the first log record each may miss.  The format of the record is an
+integer count of the number of transactions, as well as a long integer
+transaction id and a long integer first record LSN for each active
+transaction, then an integer count of the number of dirty pages, as well
+as a serialized page id and a long integer record LSN for each.
+
+<li> BULK_APPEND records stand for all the pages a {@link BulkLoader}
+appended to a table, instead of one UPDATE record per page. They consist
+of an integer table id, the integer number of the first appended page and
+the integer number of pages appended, which is -1 while the load is in
+progress and is filled in when it ends. The pages are forced to disk
+before the load ends, so a committed load needs no redo; undoing a load
+overwrites its pages with empty ones. The checksum of the record covers
+the page count as -1, since it is filled in once the record is durable.
 
 </ul>
+
+<p> Records are serialized into an in-memory {@link LogBuffer} and
+written to the segments in large chunks, when the buffer fills up or the
+log is forced. The LSN of a record is its position in the stream of
+segments, which truncation does not move: truncating deletes the segments
+before the oldest record recovery needs, and a new log starts after the
+end of the last one, so that LSNs only ever increase. Pages remember the
+LSN of their last UPDATE record, so that a page can be written once the
+log is durable up to it, without forcing the rest.
 */
 public class LogFile {
 
     final File               logFile;
-    private RandomAccessFile raf;
+    /** Holds the LSN of the last checkpoint record */
+    private final RandomAccessFile control;
+    private final LogSegments segments;
     Boolean                  recoveryUndecided;                    // no call to recover() and no append to log
 
     static final int         ABORT_RECORD        = 1;
@@ -83,17 +126,69 @@ public class LogFile {
     static final int         UPDATE_RECORD       = 3;
     static final int         BEGIN_RECORD        = 4;
     static final int         CHECKPOINT_RECORD   = 5;
+    static final int         BULK_APPEND_RECORD  = 6;
+    static final int         DELTA_RECORD        = 7;
     static final long        NO_CHECKPOINT_ID    = -1;
 
     final static int         INT_SIZE            = 4;
     final static int         LONG_SIZE           = 8;
-
-    long                     currentOffset       = -1;              //protected by this
+    /** The length and checksum before each record */
+    final static int         RECORD_HEADER_SIZE  = 2 * INT_SIZE;
+    /** The type, transaction id and LSN of a record */
+    final static int         MIN_RECORD_SIZE     = INT_SIZE + 2 * LONG_SIZE;
+    /** The offset of the page count in a BULK_APPEND record */
+    final static int         BULK_APPEND_COUNT   = INT_SIZE + LONG_SIZE + 2 * INT_SIZE;
+
+    long                     currentOffset       = -1;              // LSN of the next record //protected by this
                                                                     //    int pageSize;
     int                      totalRecords        = 0;              // for PatchTest //protected by this
 
     final Map<Long, Long>    tidToFirstLogRecord = new HashMap<>();
 
+    /** Offset of the BULK_APPEND record of the load in progress, per transaction */
+    final Map<Long, Long>    tidToBulkAppend     = new HashMap<>();
+
+    /** The tail of the log not written to the file yet, the stream framed
+        records are written through into it, the record being serialized
+        and the stream it is serialized through; protected by this */
+    private final LogBuffer  buffer;
+    private final DataOutputStream logOut;
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(record);
+
+    /** The log is written to the file up to this LSN, and forced to disk
+        up to durableLsn; both are record boundaries */
+    private volatile long    flushedLsn;
+    private volatile long    durableLsn;           // written under groupCommit
+
+    /** Guards the group commit state below; never held while waiting for this */
+    private final Object     groupCommit         = new Object();
+    /** Whether a thread is forcing the log for its group, protected by groupCommit */
+    private boolean          forcing             = false;
+    /** Number of forces of the log, protected by groupCommit */
+    private long             forces              = 0;
+    private volatile long    maxGroupDelayNanos  = 0;
+
+    private volatile int     recoveryThreads     = Runtime.getRuntime().availableProcessors();
+    /** The threads recovery makes the changes to pages on, started when
+        first needed and stopped when idle; protected by this */
+    private ThreadPoolExecutor recoveryExecutor;
+
+    /** The background checkpointer, if one runs, its signal and the number
+        of checkpoints it took, protected by checkpointSignal */
+    private volatile Checkpointer checkpointer;
+    private final Object     checkpointSignal    = new Object();
+    private long             backgroundCheckpoints = 0;
+    /** The failure that stopped the background checkpointer, until it is
+        started again */
+    private volatile IOException checkpointerFailure;
+    /** The LSN of the last checkpoint record; protected by this */
+    private long             lastCheckpointLsn   = 0;
+
+    /** Held while forcing the log or deleting segments, so that a force
+        never hits a closed segment */
+    private final Object     fileLock            = new Object();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -106,8 +201,20 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor, with the size of the segment files of the log.
+        @param f The log file's name
+        @param segmentSize The size of the segments created from now on
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(new File(f.getPath() + ".segments"), segmentSize);
+        buffer = new LogBuffer(segments, segments.end());
+        logOut = new DataOutputStream(buffer);
+        flushedLsn = durableLsn = segments.end();
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -126,20 +233,128 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        // drop what an append that failed left behind
+        record.reset();
+        checkLogGrowth();
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            // the new log starts after the end of the old one, so that the
+            // records thrown out keep their LSNs
+            final long start = segments.end();
+            writeCheckpointLsn(NO_CHECKPOINT_ID);
+            synchronized (fileLock) {
+                segments.clear();
+            }
+            buffer.reset(segments, start);
+            flushedLsn = start;
+            currentOffset = start;
+            lastCheckpointLsn = start;
+        }
+    }
+
+    /** Write the buffered records to the segments, without forcing them to
+        disk. Must be called before reading the log, and between records. */
+    private void flushBuffer() throws IOException {
+        buffer.flush();
+        flushedLsn = buffer.end();
+    }
+
+    /** Return the LSN of the last checkpoint record, or -1 if there is none */
+    private long readCheckpointLsn() throws IOException {
+        if (control.length() != LONG_SIZE) {
+            return NO_CHECKPOINT_ID;
         }
+        control.seek(0);
+        return control.readLong();
+    }
+
+    /** Write the LSN of the last checkpoint record to the log file, and
+        force it to disk */
+    private void writeCheckpointLsn(long lsn) throws IOException {
+        control.seek(0);
+        control.writeLong(lsn);
+        control.setLength(LONG_SIZE);
+        control.getChannel().force(false);
+    }
+
+    /** The bytes of the record being serialized, and their checksum */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        int checksum() {
+            return LogFile.checksum(buf, count);
+        }
+    }
+
+    /** Return the CRC-32 of the specified bytes of a record, with the page
+        count of a BULK_APPEND record taken as -1 */
+    private static int checksum(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        if (length >= BULK_APPEND_COUNT + INT_SIZE && ByteBuffer.wrap(bytes).getInt(0) == BULK_APPEND_RECORD) {
+            crc.update(bytes, 0, BULK_APPEND_COUNT);
+            crc.update(new byte[] {-1, -1, -1, -1});
+            crc.update(bytes, BULK_APPEND_COUNT + INT_SIZE, length - BULK_APPEND_COUNT - INT_SIZE);
+        } else {
+            crc.update(bytes, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /** Append the record serialized through out to the log, after its
+        length and checksum, and move currentOffset past it */
+    private void appendRecord() throws IOException {
+        logOut.writeInt(record.size());
+        logOut.writeInt(record.checksum());
+        record.writeTo(logOut);
+        record.reset();
+        currentOffset = buffer.end();
+    }
+
+    /** Read the next record, and return a stream of its bytes, from its
+        type to its LSN, or null at the end of the log: at zeros, or at a
+        record that is cut short or fails its checksum. */
+    private static DataInputStream readRecord(LogSegments.Reader reader) throws IOException {
+        final DataInputStream in = new DataInputStream(reader);
+        final int length;
+        final int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < MIN_RECORD_SIZE || length > reader.remaining()) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        if (checksum(bytes, length) != checksum) {
+            return null;
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /** Return the LSN the next record appended will have */
+    public synchronized long getNextLsn() {
+        return buffer.end();
+    }
+
+    /** Return the LSN up to which the log is forced to disk: every record
+        with a lower LSN is durable */
+    public long getDurableLsn() {
+        return durableLsn;
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
 
+    /** Return whether the specified transaction has log records and
+        neither committed nor aborted yet
+        @param tid The transaction
+    */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -159,12 +374,13 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                appendRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToBulkAppend.remove(tid.getId());
             }
         }
     }
@@ -174,21 +390,29 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    public void logCommit(TransactionId tid) throws IOException {
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            appendRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToBulkAppend.remove(tid.getId());
+        }
+        // wait for the force outside the lock, so that other transactions
+        // can append their commit records and join the same force
         force();
-        tidToFirstLogRecord.remove(tid.getId());
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.), and set the
+        pageLSN of the after image to the LSN of the record. If the images
+        differ in at most a quarter of the page, a DELTA record with the
+        bytes that differ is written instead.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -196,8 +420,9 @@ public class LogFile {
         @see Page#getBeforeImage
     */
     public synchronized void logWrite(TransactionId tid, Page before, Page after) throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
+        final long lsn = currentOffset;
         /* update record conists of
 
            record type
@@ -206,18 +431,28 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        final byte[] afterData = after.getPageData();
+        final PageDelta delta = PageDelta.diff(after.getId(), before.getPageData(), afterData, afterData.length / 4);
+        if (delta != null) {
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            writePageId(out, after.getId());
+            delta.write(out);
+        } else {
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out, before);
+            writePageData(out, after);
+        }
+        out.writeLong(currentOffset);
+        appendRecord();
+        after.setLsn(lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
+    void writePageData(DataOutput out, Page p) throws IOException {
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -232,57 +467,114 @@ public class LogFile {
         String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        out.writeUTF(pageClassName);
+        out.writeUTF(idClassName);
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            out.writeInt(j);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** A page image as UPDATE records hold it */
+    private static final class PageImage {
+        final String pageClassName;
+        final PageId pid;
+        final byte[] data;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        PageImage(String pageClassName, PageId pid, byte[] data) {
+            this.pageClassName = pageClassName;
+            this.pid = pid;
+            this.data = data;
+        }
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+    /** Read a page image written by writePageData, without building the page */
+    private PageImage readPageImage(DataInput in) throws IOException {
+        String pageClassName = in.readUTF();
+        PageId pid = readPageId(in);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        return new PageImage(pageClassName, pid, pageData);
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** Read a page written by writePageData, built by the codec of its id
+        class (see {@link PageCodecs}) */
+    Page readPageData(DataInput in) throws IOException {
+        PageImage image = readPageImage(in);
+        return PageCodecs.forId(image.pid).decodePage(image.pid, image.data);
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        out.writeUTF(pid.getClass().getName());
+        int[] pageInfo = pid.serialize();
+        out.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    PageId readPageId(DataInput in) throws IOException {
+        PageCodec codec = PageCodecs.forName(in.readUTF());
+        int[] fields = new int[in.readInt()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = in.readInt();
+        }
+        return codec.decodeId(fields);
+    }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+    /** Write a BULK_APPEND record for a bulk load of the specified table
+        by the specified transaction, and force the log to disk. Must be
+        written before the first page of the load is written, and followed
+        by {@link #logBulkAppendEnd} once the load has written its last page.
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+        @param tid The loading transaction
+        @param tableId The table the pages are appended to
+        @param firstPage The number of the first page the load appends
+    */
+    public synchronized void logBulkAppendStart(TransactionId tid, int tableId, int firstPage) throws IOException {
+        Debug.log("BULK APPEND " + tid.getId());
+        if (tidToBulkAppend.containsKey(tid.getId())) {
+            throw new IOException("bulk load already in progress for " + tid.getId());
         }
-        return newPage;
+        preAppend();
+        out.writeInt(BULK_APPEND_RECORD);
+        out.writeLong(tid.getId());
+        out.writeInt(tableId);
+        out.writeInt(firstPage);
+        out.writeInt(-1);
+        out.writeLong(currentOffset);
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), currentOffset);
+        tidToBulkAppend.put(tid.getId(), currentOffset);
+        appendRecord();
+        force();
+    }
+
+    /** Record the number of pages appended by the bulk load of the
+        specified transaction in its BULK_APPEND record, and force the log
+        to disk. Must be called once the pages are forced to disk, or when
+        the load fails, before any other transaction may append to the table.
 
+        @param tid The loading transaction
+        @param numPages The number of pages the load wrote
+    */
+    public synchronized void logBulkAppendEnd(TransactionId tid, int numPages) throws IOException {
+        Long recordOffset = tidToBulkAppend.remove(tid.getId());
+        if (recordOffset == null) {
+            throw new IOException("no bulk load in progress for " + tid.getId());
+        }
+        // the record may still be buffered
+        flushBuffer();
+        final ByteBuffer count = ByteBuffer.allocate(INT_SIZE);
+        count.putInt(numPages).flip();
+        segments.write(count, recordOffset + RECORD_HEADER_SIZE + BULK_APPEND_COUNT);
+        synchronized (fileLock) {
+            segments.force();
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -296,151 +588,207 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        <p>
+        Checkpoints are fuzzy: no page is flushed, and the buffer pool is
+        not locked. The record holds the transactions that are active and
+        the dirty page table of the buffer pool: every page whose logged
+        changes may not be on disk yet, with the offset of the first record
+        it may miss. Recovery starts from the oldest of these records, and
+        the log is truncated before it. Pages reach the disk through
+        eviction, commits in FORCE mode, and the
+        {@link BufferPool#startBackgroundWriter background writer}, which
+        move the start of recovery forward.
+
+        @throws IOException if the background writer of the buffer pool
+        failed, since pages then no longer reach the disk
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        Database.getBufferPool().checkBackgroundWriter();
+        checkpoint();
+    }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+    /** Write a checkpoint record and truncate the log */
+    private void checkpoint() throws IOException {
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            // pages enter the table as they are logged, under the lock of the log
+            final Map<PageId, Long> dirtyPages = Database.getBufferPool().dirtyPageTable();
+            final long startCpOffset = currentOffset;
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> entry : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + entry.getKey());
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            //write the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, Long> entry : dirtyPages.entrySet()) {
+                writePageId(out, entry.getKey());
+                out.writeLong(entry.getValue());
             }
+            out.writeLong(currentOffset);
+            appendRecord();
+            lastCheckpointLsn = startCpOffset;
+
+            //once the CP is durable, make sure the CP location in the log
+            // file is updated, before truncation deletes what the previous
+            // checkpoint needs
+            force();
+            writeCheckpointLsn(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    /** Run {@link #logCheckpoint checkpoints} on a background thread,
+        every interval, and as soon as the log grew by the specified number
+        of bytes since the last checkpoint, until {@link #stopCheckpointer}
+        or {@link #shutdown}, or until a checkpoint fails. Replaces the
+        checkpointer running, if any, and clears the failure that stopped
+        the previous one.
 
-            int numOutstanding = raf.readInt();
+        @param logBytes the growth of the log that triggers a checkpoint, or 0 for none
+    */
+    public void startCheckpointer(long interval, TimeUnit unit, long logBytes) {
+        stopCheckpointer();
+        checkpointerFailure = null;
+        final Checkpointer started = new Checkpointer(unit.toNanos(interval), logBytes);
+        synchronized (checkpointSignal) {
+            checkpointer = started;
+        }
+        started.thread.start();
+    }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+    /** Stop the background checkpointer, if one runs, and wait for the
+        checkpoint it is taking, if any */
+    public void stopCheckpointer() {
+        final Checkpointer stopped;
+        synchronized (checkpointSignal) {
+            stopped = checkpointer;
+            checkpointer = null;
+            checkpointSignal.notifyAll();
+        }
+        if (stopped == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (stopped.thread.isAlive()) {
+            try {
+                stopped.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+    /** Return the failure that stopped the background checkpointer, or null
+        if it did not fail since it was started */
+    public IOException getCheckpointerFailure() {
+        return checkpointerFailure;
+    }
 
-                Debug.log("NEW START = " + newStart);
+    /** Return the number of checkpoints the background checkpointer took */
+    public long getBackgroundCheckpoints() {
+        synchronized (checkpointSignal) {
+            return backgroundCheckpoints;
+        }
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    /** Wake the background checkpointer if the log grew enough since the
+        last checkpoint; called under the lock of the log, before appending */
+    private void checkLogGrowth() {
+        final Checkpointer running = checkpointer;
+        if (running != null && running.logBytes > 0 && !running.requested
+                && currentOffset - lastCheckpointLsn >= running.logBytes) {
+            synchronized (checkpointSignal) {
+                running.requested = true;
+                checkpointSignal.notifyAll();
+            }
+        }
+    }
 
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
+    /** Takes checkpoints on its thread until it is no longer the checkpointer
+        or a checkpoint fails */
+    private final class Checkpointer implements Runnable {
+        final Thread thread = new Thread(this, "log-checkpointer");
+        final long intervalNanos;
+        final long logBytes;
+        /** Whether the log grew enough for a checkpoint, protected by checkpointSignal */
+        volatile boolean requested;
+
+        Checkpointer(long intervalNanos, long logBytes) {
+            this.intervalNanos = intervalNanos;
+            this.logBytes = logBytes;
+            thread.setDaemon(true);
+        }
 
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (checkpointSignal) {
+                    final long deadline = System.nanoTime() + intervalNanos;
+                    long left = intervalNanos;
+                    while (checkpointer == this && !requested && left > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(checkpointSignal, left);
+                        } catch (InterruptedException e) {
+                            return;
                         }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
+                        left = deadline - System.nanoTime();
+                    }
+                    if (checkpointer != this) {
+                        return;
+                    }
+                    requested = false;
+                }
+                try {
+                    logCheckpoint();
+                    synchronized (checkpointSignal) {
+                        backgroundCheckpoints++;
+                    }
+                } catch (IOException e) {
+                    checkpointerFailure = e;
+                    synchronized (checkpointSignal) {
+                        if (checkpointer == this) {
+                            checkpointer = null;
+                        }
+                    }
+                    return;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: "
-                  + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption: delete the segments that end before the first record
+        recovery reads. Records keep their LSNs, so nothing is copied. */
+    public synchronized void logTruncate() throws IOException {
+        preAppend();
+        flushBuffer();
+        final long minLogRecord = firstRecordToRecover();
+        synchronized (fileLock) {
+            final int deleted = segments.truncate(minLogRecord);
+            Debug.log("TRUNCATING LOG; DELETED " + deleted + " SEGMENTS BEFORE " + minLogRecord);
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -457,12 +805,17 @@ public class LogFile {
                 preAppend();
                 // some code goes here
                 final Long firstRecordPos = this.tidToFirstLogRecord.get(tid.getId());
-                this.raf.seek(firstRecordPos);
-                final HashSet<PageId> set = new HashSet<>();
+                flushBuffer();
+                final LogSegments.Reader reader = segments.reader(firstRecordPos);
+                final List<PageChanges.Step> undo = new ArrayList<>();
                 while (!Thread.currentThread().isInterrupted()) {
                     try {
-                        final int type = raf.readInt();
-                        final long transactionId = raf.readLong();
+                        final DataInputStream in = readRecord(reader);
+                        if (in == null) {
+                            break;
+                        }
+                        final int type = in.readInt();
+                        final long transactionId = in.readLong();
                         switch (type) {
                             /* update record conists of
                                record type
@@ -471,242 +824,390 @@ public class LogFile {
                                after page data
                                start offset
                             */
-                            case UPDATE_RECORD: {
-                                final Page beforePage = readPageData(this.raf);
-                                // ignore the after page
-                                readPageData(this.raf);
-                                final PageId pageId = beforePage.getId();
-                                if (transactionId == tid.getId() && set.add(pageId)) {
-                                    // Discard, rewrite page
-                                    Database.getBufferPool().discardPage(beforePage.getId());
-                                    Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(beforePage);
-                                }
+                            case UPDATE_RECORD:
+                            case DELTA_RECORD:
+                            case BULK_APPEND_RECORD: {
+                                readChanges(in, type, null, transactionId == tid.getId() ? undo : new ArrayList<>());
                                 break;
                             }
                             case CHECKPOINT_RECORD: {
-                                skipCheckPointRecord();
+                                skipCheckPointRecord(in);
                                 break;
                             }
                             default:
                                 break;
                         }
-                        raf.readLong();
+                        in.readLong();
                     } catch (final EOFException e) {
                         break;
                     }
                 }
+                final PageChanges changes = new PageChanges();
+                changes.addReversed(undo);
+                // a transaction changes few pages, not worth more threads
+                changes.apply();
             }
         }
     }
 
-    private void skipCheckPointRecord() throws IOException {
-        final int txnCnt = this.raf.readInt();
-        final int skip = txnCnt * 2 * 8;
-        this.raf.skipBytes(skip);
+    /** Read the rest of an UPDATE, DELTA or BULK_APPEND record, up to its
+        start offset, add how to redo its changes to redo, unless it is null,
+        and add how to undo them to undo. Loads are forced before they end,
+        so BULK_APPEND records are never redone.
+    */
+    private void readChanges(DataInput in, int type, PageChanges redo, List<PageChanges.Step> undo)
+            throws IOException {
+        switch (type) {
+            case UPDATE_RECORD: {
+                final PageImage before = readPageImage(in);
+                final PageImage after = readPageImage(in);
+                if (redo != null) {
+                    redo.add(new PageChanges.Step(after.pid, PageChanges.image(after.data)));
+                }
+                undo.add(new PageChanges.Step(before.pid, PageChanges.image(before.data)));
+                break;
+            }
+            case DELTA_RECORD: {
+                final PageDelta delta = PageDelta.read(readPageId(in), in);
+                if (redo != null) {
+                    redo.add(new PageChanges.Step(delta.getId(), PageChanges.delta(delta, true)));
+                }
+                undo.add(new PageChanges.Step(delta.getId(), PageChanges.delta(delta, false)));
+                break;
+            }
+            case BULK_APPEND_RECORD: {
+                // undone by overwriting the appended pages with empty ones; a
+                // load that never ended appended every page from the first on
+                final int tableId = in.readInt();
+                final int firstPage = in.readInt();
+                final int numPages = in.readInt();
+                final int endPage = numPages < 0
+                        ? ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).numPages() : firstPage + numPages;
+                for (int pageNo = firstPage; pageNo < endPage; pageNo++) {
+                    undo.add(new PageChanges.Step(new HeapPageId(tableId, pageNo),
+                            PageChanges.image(HeapPage.createEmptyPageData())));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("no changes in log records of type " + type);
+        }
+    }
+
+    private void skipCheckPointRecord(DataInput in) throws IOException {
+        final int txnCnt = in.readInt();
+        for (int i = 0; i < txnCnt * 2; i++) {
+            in.readLong();
+        }
+        final int dirtyPages = in.readInt();
+        for (int i = 0; i < dirtyPages; i++) {
+            readPageId(in);
+            in.readLong();
+        }
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
+        stopCheckpointer();
+        synchronized (this) {
+            if (recoveryExecutor != null) {
+                recoveryExecutor.shutdown();
+                recoveryExecutor = null;
+            }
+        }
         try {
-            logCheckpoint(); //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            // flush the pool, so that recovery starts at the checkpoint
+            synchronized (Database.getBufferPool()) {
+                Database.getBufferPool().flushAllPages();
+            }
+            // the pool is flushed, so even after the background writer failed
+            checkpoint(); //simple way to shutdown is to write a checkpoint record
+            synchronized (this) {
+                flushBuffer();
+                synchronized (fileLock) {
+                    segments.close();
+                    control.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
         }
     }
 
-    private void seekFirstPosition(long checkPoint) throws IOException {
-        this.raf.seek(checkPoint);
-        int type = this.raf.readInt();
-        if (type != CHECKPOINT_RECORD) {
+    /** Return the LSN of the first record recovery reads: the oldest of the
+        last checkpoint record, the first records of the transactions active
+        at it and the records its dirty pages may miss, or the start of the
+        log if there is no checkpoint */
+    private long firstRecordToRecover() throws IOException {
+        final long checkPoint = readCheckpointLsn();
+        if (checkPoint == NO_CHECKPOINT_ID) {
+            return segments.start();
+        }
+        final DataInputStream in = readRecord(segments.reader(checkPoint));
+        if (in == null || in.readInt() != CHECKPOINT_RECORD) {
             throw new InvalidPropertiesFormatException("not checkpoint record sign");
         }
-        long magicNumber = this.raf.readLong();
+        long magicNumber = in.readLong();
         assert magicNumber == -1;
-        int keySize = this.raf.readInt();
-        long veryFirst = Long.MAX_VALUE;
+        int keySize = in.readInt();
+        long veryFirst = checkPoint;
         for (int i = 0; i < keySize; i++) {
-            long transactionId = this.raf.readLong();
-            long firstRecord = this.raf.readLong();
+            long transactionId = in.readLong();
+            long firstRecord = in.readLong();
             veryFirst = Math.min(veryFirst, firstRecord);
         }
-        veryFirst = Math.min(veryFirst, checkPoint);
-        this.raf.seek(veryFirst);
+        int dirtyPages = in.readInt();
+        for (int i = 0; i < dirtyPages; i++) {
+            readPageId(in);
+            long recoveryRecord = in.readLong();
+            veryFirst = Math.min(veryFirst, recoveryRecord);
+        }
+        return veryFirst;
     }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery repeats history: a redo pass installs the after image of
+        every UPDATE record, and the after bytes of every DELTA record, from
+        the start of the oldest transaction active at the last checkpoint on,
+        in log order, whether its transaction committed or not, and repeats
+        the rollback of every aborted transaction at its ABORT record. An
+        undo pass then rolls back the transactions that neither committed
+        nor aborted, by undoing their records from the last one back. Since
+        pages are locked until the end of the transaction that wrote them,
+        no other transaction wrote those pages after them. This makes
+        recovery correct whether dirty pages are forced at commit or stolen
+        before it.
+        <p>
+        The log is read once, and both passes are planned from it as the
+        changes to make to each page, in order (see {@link PageChanges}),
+        which are then made to the pages on up to the
+        {@link #setRecoveryThreads recovery threads}, each page read at most
+        once and written once.
+        <p>
+        The log ends at the last whole record: the rest of its segment, such
+        as a record the crash tore, is zeroed, and later segments are
+        deleted, before records are appended after it.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                flushBuffer();
 
-                this.raf.seek(0);
-                final long cp = raf.readLong();
-                if (cp > 0) {
-                    seekFirstPosition(cp);
-                }
-                long currentTransactionId = -1;
-                final HashMap<Long, List<Page>> beforePages = new HashMap<>();
-                final HashMap<Long, List<Page>> afterPages = new HashMap<>();
+                final LogSegments.Reader reader = segments.reader(firstRecordToRecover());
+                long end = reader.position();
+                final PageChanges changes = new PageChanges();
+                // the changes to undo, per unfinished transaction
+                final Map<Long, List<PageChanges.Step>> undo = new HashMap<>();
                 while (true) {
                     try {
-                        final int type = this.raf.readInt();
-                        final long tid = this.raf.readLong();
-                        if (currentTransactionId != tid) {
-                            undo(beforePages.remove(tid), afterPages.remove(tid));
+                        final DataInputStream in = readRecord(reader);
+                        if (in == null) {
+                            break;
                         }
-                        currentTransactionId = tid;
+                        final int type = in.readInt();
+                        final long tid = in.readLong();
                         switch (type) {
-                            case UPDATE_RECORD: {
-                                final Page beforePage = readPageData(raf);
-                                final Page afterPage = readPageData(raf);
-                                beforePages.putIfAbsent(tid, new ArrayList<>());
-                                final List<Page> beforeList = beforePages.get(tid);
-                                beforeList.add(beforePage);
-
-                                afterPages.putIfAbsent(tid, new ArrayList<>());
-                                final List<Page> afterList = afterPages.get(tid);
-                                afterList.add(afterPage);
+                            case UPDATE_RECORD:
+                            case DELTA_RECORD:
+                            case BULK_APPEND_RECORD: {
+                                readChanges(in, type, changes, undo.computeIfAbsent(tid, k -> new ArrayList<>()));
                                 break;
                             }
                             case COMMIT_RECORD: {
-//                                commitIds.add(tid);
-                                System.out.println("commit: " + tid);
-                                redo(beforePages.remove(tid), afterPages.remove(tid));
+                                undo.remove(tid);
                                 break;
                             }
-                            case CHECKPOINT_RECORD: {
-                                skipCheckPointRecord();
+                            case ABORT_RECORD: {
+                                final List<PageChanges.Step> aborted = undo.remove(tid);
+                                if (aborted != null) {
+                                    changes.addReversed(aborted);
+                                }
                                 break;
                             }
-                            case ABORT_RECORD: {
-                                System.out.println("abort: " + tid);
-                                undo(beforePages.remove(tid), afterPages.remove(tid));
+                            case CHECKPOINT_RECORD: {
+                                skipCheckPointRecord(in);
                                 break;
                             }
+                            default:
+                                break;
                         }
-                        raf.readLong();
+                        in.readLong();
+                        end = reader.position();
                     } catch (final EOFException e) {
                         break;
                     }
                 }
-                // Roll back unCommitted txn
-//                beforePages.forEach((tid, pages) -> {
-//                    if (!commitIds.contains(tid)) {
-//                        System.out.println("missing tid: " + tid);
-//                        for (final Page page : pages) {
-//                            try {
-//                                Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-//                            } catch (IOException e) {
-//                                e.printStackTrace();
-//                            }
-//                        }
-//                    }
-//                });
-                // Write commit pages
-//                for (final Long commitId : commitIds) {
-//                    if (afterPages.containsKey(commitId)) {
-//                        final List<Page> pages = afterPages.get(commitId);
-//                        for (final Page page : pages) {
-//                            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-//                        }
-//                    }
-//                }
+                synchronized (fileLock) {
+                    segments.zeroFrom(end);
+                }
+                buffer.reset(segments, end);
+                flushedLsn = end;
+                synchronized (groupCommit) {
+                    durableLsn = end;
+                }
+                lastCheckpointLsn = end;
+                // roll back the transactions the crash interrupted, and log
+                // their abort, so that a later recovery does not roll them
+                // back again over the changes of later transactions
+                for (List<PageChanges.Step> loser : undo.values()) {
+                    changes.addReversed(loser);
+                }
+                changes.apply(recoveryExecutor(), recoveryThreads);
+                currentOffset = end;
+                for (Long tid : undo.keySet()) {
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    appendRecord();
+                }
+                force();
             }
         }
     }
 
-    private void redo(List<Page> beforePages, List<Page> afterPages) throws IOException {
-        if (afterPages == null) {
-            return;
+    /** Set the number of threads recovery makes the changes to pages on;
+        by default, the number of processors. Rollbacks make them on the
+        thread of the aborting transaction. */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("recovery needs at least one thread");
         }
-        for (Page page : afterPages) {
-            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+        synchronized (this) {
+            this.recoveryThreads = threads;
+            if (recoveryExecutor != null) {
+                // the next recovery starts one of the new size
+                recoveryExecutor.shutdown();
+                recoveryExecutor = null;
+            }
         }
     }
 
-    private void undo(List<Page> beforePages, List<Page> afterPages) throws IOException {
-        if (beforePages == null) {
-            return;
-        }
-        for (Page page : beforePages) {
-            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+    /** Return the executor recovery makes the changes to pages with */
+    private synchronized ExecutorService recoveryExecutor() {
+        if (recoveryExecutor == null) {
+            recoveryExecutor = new ThreadPoolExecutor(recoveryThreads, recoveryThreads, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), task -> {
+                        final Thread thread = new Thread(task, "log-recovery");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            recoveryExecutor.allowCoreThreadTimeOut(true);
         }
+        return recoveryExecutor;
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        final LogSegments.Reader reader;
+        synchronized (this) {
+            flushBuffer();
+            System.out.println("checkpoint record at LSN " + readCheckpointLsn());
+            reader = segments.reader(firstRecordToRecover());
+        }
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                final long recordLsn = reader.position();
+                final DataInputStream in = readRecord(reader);
+                if (in == null) {
+                    break;
+                }
+                System.out.println(recordLsn + ": RECORD LENGTH AND CHECKSUM");
+                // the LSN of a byte of the record is its end less what is left to read
+                final long end = reader.position();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println(((end - in.available()) - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println(((end - in.available()) - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                     case BEGIN_RECORD:
                         System.out.println(" (BEGIN)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case ABORT_RECORD:
                         System.out.println(" (ABORT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case COMMIT_RECORD:
                         System.out.println(" (COMMIT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
                         break;
 
                     case CHECKPOINT_RECORD:
                         System.out.println(" (CHECKPOINT)");
-                        int numTransactions = raf.readInt();
-                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: "
+                        int numTransactions = in.readInt();
+                        System.out.println(((end - in.available()) - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: "
                                            + numTransactions);
 
                         while (numTransactions-- > 0) {
-                            long tid = raf.readLong();
-                            long firstRecord = raf.readLong();
-                            System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: "
+                            long tid = in.readLong();
+                            long firstRecord = in.readLong();
+                            System.out.println(((end - in.available()) - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                            System.out.println(((end - in.available()) - LONG_SIZE) + ": FIRST LOG RECORD: "
                                                + firstRecord);
                         }
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        int numDirtyPages = in.readInt();
+                        System.out.println(((end - in.available()) - INT_SIZE) + ": NUMBER OF DIRTY PAGES: "
+                                           + numDirtyPages);
+                        while (numDirtyPages-- > 0) {
+                            long pageStart = (end - in.available());
+                            PageId pid = readPageId(in);
+                            System.out.println(pageStart + ": DIRTY PAGE: table id " + pid.getTableId()
+                                               + ", page number " + pid.getPageNumber()
+                                               + ", recovery record " + in.readLong());
+                        }
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
 
+                        break;
+                    case BULK_APPEND_RECORD:
+                        System.out.println(" (BULK APPEND)");
+                        System.out.println((end - in.available()) + ": TABLE ID: " + in.readInt());
+                        System.out.println((end - in.available()) + ": FIRST PAGE: " + in.readInt());
+                        System.out.println((end - in.available()) + ": NUMBER OF PAGES: " + in.readInt());
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case UPDATE_RECORD:
                         System.out.println(" (UPDATE)");
 
-                        long start = raf.getFilePointer();
-                        Page before = readPageData(raf);
+                        long start = (end - in.available());
+                        PageImage before = readPageImage(in);
 
-                        long middle = raf.getFilePointer();
-                        Page after = readPageData(raf);
+                        long middle = (end - in.available());
+                        PageImage after = readPageImage(in);
 
-                        System.out.println(start + ": before image table id " + before.getId().getTableId());
+                        System.out.println(start + ": before image table id " + before.pid.getTableId());
                         System.out.println((start + INT_SIZE) + ": before image page number "
-                                           + before.getId().getPageNumber());
+                                           + before.pid.getPageNumber());
                         System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
 
-                        System.out.println(middle + ": after image table id " + after.getId().getTableId());
+                        System.out.println(middle + ": after image table id " + after.pid.getTableId());
                         System.out.println((middle + INT_SIZE) + ": after image page number "
-                                           + after.getId().getPageNumber());
-                        System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                                           + after.pid.getPageNumber());
+                        System.out.println((middle + INT_SIZE) + " TO " + ((end - in.available())) + ": page data");
 
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    case DELTA_RECORD:
+                        System.out.println(" (DELTA)");
+
+                        long deltaStart = (end - in.available());
+                        PageDelta delta = PageDelta.read(readPageId(in), in);
+                        System.out.println(deltaStart + ": table id " + delta.getId().getTableId()
+                                           + ", page number " + delta.getId().getPageNumber());
+                        System.out.println(deltaStart + " TO " + (end - in.available()) + ": " + delta.size()
+                                           + " changed bytes");
+                        System.out.println((end - in.available()) + ": RECORD START OFFSET: " + in.readLong());
 
                         break;
                 }
@@ -716,13 +1217,123 @@ public class LogFile {
                 break;
             }
         }
+    }
+
+    /** Force the log to disk: return once every record written before the
+        call is durable.
+        <p>
+        Forces are grouped: each caller writes the buffered records to the
+        file, and waits for the durable LSN to pass them. The first caller to
+        wait while no force is running becomes the leader of a group, waits
+        up to the {@link #setMaxGroupDelay max group delay} for others to
+        join, and forces the file once for everyone in the group. Callers
+        waiting while a force is running form the next group. Callers should
+        not hold the lock of the log while they wait, or they keep the other
+        members of the group from appending their records.
+    */
+    public void force() throws IOException {
+        final long end;
+        synchronized (this) {
+            flushBuffer();
+            end = flushedLsn;
+        }
+        awaitDurable(end);
+    }
+
+    /** Force the log to disk up to the record with the specified LSN, such
+        as the pageLSN of a page about to be written; return at once, without
+        any I/O, if that record is durable already.
+        @param lsn The LSN of a record
+    */
+    public void force(long lsn) throws IOException {
+        if (lsn < durableLsn) {
+            return;
+        }
+        final long end;
+        synchronized (this) {
+            if (lsn >= flushedLsn) {
+                flushBuffer();
+            }
+            end = Math.min(lsn + 1, flushedLsn);
+        }
+        awaitDurable(end);
+    }
+
+    /** Wait until the log is durable up to the specified LSN, forcing it
+        for the group of waiters if no other thread does */
+    private void awaitDurable(long lsn) throws IOException {
+        boolean interrupted = false;
+        synchronized (groupCommit) {
+            while (forcing) {
+                waitFor(groupCommit);
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            forcing = true;
+            final long deadline = System.nanoTime() + maxGroupDelayNanos;
+            for (long left = maxGroupDelayNanos; left > 0; left = deadline - System.nanoTime()) {
+                try {
+                    groupCommit.wait(left / 1000000, (int) (left % 1000000));
+                } catch (InterruptedException e) {
+                    // the group is waiting for its leader: force now, and
+                    // restore the interrupt after, since it would close the
+                    // channel of the log
+                    interrupted = true;
+                    break;
+                }
+            }
+        }
+        // the members of the group wrote their records to the file before waiting
+        final long end = flushedLsn;
+        IOException failure = null;
+        try {
+            synchronized (fileLock) {
+                segments.force();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        synchronized (groupCommit) {
+            if (failure == null) {
+                durableLsn = Math.max(durableLsn, end);
+                forces++;
+            }
+            forcing = false;
+            groupCommit.notifyAll();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            // the other members of the group retry, as leaders of their own
+            throw failure;
+        }
+    }
 
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
+    private static void waitFor(Object monitor) throws InterruptedIOException {
+        try {
+            monitor.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the log force");
+        }
+    }
+
+    /** Set how long the first transaction to force the log waits for others
+        to join its force, 0 by default. Longer delays make fewer, larger
+        forces when many transactions commit at once, at the cost of commit
+        latency.
+    */
+    public void setMaxGroupDelay(long delay, TimeUnit unit) {
+        this.maxGroupDelayNanos = unit.toNanos(delay);
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Return the number of times the log was forced to disk */
+    public long getForces() {
+        synchronized (groupCommit) {
+            return forces;
+        }
     }
 
 }
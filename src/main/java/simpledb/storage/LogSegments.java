@@ -0,0 +1,367 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The bytes of a {@link LogFile}, addressed by LSN, in segment files of a
+ * fixed size in a directory, each named by the LSN of its first byte in
+ * hexadecimal. Records may span segments: the segments of a log are
+ * contiguous, the byte with LSN n being at offset n - start in the segment
+ * with the greatest start not above n.
+ * <p>
+ * Segments are preallocated: a segment is created full size and zeroed
+ * when it is first written to, and the one after it once writes reach the
+ * second half of the segment, so that appends do not extend a file and
+ * forcing the log does not need to update the size of a file. Since no record is empty, a zero where the length of a record is
+ * expected marks the end of the log. Truncation deletes the segments that end at or
+ * before an LSN, instead of copying what follows it.
+ * <p>
+ * Thread safe: writes and truncations are serialized, and forces only sync
+ * segments written before they started.
+ */
+class LogSegments implements Closeable {
+
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int ZEROS = 64 * 1024;
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    /** By start LSN; protected by this */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /** The segments written since they were last forced; protected by this */
+    private final Set<Segment> unforced = new LinkedHashSet<>();
+
+    private boolean closed;
+
+    private static final class Segment {
+        private final long start;
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private Segment(long start, File file, FileChannel channel, long size) {
+            this.start = start;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        private long end() {
+            return start + size;
+        }
+    }
+
+    /**
+     * Opens the segments in the specified directory, creating it if needed.
+     *
+     * @param segmentSize the size of the segments created from now on
+     */
+    LogSegments(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create log directory " + dir);
+        }
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long start;
+            try {
+                start = Long.parseUnsignedLong(file.getName(), 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(start, new Segment(start, file, channel, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the LSN of the first byte kept, or of the end if there is none.
+     */
+    synchronized long start() {
+        return segments.isEmpty() ? 0 : segments.firstKey();
+    }
+
+    /**
+     * Returns the LSN after the last byte of the last segment, written or
+     * preallocated, which no record of the log reaches.
+     */
+    synchronized long end() {
+        return segments.isEmpty() ? 0 : segments.lastEntry().getValue().end();
+    }
+
+    /**
+     * Returns the number of segment files.
+     */
+    synchronized int size() {
+        return segments.size();
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer from the specified LSN on,
+     * across as many segments as they span, creating segments as needed.
+     * Writes at or after the end must follow the last write, or start a new
+     * log after {@link #clear}.
+     */
+    synchronized void write(ByteBuffer src, long lsn) throws IOException {
+        ensureOpen();
+        while (src.hasRemaining()) {
+            Segment segment = segmentFor(lsn);
+            int n = (int) Math.min(src.remaining(), segment.end() - lsn);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            while (part.hasRemaining()) {
+                segment.channel.write(part, lsn - segment.start + (n - part.remaining()));
+            }
+            src.position(src.position() + n);
+            lsn += n;
+            unforced.add(segment);
+        }
+    }
+
+    /**
+     * Returns the segment the byte with the specified LSN is in, creating it
+     * if it is at or after the end, and creating the one after it if the
+     * byte is in the second half of the segment.
+     */
+    private Segment segmentFor(long lsn) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(lsn);
+        Segment segment;
+        if (entry != null && lsn < entry.getValue().end()) {
+            segment = entry.getValue();
+        } else {
+            long start = segments.isEmpty() ? lsn : end();
+            if (lsn < start) {
+                throw new IOException("LSN " + lsn + " was truncated away");
+            }
+            segment = create(start);
+            while (lsn >= segment.end()) {
+                segment = create(segment.end());
+            }
+        }
+        if (lsn - segment.start >= segment.size / 2) {
+            create(segment.end());
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the segment starting at the specified LSN, creating it zeroed
+     * if it does not exist.
+     */
+    private Segment create(long start) throws IOException {
+        Segment segment = segments.get(start);
+        if (segment != null) {
+            return segment;
+        }
+        File file = new File(dir, String.format("%016x", start));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer zeros = ByteBuffer.allocate(Math.min(ZEROS, segmentSize));
+        for (long position = 0; position < segmentSize; ) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), segmentSize - position));
+            position += channel.write(zeros, position);
+        }
+        segment = new Segment(start, file, channel, segmentSize);
+        segments.put(start, segment);
+        unforced.add(segment);
+        return segment;
+    }
+
+    /**
+     * Forces the segments written before the call to disk.
+     */
+    void force() throws IOException {
+        List<Segment> forced;
+        synchronized (this) {
+            ensureOpen();
+            forced = new ArrayList<>(unforced);
+            unforced.clear();
+        }
+        for (int i = 0; i < forced.size(); i++) {
+            try {
+                forced.get(i).channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    unforced.addAll(forced.subList(i, forced.size()));
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments that end at or before the specified LSN, and
+     * returns how many.
+     */
+    synchronized int truncate(long lsn) throws IOException {
+        int deleted = 0;
+        while (!segments.isEmpty() && segments.firstEntry().getValue().end() <= lsn) {
+            delete(segments.pollFirstEntry().getValue());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes every segment, so that a new log can start at or after the end.
+     */
+    synchronized void clear() throws IOException {
+        while (!segments.isEmpty()) {
+            delete(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Zeroes the log from the specified LSN on, where recovery found its
+     * end, so that the remains of a record torn by a crash are not taken
+     * for records after the ones appended there.
+     */
+    synchronized void zeroFrom(long lsn) throws IOException {
+        ensureOpen();
+        Map.Entry<Long, Segment> entry = segments.floorEntry(lsn);
+        if (entry != null && lsn < entry.getValue().end()) {
+            Segment segment = entry.getValue();
+            ByteBuffer zeros = ByteBuffer.allocate(ZEROS);
+            for (long position = lsn - segment.start; position < segment.size; ) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), segment.size - position));
+                position += segment.channel.write(zeros, position);
+            }
+            unforced.add(segment);
+        }
+        while (!segments.isEmpty() && segments.lastKey() > lsn) {
+            delete(segments.pollLastEntry().getValue());
+        }
+    }
+
+    private void delete(Segment segment) throws IOException {
+        unforced.remove(segment);
+        segment.channel.close();
+        if (!segment.file.delete()) {
+            throw new IOException("cannot delete log segment " + segment.file);
+        }
+    }
+
+    /**
+     * Returns a stream of the log from the specified LSN on, which ends at
+     * the end of the last segment.
+     */
+    Reader reader(long lsn) {
+        return new Reader(lsn);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("log is closed");
+        }
+    }
+
+    /**
+     * Reads the log sequentially through a buffer, and knows the LSN of the
+     * next byte it returns.
+     */
+    final class Reader extends InputStream {
+        private final ByteBuffer buffer = ByteBuffer.allocate(LogBuffer.DEFAULT_CAPACITY);
+
+        /** The LSN of the first byte after the buffer */
+        private long next;
+
+        private Reader(long lsn) {
+            this.next = lsn;
+            buffer.limit(0);
+        }
+
+        /**
+         * Returns the LSN of the next byte read.
+         */
+        long position() {
+            return next - buffer.remaining();
+        }
+
+        /**
+         * Returns the number of bytes left to read before the end of the
+         * last segment.
+         */
+        long remaining() {
+            return end() - position();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        /**
+         * Reads the bytes after the buffer into it.
+         *
+         * @return false at the end of the last segment
+         */
+        private boolean fill() throws IOException {
+            synchronized (LogSegments.this) {
+                ensureOpen();
+                Map.Entry<Long, Segment> entry = segments.floorEntry(next);
+                if (entry == null || next >= entry.getValue().end()) {
+                    if (entry == null && !segments.isEmpty() && next < segments.firstKey()) {
+                        throw new IOException("LSN " + next + " was truncated away");
+                    }
+                    return false;
+                }
+                Segment segment = entry.getValue();
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), segment.end() - next));
+                int n = segment.channel.read(buffer, next - segment.start);
+                buffer.flip();
+                if (n <= 0) {
+                    return false;
+                }
+                next += n;
+                return true;
+            }
+        }
+    }
+}
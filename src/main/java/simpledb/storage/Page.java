@@ -35,6 +35,21 @@ public interface Page {
      */
     void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * Return the pageLSN of this page: the LSN of the last UPDATE record
+     * logged for it, or 0 if none was logged since it was read. The page
+     * may only be written to disk once the log is durable up to this LSN.
+     * Kept in memory only, not in the page data.
+     *
+     * @see LogFile#force(long)
+     */
+    long getLsn();
+
+    /**
+     * Set the pageLSN of this page, once an UPDATE record is logged for it.
+     */
+    void setLsn(long lsn);
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -42,6 +57,10 @@ public interface Page {
      * The invariant here is that it should be possible to pass the byte array
      * generated by getPageData to the Page constructor and have it produce
      * an identical Page object.
+     * <p>
+     * Pages that keep their contents in on-disk form may return their backing
+     * array instead of a copy: callers must not modify it, and must not hold
+     * on to it across later modifications of the page.
      *
      * @return A byte array correspond to the bytes of this page.
      */
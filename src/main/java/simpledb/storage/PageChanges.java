@@ -0,0 +1,199 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The changes recovery or a rollback makes to pages, collected from the log
+ * in the order they are to be made, and then made page by page: the changes
+ * to a page are applied to its bytes in memory, reading the page from its
+ * file only if the first change needs its previous bytes, and the page is
+ * written once, with the last bytes. Changes to different pages are
+ * independent, so the pages are split among worker threads, each making the
+ * changes of its pages in order.
+ * <p>
+ * Pages are told apart by their {@link PageCodec#location location}, so that
+ * changes logged for a page under different ids are made in log order.
+ */
+class PageChanges {
+
+    /** The fewest pages worth a thread of their own */
+    private static final int MIN_PAGES_PER_THREAD = 16;
+
+    /** One change to the bytes of a page */
+    interface Change {
+        /**
+         * Returns the bytes of the page after this change, given the bytes
+         * before it, or null if the page was not read yet. May modify and
+         * return the given bytes.
+         */
+        byte[] apply(PageId id, byte[] data);
+    }
+
+    /** A change to the page with an id */
+    static final class Step {
+        final PageId id;
+
+        final Change change;
+
+        Step(PageId id, Change change) {
+            this.id = id;
+            this.change = change;
+        }
+    }
+
+    /** Replaces the bytes of the page with an image, which is not copied */
+    static Change image(byte[] image) {
+        return (id, data) -> image;
+    }
+
+    /** Writes the after bytes of a delta into the page, or the before bytes */
+    static Change delta(PageDelta delta, boolean redo) {
+        return (id, data) -> {
+            if (data == null) {
+                data = read(id);
+            }
+            if (redo) {
+                delta.redo(data);
+            } else {
+                delta.undo(data);
+            }
+            return data;
+        };
+    }
+
+    private static byte[] read(PageId id) {
+        return Database.getCatalog().getDatabaseFile(id.getTableId()).readPage(id).getPageData().clone();
+    }
+
+    /** The changes to one page, in order, and the id of the last one */
+    private static final class Location {
+        private PageId id;
+
+        private final List<Step> steps = new ArrayList<>();
+    }
+
+    private final Map<Object, Location> locations = new LinkedHashMap<>();
+
+    /**
+     * Adds a change after the changes added so far.
+     */
+    void add(Step step) throws IOException {
+        Object key = PageCodecs.forId(step.id).location(step.id);
+        Location location = locations.computeIfAbsent(key, k -> new Location());
+        location.id = step.id;
+        location.steps.add(step);
+    }
+
+    /**
+     * Adds changes from the last one back, to undo changes in the order
+     * they were logged.
+     */
+    void addReversed(List<Step> steps) throws IOException {
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            add(steps.get(i));
+        }
+    }
+
+    /**
+     * Makes the changes on the calling thread, and returns once every
+     * changed page is written.
+     *
+     * @see #apply(ExecutorService, int)
+     */
+    void apply() throws IOException {
+        apply(null, 1);
+    }
+
+    /**
+     * Makes the changes in up to the specified number of tasks of the
+     * executor, and returns once every changed page is written. The caller
+     * holds the lock of the buffer pool: the changed pages are discarded
+     * from it first, and the workers do not use it.
+     *
+     * @param executor the executor of the tasks, or null to make the
+     *                 changes on the calling thread
+     */
+    void apply(ExecutorService executor, int threads) throws IOException {
+        for (Location location : locations.values()) {
+            for (Step step : location.steps) {
+                Database.getBufferPool().discardPage(step.id);
+            }
+        }
+        int n = executor == null ? 1 : Math.max(1, Math.min(threads, locations.size() / MIN_PAGES_PER_THREAD));
+        List<List<Location>> partitions = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        int i = 0;
+        for (Location location : locations.values()) {
+            partitions.get(i++ % n).add(location);
+        }
+        if (n == 1) {
+            apply(partitions.get(0));
+            return;
+        }
+        List<Future<Void>> results = new ArrayList<>();
+        try {
+            for (List<Location> partition : partitions) {
+                results.add(executor.submit((Callable<Void>) () -> {
+                    apply(partition);
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while applying log records");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // not interrupted, which would close the file channels they write to
+            for (Future<Void> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Makes the changes to the specified pages, and writes the pages in one
+     * batch per file.
+     */
+    private static void apply(List<Location> partition) throws IOException {
+        Map<Integer, List<Page>> pages = new HashMap<>();
+        for (Location location : partition) {
+            byte[] data = null;
+            for (Step step : location.steps) {
+                data = step.change.apply(step.id, data);
+            }
+            Page page = PageCodecs.forId(location.id).decodePage(location.id, data);
+            pages.computeIfAbsent(location.id.getTableId(), t -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> entry : pages.entrySet()) {
+            Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+/**
+ * Decodes the page ids of one type, and the pages they identify, from the
+ * form in which log records hold them: the integers of
+ * {@link PageId#serialize} and the bytes of {@link Page#getPageData}.
+ * Recovery looks codecs up in {@link PageCodecs} by the name of the id class
+ * the record holds, instead of reflecting on the class.
+ */
+public interface PageCodec {
+
+    /**
+     * Returns the page id whose {@link PageId#serialize} returned the
+     * specified integers.
+     */
+    PageId decodeId(int[] fields);
+
+    /**
+     * Returns the page with the specified id and on-disk bytes. By default,
+     * the file of the page builds it.
+     *
+     * @see DbFile#createPage
+     */
+    default Page decodePage(PageId id, byte[] data) {
+        return Database.getCatalog().getDatabaseFile(id.getTableId()).createPage(id, data);
+    }
+
+    /**
+     * Returns the key of the place on disk the page with the specified id
+     * is stored in. Ids that differ in what they say about the page only,
+     * such as the category of a B+ tree page, which changes when the page
+     * is freed and reused, must have equal keys, so that recovery applies
+     * the changes to the place in the order they were logged. By default,
+     * the id itself.
+     */
+    default Object location(PageId id) {
+        return id;
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.storage;
+
+import simpledb.index.BTreePageId;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link PageCodec} of each page id class, by class name. The page ids
+ * of the files in this package and of B+ trees are registered; other
+ * {@link DbFile} implementations register theirs before recovery runs.
+ */
+public final class PageCodecs {
+
+    private static final Map<String, PageCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(HeapPageId.class, fields -> new HeapPageId(fields[0], fields[1]));
+        register(ColumnPageId.class, fields -> new ColumnPageId(fields[0], fields[1], fields[2]));
+        register(BTreePageId.class, new PageCodec() {
+            @Override
+            public PageId decodeId(int[] fields) {
+                return new BTreePageId(fields[0], fields[1], fields[2]);
+            }
+
+            @Override
+            public Object location(PageId id) {
+                // the root pointer is page 0, the other pages are numbered from 1 whatever their category
+                return Arrays.asList(id.getTableId(), id.getPageNumber());
+            }
+        });
+    }
+
+    private PageCodecs() {
+    }
+
+    /**
+     * Registers the codec of the specified page id class, replacing any
+     * codec registered for it before.
+     */
+    public static void register(Class<? extends PageId> idClass, PageCodec codec) {
+        CODECS.put(idClass.getName(), codec);
+    }
+
+    /**
+     * Returns the codec of the page id class with the specified name.
+     *
+     * @throws IOException if no codec is registered for the class
+     */
+    public static PageCodec forName(String idClassName) throws IOException {
+        PageCodec codec = CODECS.get(idClassName);
+        if (codec == null) {
+            throw new IOException("no page codec registered for " + idClassName);
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the codec of the specified page id.
+     *
+     * @throws IOException if no codec is registered for its class
+     */
+    public static PageCodec forId(PageId id) throws IOException {
+        return forName(id.getClass().getName());
+    }
+}
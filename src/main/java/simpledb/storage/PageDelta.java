@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The byte ranges in which two images of a page differ, with the bytes of
+ * both images in each range: what a one-tuple insert or delete changes in a
+ * HeapPage is a header byte and the bytes of the slot, so logging the ranges
+ * instead of both images of the page takes a few dozen bytes instead of two
+ * pages. Applying the after bytes of the ranges to the before image gives
+ * the after image, and the other way around.
+ *
+ * @see LogFile#logWrite
+ */
+class PageDelta {
+
+    /**
+     * Unchanged bytes between two changed ones are included in the range
+     * rather than starting a new one, up to the size of a range header.
+     */
+    private static final int MAX_GAP = 2 * LogFile.INT_SIZE;
+
+    private final PageId pid;
+
+    private final int[] offsets;
+
+    private final byte[][] before;
+
+    private final byte[][] after;
+
+    private PageDelta(PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Returns the ranges in which the specified images of a page differ, or
+     * null if their sizes differ or more than maxBytes of them do, in which
+     * case both images are cheaper to log.
+     */
+    static PageDelta diff(PageId pid, byte[] before, byte[] after, int maxBytes) {
+        if (before.length != after.length) {
+            return null;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int changed = 0;
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend the range while the next change is within MAX_GAP
+            for (int j = end; j < after.length && j - end < MAX_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            changed += end - start;
+            if (changed > maxBytes) {
+                return null;
+            }
+            ranges.add(new int[] { start, end });
+            i = end;
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] beforeBytes = new byte[ranges.size()][];
+        byte[][] afterBytes = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int[] range = ranges.get(r);
+            offsets[r] = range[0];
+            beforeBytes[r] = copy(before, range[0], range[1]);
+            afterBytes[r] = copy(after, range[0], range[1]);
+        }
+        return new PageDelta(pid, offsets, beforeBytes, afterBytes);
+    }
+
+    private static byte[] copy(byte[] data, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        System.arraycopy(data, from, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    PageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the number of bytes in the ranges.
+     */
+    int size() {
+        int size = 0;
+        for (byte[] bytes : after) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the after bytes of the ranges into the specified page data.
+     */
+    void redo(byte[] data) {
+        apply(after, data);
+    }
+
+    /**
+     * Writes the before bytes of the ranges into the specified page data.
+     */
+    void undo(byte[] data) {
+        apply(before, data);
+    }
+
+    private void apply(byte[][] bytes, byte[] data) {
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(bytes[r], 0, data, offsets[r], bytes[r].length);
+        }
+    }
+
+    /**
+     * Writes the ranges: their number, then the offset, the length, the
+     * before bytes and the after bytes of each. The page id is written by
+     * the caller.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(after[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /**
+     * Reads the ranges {@link #write} wrote for the specified page.
+     */
+    static PageDelta read(PageId pid, DataInput in) throws IOException {
+        int numRanges = in.readInt();
+        int[] offsets = new int[numRanges];
+        byte[][] before = new byte[numRanges][];
+        byte[][] after = new byte[numRanges][];
+        for (int r = 0; r < numRanges; r++) {
+            offsets[r] = in.readInt();
+            int length = in.readInt();
+            before[r] = new byte[length];
+            in.readFully(before[r]);
+            after[r] = new byte[length];
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pid, offsets, before, after);
+    }
+}
@@ -0,0 +1,502 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.FieldType;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A HeapFile page that stores variable-length records behind a slot
+ * directory, so that short strings only take the bytes they use instead of
+ * {@link FieldType#STRING_TYPE}'s fixed length.
+ * <p>
+ * The layout of a page is
+ * <pre>
+ *   int slot count | int start of the record area | slot directory ... free space ... records
+ * </pre>
+ * The slot directory grows from the front of the page, one entry of an
+ * unsigned short offset and an unsigned short length per slot, a length of 0
+ * marking an empty slot. Records are packed from the end of the page
+ * backwards. An int field takes 4 bytes, a string field an unsigned short
+ * length followed by its bytes. A page of all zeroes is an empty page.
+ * <p>
+ * Deleting a record leaves a hole in the record area, which is reclaimed by
+ * compacting the records within the page when an insert needs the space.
+ * Records keep their slot, so RecordIds are stable across compaction.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int SLOT_SIZE = 4;
+
+    private static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc  tupleDesc;
+    final int        maxRecordSize;
+
+    /**
+     * The bytes of this page, exactly as they are written to disk. The
+     * directory and records are read and updated in place; {@link #tuples}
+     * only caches the tuples decoded from it.
+     */
+    private final ByteBuffer buffer;
+    private Tuple[]          tuples;
+
+    /**
+     * The before image, or null while the page is unchanged since the last
+     * {@link #setBeforeImage()}; it is copied just before the first modification.
+     */
+    byte[]                   oldData;
+    private final Object     oldDataLock = new Object();
+
+    private TransactionId transactionId;
+
+    private volatile long lsn;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described in the class comment. The data is copied, so
+     * the caller may keep using the array.
+     *
+     * @see Catalog#getTupleDesc
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a SlottedHeapPage over a buffer holding the page as read from
+     * disk, without copying it: the page takes ownership of the bytes between
+     * the buffer's position and limit.
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) {
+        int pageSize = BufferPool.getPageSize();
+        if (pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.tupleDesc = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.maxRecordSize = maxRecordSize(tupleDesc);
+        if (data.remaining() == pageSize) {
+            this.buffer = data.slice();
+        } else {
+            this.buffer = ByteBuffer.allocate(pageSize);
+            ByteBuffer src = data.duplicate();
+            src.limit(src.position() + Math.min(src.remaining(), pageSize));
+            this.buffer.put(src).clear();
+        }
+        this.tuples = new Tuple[slotCount(buffer)];
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the largest number of bytes a record of the given schema takes
+     */
+    static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            FieldType type = td.getFieldType(i);
+            size += type == FieldType.STRING_TYPE ? 2 + FieldType.STRING_LEN : type.getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the record of the given tuple takes
+     */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == FieldType.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) f).getValue().length(), FieldType.STRING_LEN);
+            } else {
+                size += f.getType().getLen();
+            }
+        }
+        return size;
+    }
+
+    private static void writeRecord(ByteBuffer out, Tuple t) {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == FieldType.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int length = Math.min(s.length(), FieldType.STRING_LEN);
+                out.putShort((short) length);
+                for (int j = 0; j < length; j++) {
+                    out.put((byte) s.charAt(j));
+                }
+            } else {
+                f.serialize(out);
+            }
+        }
+    }
+
+    private static Field[] readRecord(ByteBuffer in, TupleDesc td) {
+        Field[] fields = new Field[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            if (td.getFieldType(i) == FieldType.STRING_TYPE) {
+                byte[] bs = new byte[in.getShort() & 0xFFFF];
+                in.get(bs);
+                fields[i] = new StringField(new String(bs), FieldType.STRING_LEN);
+            } else {
+                fields[i] = td.getFieldType(i).parse(in);
+            }
+        }
+        return fields;
+    }
+
+    private static int slotCount(ByteBuffer page) {
+        return page.getInt(0);
+    }
+
+    private static int recordStart(ByteBuffer page) {
+        int start = page.getInt(4);
+        return start == 0 ? page.capacity() : start;
+    }
+
+    private static int slotEntry(int slotId) {
+        return HEADER_SIZE + slotId * SLOT_SIZE;
+    }
+
+    private static int recordOffset(ByteBuffer page, int slotId) {
+        return page.getShort(slotEntry(slotId)) & 0xFFFF;
+    }
+
+    private static int recordLength(ByteBuffer page, int slotId) {
+        return page.getShort(slotEntry(slotId) + 2) & 0xFFFF;
+    }
+
+    private static void setSlot(ByteBuffer page, int slotId, int offset, int length) {
+        page.putShort(slotEntry(slotId), (short) offset);
+        page.putShort(slotEntry(slotId) + 2, (short) length);
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the records
+     */
+    private static int freeSpace(ByteBuffer page) {
+        return recordStart(page) - slotEntry(slotCount(page));
+    }
+
+    /**
+     * Appends the record of the given tuple to a page being built, such as by
+     * {@link HeapFileEncoder}, using a new slot.
+     *
+     * @return false if the page has no room for the record
+     */
+    static boolean append(ByteBuffer page, Tuple t) {
+        int size = recordSize(t);
+        if (freeSpace(page) < size + SLOT_SIZE) {
+            return false;
+        }
+        int slotId = slotCount(page);
+        int start = recordStart(page) - size;
+        ByteBuffer out = page.duplicate();
+        out.position(start);
+        writeRecord(out, t);
+        setSlot(page, slotId, start, size);
+        page.putInt(0, slotId + 1);
+        page.putInt(4, start);
+        return true;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef == null) {
+            oldDataRef = getPageData();
+        }
+        return new SlottedHeapPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Keeps a copy of the current page data as the before image, if there is
+     * none yet; called before every modification of {@link #buffer}.
+     */
+    private void copyBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = copyPageData();
+            }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the number of slots of the directory, used or not.
+     */
+    public int getNumSlots() {
+        return slotCount(buffer);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slotCount(buffer) && recordLength(buffer, i) > 0;
+    }
+
+    /**
+     * Returns the tuple in the specified slot, decoding it from the page data
+     * on first access.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple[] cache = tuples;
+        Tuple t = slotId < cache.length ? cache[slotId] : null;
+        if (t == null) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(recordOffset(buffer, slotId));
+            Field[] fields = readRecord(in, tupleDesc);
+            t = new Tuple(tupleDesc);
+            for (int i = 0; i < fields.length; i++) {
+                t.setField(i, fields[i]);
+            }
+            t.setRecordId(new RecordId(pid, slotId));
+            if (slotId < cache.length) {
+                cache[slotId] = t;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * This is usually the backing array of the page rather than a copy; see
+     * {@link Page#getPageData()}.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity()) {
+            return buffer.array();
+        }
+        return copyPageData();
+    }
+
+    private byte[] copyPageData() {
+        byte[] data = new byte[buffer.capacity()];
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    /**
+     * Delete the specified tuple from the page. The bytes of its record stay
+     * in the page until it is compacted, unless the record is the first one of
+     * the record area.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId())) {
+            throw new DbException("Page id not match");
+        }
+        int slotId = recordId.getTupleNumber();
+        if (!isSlotUsed(slotId)) {
+            throw new DbException("Slot is not used");
+        }
+        copyBeforeImage();
+        int offset = recordOffset(buffer, slotId);
+        int length = recordLength(buffer, slotId);
+        for (int i = offset; i < offset + length; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        if (offset == recordStart(buffer)) {
+            buffer.putInt(4, offset + length);
+        }
+        setSlot(buffer, slotId, 0, 0);
+        if (slotId < tuples.length) {
+            tuples[slotId] = null;
+        }
+
+        // drop empty slots from the end of the directory
+        int slotCount = slotCount(buffer);
+        while (slotCount > 0 && recordLength(buffer, slotCount - 1) == 0) {
+            slotCount--;
+        }
+        buffer.putInt(0, slotCount);
+    }
+
+    /**
+     * Adds the specified tuple to the page, compacting the records first if
+     * only the holes left by deletes make room for it.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!tupleDesc.equals(t.getTupleDesc())) {
+            throw new DbException("tuple desc not matched: " + t.getTupleDesc());
+        }
+        int size = recordSize(t);
+        int slotCount = slotCount(buffer);
+        int slotId = 0;
+        while (slotId < slotCount && recordLength(buffer, slotId) > 0) {
+            slotId++;
+        }
+        int needed = size + (slotId == slotCount ? SLOT_SIZE : 0);
+        if (freeSpace(buffer) < needed) {
+            if (freeSpace(buffer) + garbage() < needed) {
+                throw new DbException("The page is full");
+            }
+            copyBeforeImage();
+            compact();
+        }
+        copyBeforeImage();
+        int start = recordStart(buffer) - size;
+        ByteBuffer out = buffer.duplicate();
+        out.position(start);
+        writeRecord(out, t);
+        setSlot(buffer, slotId, start, size);
+        buffer.putInt(4, start);
+        if (slotId == slotCount) {
+            buffer.putInt(0, slotCount + 1);
+            if (slotId >= tuples.length) {
+                tuples = Arrays.copyOf(tuples, Math.max(slotId + 1, tuples.length * 2));
+            }
+        }
+        t.setRecordId(new RecordId(pid, slotId));
+        tuples[slotId] = t;
+    }
+
+    /**
+     * @return the number of bytes of the record area not used by any record
+     */
+    private int garbage() {
+        int used = 0;
+        int slotCount = slotCount(buffer);
+        for (int i = 0; i < slotCount; i++) {
+            used += recordLength(buffer, i);
+        }
+        return buffer.capacity() - recordStart(buffer) - used;
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the holes left by
+     * deleted records join the free space. Slots keep their numbers.
+     */
+    private void compact() {
+        int pageSize = buffer.capacity();
+        byte[] records = new byte[pageSize];
+        int start = pageSize;
+        int slotCount = slotCount(buffer);
+        for (int i = 0; i < slotCount; i++) {
+            int length = recordLength(buffer, i);
+            if (length == 0) {
+                continue;
+            }
+            start -= length;
+            ByteBuffer src = buffer.duplicate();
+            src.position(recordOffset(buffer, i));
+            src.get(records, start, length);
+            setSlot(buffer, i, start, length);
+        }
+        ByteBuffer out = buffer.duplicate();
+        out.position(slotEntry(slotCount));
+        out.put(records, slotEntry(slotCount), pageSize - slotEntry(slotCount));
+        buffer.putInt(4, start);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.transactionId = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.transactionId;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Returns the number of tuples of the largest size for this table that
+     * can still be inserted, counting the space that compaction would free.
+     */
+    public int getNumEmptySlots() {
+        return Math.max(0, freeSpace(buffer) + garbage()) / (maxRecordSize + SLOT_SIZE);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slotId = 0;
+
+            @Override
+            public boolean hasNext() {
+                int slotCount = slotCount(buffer);
+                while (slotId < slotCount && !isSlotUsed(slotId)) {
+                    slotId++;
+                }
+                return slotId < slotCount;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getTuple(slotId++);
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb.storage;
+
+import com.google.common.collect.Maps;
+import simpledb.common.FieldType;
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.PageFileChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The dictionary of a dictionary-encoded string column of a ColumnFile: it
+ * maps each distinct value of the column to an int code, which is what the
+ * pages of the column store.
+ * <p>
+ * There is a single {@link DictionaryStringField} per code, so the values read
+ * from the column share their String and its cached hash, and fields of the
+ * same dictionary compare equal by their codes.
+ * <p>
+ * Codes are never reused or removed. A new value is appended to the side
+ * file of the dictionary (the column file name plus {@link #SUFFIX}) as soon
+ * as it is encoded, and {@link #force forced} before any page referring to
+ * its code, or log record of such a page, can reach disk.
+ *
+ * @see ColumnFile
+ */
+public class StringDictionary {
+
+    public static final String SUFFIX = ".dict";
+
+    private final PageFileChannel channel;
+
+    private final ConcurrentMap<String, DictionaryStringField> codes = Maps.newConcurrentMap();
+
+    /**
+     * The fields by code; only the first {@link #size} entries are set.
+     */
+    private volatile DictionaryStringField[] values = new DictionaryStringField[16];
+
+    private volatile int size;
+
+    /**
+     * The length of the side file known to be on disk; protected by this.
+     */
+    private long forcedLength;
+
+    /**
+     * The last plain StringField looked up by {@link #codeOf(Field)}, which
+     * is usually the constant of a predicate compared to every value of a scan.
+     */
+    private volatile Probe lastProbe;
+
+    /**
+     * Opens the dictionary stored in the specified file, creating it if it
+     * does not exist.
+     */
+    public StringDictionary(File f) {
+        this.channel = FileChannelManager.getInstance().open(f);
+        load();
+    }
+
+    private void load() {
+        try {
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+            channel.readFully(data, 0);
+            forcedLength = data.position();
+            data.flip();
+            while (data.remaining() >= 4) {
+                byte[] bytes = new byte[data.getInt()];
+                data.get(bytes);
+                add(new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private DictionaryStringField add(String value) {
+        DictionaryStringField field = new DictionaryStringField(value, this, size);
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = field;
+        size++;
+        // published only once decode can find it
+        codes.put(value, field);
+        return field;
+    }
+
+    /**
+     * Returns the number of distinct values in this dictionary.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the field of the specified code.
+     *
+     * @throws IllegalArgumentException if there is no such code
+     */
+    public DictionaryStringField decode(int code) {
+        int n = size;
+        if (code < 0 || code >= n) {
+            throw new IllegalArgumentException("unknown dictionary code " + code);
+        }
+        return values[code];
+    }
+
+    /**
+     * Returns the field of the value of the specified field, adding the value
+     * to the dictionary if it is not in it yet.
+     */
+    public DictionaryStringField encode(StringField value) {
+        if (value instanceof DictionaryStringField && ((DictionaryStringField) value).getDictionary() == this) {
+            return (DictionaryStringField) value;
+        }
+        DictionaryStringField field = codes.get(value.getValue());
+        if (field != null) {
+            return field;
+        }
+        synchronized (this) {
+            field = codes.get(value.getValue());
+            if (field == null) {
+                byte[] bytes = value.getValue().getBytes(StandardCharsets.ISO_8859_1);
+                ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+                entry.putInt(bytes.length).put(bytes).flip();
+                try {
+                    channel.append(entry);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                field = add(value.getValue());
+            }
+            return field;
+        }
+    }
+
+    /**
+     * Forces the values appended since the last force to disk.
+     */
+    public synchronized void force() throws IOException {
+        long length = channel.size();
+        if (length > forcedLength) {
+            channel.force(false);
+            forcedLength = length;
+        }
+    }
+
+    /**
+     * Returns the length of the side file that is known to be on disk; a
+     * crash may lose the values after it.
+     */
+    public synchronized long getForcedLength() {
+        return forcedLength;
+    }
+
+    /**
+     * Returns the code of the value of the specified field in this
+     * dictionary, or -1 if the field is not a string or the value is not in
+     * the dictionary.
+     */
+    int codeOf(Field value) {
+        if (value instanceof DictionaryStringField && ((DictionaryStringField) value).getDictionary() == this) {
+            return ((DictionaryStringField) value).getCode();
+        }
+        if (!(value instanceof StringField)) {
+            return -1;
+        }
+        Probe probe = lastProbe;
+        // a value that was missing may have been added since
+        if (probe != null && probe.value == value && (probe.code >= 0 || probe.size == size)) {
+            return probe.code;
+        }
+        int n = size;
+        DictionaryStringField field = codes.get(((StringField) value).getValue());
+        int code = field == null ? -1 : field.getCode();
+        lastProbe = new Probe(value, code, n);
+        return code;
+    }
+
+    /**
+     * Returns the number of bytes a code takes on a page.
+     */
+    public static int getCodeLen() {
+        return FieldType.INT_TYPE.getLen();
+    }
+
+    private static final class Probe {
+        private final Field value;
+        private final int code;
+        private final int size;
+
+        private Probe(Field value, int code, int size) {
+            this.value = value;
+            this.code = code;
+            this.size = size;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.FieldType;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -70,6 +71,24 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buffer, in the same format as
+     * {@link #serialize(DataOutputStream)}.
+     *
+     * @param buffer
+     *            Where the string is written
+     */
+    public void serialize(ByteBuffer buffer) {
+        int length = Math.min(value.length(), maxSize);
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+        for (int i = length; i < maxSize; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -101,6 +101,16 @@ public class Tuple implements Serializable {
         return Arrays.stream(fields).iterator();
     }
 
+    /**
+     * Returns a tuple with the contents of this one that stays valid however
+     * long it is kept. Operators that keep the tuples of their children past
+     * their next call call this, since a child may return {@link TupleView}s
+     * that move on; a plain tuple is returned as is.
+     */
+    public Tuple materialize() {
+        return this;
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      */
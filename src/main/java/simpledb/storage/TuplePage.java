@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: an unordered set of tuples addressed by slot number.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    HeapPageId getId();
+
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     */
+    Tuple getTuple(int slotId);
+
+    /**
+     * Adds the specified tuple to the page and updates its RecordId.
+     * @throws DbException if the page has no room for the tuple or the
+     *         tupledesc is mismatch.
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be inserted into this page.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator that returns the specified view, moved to each
+     * tuple on this page in turn, instead of decoding the tuples. Pages
+     * whose records have no fixed layout return {@link #iterator()}.
+     */
+    default Iterator<Tuple> iterator(TupleView view) {
+        return iterator();
+    }
+}
@@ -0,0 +1,239 @@
+package simpledb.storage;
+
+import simpledb.common.FieldType;
+import simpledb.execution.Predicate;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only Tuple that points at a record in the data of a page instead of
+ * holding Field objects: fields are decoded from the page on each access, and
+ * {@link #getInt} and {@link #getStringBytes} read them without creating a
+ * Field at all.
+ * <p>
+ * A view is a flyweight: a scan moves one view from record to record, so a
+ * view only holds a row until the operator that returned it is advanced. An
+ * operator that keeps rows longer must keep {@link #materialize()}d copies.
+ * The fields of a view may be a projection of the fields of the record.
+ *
+ * @see HeapPage#iterator(TupleView)
+ */
+public class TupleView extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc recordDesc;
+
+    /** The offset of each field of the record within the record. */
+    private final int[] offsets;
+
+    /** The field of the record each field of this view shows. */
+    private final int[] columns;
+
+    /** Kept so that the page, and the memory it reads from, stays reachable. */
+    private transient TuplePage page;
+
+    private transient ByteBuffer data;
+
+    private int slot;
+
+    private int position;
+
+    /**
+     * Creates a view of records of the specified schema that shows all their fields.
+     */
+    public TupleView(TupleDesc td) {
+        this(td, td, identity(td.numFields()));
+    }
+
+    private TupleView(TupleDesc td, TupleDesc recordDesc, int[] columns) {
+        super(td);
+        this.recordDesc = recordDesc;
+        this.columns = columns;
+        this.offsets = new int[recordDesc.numFields()];
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] = offsets[i - 1] + recordDesc.getFieldType(i - 1).getLen();
+        }
+    }
+
+    private static int[] identity(int n) {
+        int[] columns = new int[n];
+        for (int i = 0; i < n; i++) {
+            columns[i] = i;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns a new view that shows the specified fields of this view, under
+     * the specified schema; {@link #moveTo(TupleView)} points it at the record
+     * this view points at.
+     */
+    public TupleView project(int[] fields, TupleDesc td) {
+        int[] projected = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            projected[i] = columns[fields[i]];
+        }
+        return new TupleView(td, recordDesc, projected);
+    }
+
+    /**
+     * Points this view at the record in the specified slot of a page.
+     *
+     * @param data the data of the page
+     * @param position the offset of the record in the data
+     */
+    void moveTo(TuplePage page, ByteBuffer data, int slot, int position) {
+        this.page = page;
+        this.data = data;
+        this.slot = slot;
+        this.position = position;
+    }
+
+    /**
+     * Points this view at the record another view, of the same records, points at.
+     */
+    public void moveTo(TupleView other) {
+        moveTo(other.page, other.data, other.slot, other.position);
+    }
+
+    /**
+     * Returns the schema of the records this view reads from.
+     */
+    public TupleDesc getRecordDesc() {
+        return recordDesc;
+    }
+
+    private int offset(int i) {
+        return position + offsets[columns[i]];
+    }
+
+    /**
+     * Returns the value of the specified int field.
+     */
+    public int getInt(int i) {
+        return data.getInt(offset(i));
+    }
+
+    /**
+     * Returns the bytes of the value of the specified string field, without
+     * the padding it is stored with.
+     */
+    public byte[] getStringBytes(int i) {
+        int offset = offset(i);
+        byte[] bytes = new byte[data.getInt(offset)];
+        ByteBuffer in = data.duplicate();
+        in.position(offset + FieldType.INT_TYPE.getLen());
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares the specified field to a value as {@link Field#compare} does,
+     * without decoding int fields.
+     */
+    public boolean compare(int i, Predicate.Op op, Field value) {
+        if (value instanceof IntField && getTupleDesc().getFieldType(i) == FieldType.INT_TYPE) {
+            int v = getInt(i);
+            int operand = ((IntField) value).getValue();
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return v == operand;
+                case NOT_EQUALS:
+                    return v != operand;
+                case GREATER_THAN:
+                    return v > operand;
+                case GREATER_THAN_OR_EQ:
+                    return v >= operand;
+                case LESS_THAN:
+                    return v < operand;
+                case LESS_THAN_OR_EQ:
+                    return v <= operand;
+            }
+            return false;
+        }
+        return getField(i).compare(op, value);
+    }
+
+    /**
+     * Decodes the specified field into a new Field.
+     */
+    @Override
+    public Field getField(int i) {
+        ByteBuffer in = data.duplicate();
+        in.position(offset(i));
+        return getTupleDesc().getFieldType(i).parse(in);
+    }
+
+    /**
+     * @throws UnsupportedOperationException views are read-only; set the
+     *   fields of a materialized copy instead
+     */
+    @Override
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    @Override
+    public RecordId getRecordId() {
+        return new RecordId(page.getId(), slot);
+    }
+
+    /**
+     * @throws UnsupportedOperationException views are read-only
+     */
+    @Override
+    public void setRecordId(RecordId rid) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    /**
+     * @throws UnsupportedOperationException views are read-only
+     */
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        return new Iterator<Field>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < getTupleDesc().numFields();
+            }
+
+            @Override
+            public Field next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getField(i++);
+            }
+        };
+    }
+
+    /**
+     * Returns a Tuple holding the fields and RecordId of the record this
+     * view points at, which stays valid once the view moves on.
+     */
+    @Override
+    public Tuple materialize() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            t.setField(i, getField(i));
+        }
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
+    @Override
+    public String toString() {
+        return materialize().toString();
+    }
+}
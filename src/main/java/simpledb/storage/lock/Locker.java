@@ -19,6 +19,14 @@ public interface Locker {
 
     boolean tryLock(LockContext context, int time, TimeUnit timeUnit) throws InterruptedException;
 
+    /**
+     * Acquires a shared lock without waiting, unless another transaction
+     * holds the exclusive lock.
+     *
+     * @return whether the lock was acquired
+     */
+    boolean tryLockShared(TransactionId transactionId);
+
     interface LockContext {
         TransactionId getTransactionId();
 
@@ -83,7 +83,7 @@ public class PageTransactionLocker implements Locker {
                     }
                     // take care for read/write concurrency
                     synchronized (this) {
-                        if (lock.compareAndSet(false, true)) {
+                        if (isLockUpgradable(context.getTransactionId()) && lock.compareAndSet(false, true)) {
                             exclusive.set(context.getTransactionId());
                             shared.remove(context.getTransactionId());
                             return true;
@@ -94,6 +94,17 @@ public class PageTransactionLocker implements Locker {
         return false;
     }
 
+    @Override
+    public boolean tryLockShared(TransactionId transactionId) {
+        synchronized (this) {
+            if (lock.get() && !transactionId.equals(exclusive.get())) {
+                return false;
+            }
+            shared.add(transactionId);
+            return true;
+        }
+    }
+
     private boolean isLockUpgradable(TransactionId transactionId) {
         return shared.isEmpty() || (shared.size() == 1 && shared.contains(transactionId));
     }
@@ -0,0 +1,134 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * The Adaptive Replacement Cache of Megiddo and Modha. Pages requested once
+ * are kept in T1 and pages requested again in T2, both in LRU order; the ids
+ * of pages evicted from them are remembered in the ghost lists B1 and B2. A
+ * page coming back through B1 grows the target size of T1, one coming back
+ * through B2 shrinks it, so the policy adapts between recency and frequency
+ * while a scan only cycles through T1.
+ * <p>
+ * A prefetched page enters T1 without a request, and its first request is
+ * handled as the one that brought it in, so read-ahead does not promote the
+ * pages of a scan to T2.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    public static final Factory FACTORY = ArcPolicy::new;
+
+    private final int capacity;
+
+    private final EntryQueue t1 = new EntryQueue();
+
+    private final EntryQueue t2 = new EntryQueue();
+
+    private final GhostList b1 = new GhostList();
+
+    private final GhostList b2 = new GhostList();
+
+    /** The target size of T1 */
+    private int target;
+
+    private static final class ArcNode extends EntryQueue.Node {
+        /** Whether the page was requested since it entered the pool */
+        private boolean requested;
+
+        private ArcNode(PageId pageId, boolean requested) {
+            super(pageId);
+            this.requested = requested;
+        }
+    }
+
+    public ArcPolicy(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public Entry admit(PageId pageId, boolean requested) {
+        ArcNode node = new ArcNode(pageId, requested);
+        if (requested) {
+            requested(node);
+        } else {
+            // the ghost lists are only consulted once the page is requested
+            t1.addFirst(node);
+        }
+        return node;
+    }
+
+    /**
+     * Puts a page on its first request: in T2 if it comes back through a
+     * ghost list, adapting the target of T1, in T1 otherwise.
+     */
+    private void requested(ArcNode node) {
+        PageId pageId = node.getPageId();
+        if (b1.remove(pageId)) {
+            target = Math.min(capacity, target + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+            t2.addFirst(node);
+        } else if (b2.remove(pageId)) {
+            target = Math.max(0, target - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+            t2.addFirst(node);
+        } else {
+            t1.addFirst(node);
+        }
+    }
+
+    @Override
+    public synchronized void access(Entry entry) {
+        ArcNode node = (ArcNode) entry;
+        if (node.queue != null) {
+            node.queue.remove(node);
+            if (node.requested) {
+                t2.addFirst(node);
+            } else {
+                node.requested = true;
+                requested(node);
+            }
+        }
+    }
+
+    @Override
+    public void remove(Entry entry) {
+        EntryQueue.Node node = (EntryQueue.Node) entry;
+        if (node.queue != null) {
+            node.queue.remove(node);
+        }
+    }
+
+    /**
+     * Evicts from T1 while it is larger than its target, from T2 otherwise,
+     * and from the other list if the chosen one has no evictable page.
+     */
+    @Override
+    public Entry evict(Predicate<Entry> evictable) {
+        boolean fromT1 = t1.size() > 0 && (t1.size() > target || t2.size() == 0);
+        EntryQueue.Node node = evict(fromT1, evictable);
+        if (node == null) {
+            node = evict(!fromT1, evictable);
+        }
+        return node;
+    }
+
+    private EntryQueue.Node evict(boolean fromT1, Predicate<Entry> evictable) {
+        EntryQueue.Node node = (fromT1 ? t1 : t2).removeLast(evictable);
+        if (node != null) {
+            (fromT1 ? b1 : b2).add(node.getPageId());
+            // the ghosts of each list and the two lists with their ghosts are bounded by the capacity
+            b1.trim(Math.max(0, capacity - t1.size()));
+            b2.trim(Math.max(0, 2 * capacity - t1.size() - t2.size() - b1.size()));
+        }
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "ARC";
+    }
+}
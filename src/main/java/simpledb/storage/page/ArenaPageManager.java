@@ -0,0 +1,201 @@
+package simpledb.storage.page;
+
+import com.google.common.collect.Maps;
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A PageManager that reads pages into the frames of an off-heap
+ * {@link FrameArena} instead of heap arrays, so that the pool only keeps
+ * small page objects on the heap, whatever its size. Pages are views over
+ * their frame: they decode tuples from it lazily and modify it in place.
+ * <p>
+ * The frame of a page is freed as soon as the page has left the pool and no
+ * transaction holds it: the buffer pool {@link #pin pins} the pages it
+ * returns to a transaction, and scans unpin each page once they moved past
+ * it, so that the frames of a scan are reused as it goes; the other pages
+ * are unpinned when the transaction completes. The arena has more frames
+ * than the pool has pages, for the evicted pages still held. When no frame
+ * is free, or the file cannot read into a frame, the page is read into the
+ * heap as {@link DefaultPageManager} does.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class ArenaPageManager extends DefaultPageManager {
+
+    private final FrameArena arena;
+
+    /**
+     * The frames of the pages read into the arena, until they are freed;
+     * protected by itself.
+     */
+    private final Map<Page, Slot> slots = new IdentityHashMap<>();
+
+    /**
+     * The number of holds of each transaction on each page in the arena; the
+     * map of a transaction is protected by itself.
+     */
+    private final ConcurrentMap<TransactionId, Map<Page, Integer>> holds = Maps.newConcurrentMap();
+
+    private final AtomicLong heapReads = new AtomicLong();
+
+    private static final class Slot {
+        private final int frame;
+
+        /** The number of holds on the page */
+        private int pins;
+
+        /** Whether the page left the pool */
+        private boolean released;
+
+        private Slot(int frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Creates a manager of the given capacity over an arena with a quarter
+     * more frames, for the evicted pages still held.
+     */
+    public ArenaPageManager(int capacity) {
+        this(capacity, capacity + Math.max(1, capacity / 4));
+    }
+
+    /**
+     * @param capacity the number of pages in the pool
+     * @param frames the number of frames of the arena
+     */
+    public ArenaPageManager(int capacity, int frames) {
+        super(capacity);
+        this.arena = new FrameArena(frames, BufferPool.getPageSize());
+    }
+
+    @Override
+    protected Page load(PageId pageId) {
+        int frame = arena.allocate();
+        if (frame < 0) {
+            heapReads.incrementAndGet();
+            return super.load(pageId);
+        }
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+        Page page;
+        try {
+            page = dbFile.readPage(pageId, arena.frame(frame));
+        } catch (RuntimeException e) {
+            arena.free(frame);
+            throw e;
+        }
+        synchronized (slots) {
+            slots.put(page, new Slot(frame));
+        }
+        return page;
+    }
+
+    @Override
+    protected void released(Page page) {
+        synchronized (slots) {
+            Slot slot = slots.get(page);
+            if (slot != null) {
+                slot.released = true;
+                freeIfUnused(page, slot);
+            }
+        }
+    }
+
+    /**
+     * Holds pages in the arena; pages on the heap need no hold. Pages
+     * returned without a transaction are not held.
+     */
+    @Override
+    public boolean pin(TransactionId transactionId, Page page) {
+        if (transactionId == null) {
+            return true;
+        }
+        synchronized (slots) {
+            Slot slot = slots.get(page);
+            if (slot == null) {
+                // on the heap, or in a frame freed since the page was returned
+                return isResident(page);
+            }
+            slot.pins++;
+        }
+        Map<Page, Integer> held = holds.computeIfAbsent(transactionId, tid -> new IdentityHashMap<>());
+        synchronized (held) {
+            held.merge(page, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    @Override
+    public void unpin(TransactionId transactionId, Page page) {
+        Map<Page, Integer> held = holds.get(transactionId);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            Integer count = held.get(page);
+            if (count == null) {
+                return;
+            }
+            if (count == 1) {
+                held.remove(page);
+            } else {
+                held.put(page, count - 1);
+            }
+        }
+        unpinned(page, 1);
+    }
+
+    @Override
+    public void unpinAll(TransactionId transactionId) {
+        Map<Page, Integer> held = holds.remove(transactionId);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            held.forEach(this::unpinned);
+        }
+    }
+
+    private void unpinned(Page page, int count) {
+        synchronized (slots) {
+            Slot slot = slots.get(page);
+            if (slot != null) {
+                slot.pins -= count;
+                freeIfUnused(page, slot);
+            }
+        }
+    }
+
+    private void freeIfUnused(Page page, Slot slot) {
+        if (slot.released && slot.pins == 0) {
+            slots.remove(page);
+            arena.free(slot.frame);
+        }
+    }
+
+    /**
+     * Returns the arena the pages are read into.
+     */
+    public FrameArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Returns the number of pages read into the heap because no frame was free.
+     */
+    public long getHeapReads() {
+        return heapReads.get();
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The CLOCK policy: a hand sweeps the pages, giving pages requested since
+ * its last pass a second chance. Accesses only set a reference bit, without
+ * any lock. This is the default policy of {@link DefaultPageManager}.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    public static final Factory FACTORY = capacity -> new ClockPolicy();
+
+    private final List<ClockEntry> ring = new ArrayList<>();
+
+    private int hand;
+
+    private static final class ClockEntry extends Entry {
+        private volatile boolean referenced;
+
+        /** The index of this entry in the ring, or -1 */
+        private int slot = -1;
+
+        private ClockEntry(PageId pageId) {
+            super(pageId);
+        }
+    }
+
+    @Override
+    public Entry admit(PageId pageId, boolean requested) {
+        ClockEntry entry = new ClockEntry(pageId);
+        entry.referenced = requested;
+        entry.slot = ring.size();
+        ring.add(entry);
+        return entry;
+    }
+
+    @Override
+    public void access(Entry entry) {
+        ((ClockEntry) entry).referenced = true;
+    }
+
+    @Override
+    public void remove(Entry entry) {
+        ClockEntry removed = (ClockEntry) entry;
+        if (removed.slot < 0) {
+            return;
+        }
+        // move the last entry into the hole
+        ClockEntry last = ring.remove(ring.size() - 1);
+        if (last != removed) {
+            ring.set(removed.slot, last);
+            last.slot = removed.slot;
+        }
+        removed.slot = -1;
+        if (hand >= ring.size()) {
+            hand = 0;
+        }
+    }
+
+    /**
+     * Advances the hand to an evictable page that was not referenced since
+     * the hand last passed, clearing reference bits on the way.
+     */
+    @Override
+    public Entry evict(Predicate<Entry> evictable) {
+        for (int visited = 0; visited < 2 * ring.size(); visited++) {
+            if (hand >= ring.size()) {
+                hand = 0;
+            }
+            ClockEntry entry = ring.get(hand);
+            if (!evictable.test(entry)) {
+                hand++;
+            } else if (entry.referenced) {
+                entry.referenced = false;
+                hand++;
+            } else {
+                remove(entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "CLOCK";
+    }
+}
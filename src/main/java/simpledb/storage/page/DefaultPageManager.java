@@ -8,92 +8,262 @@ import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Caches pages in segments, each with its own {@link ReplacementPolicy}.
+ * <p>
+ * Resident pages are found through a concurrent map, so a hit takes no lock
+ * of the manager: it only records the access with the policy, which the
+ * default {@link ClockPolicy} does without any lock. The pages are spread
+ * over segments by PageId hash, each locked by the monitor of its policy; a
+ * miss reads the page without holding any lock, then enters it into its
+ * segment, evicting from that segment first. Concurrent misses on the same
+ * page share a single read. The capacity is shared by all segments. Dirty
+ * pages are only evicted when no clean page can be, and only with a
+ * {@link #setWriteBack write-back} function to write them first; without
+ * one, when every other page is dirty, the page just read is evicted again,
+ * and the caller gets null.
+ *
  * @author nick
  * @e-mail cz739@nyu.edu
  * 2023/10/24
  */
 public class DefaultPageManager implements PageManager {
 
-    private final ConcurrentMap<PageId, ListNode> pages = new ConcurrentHashMap<>();
+    private static final int MAX_SEGMENTS = 16;
 
-    private ListNode head = new ListNode(null);
+    /** The fewest pages per segment, so that small pools keep a single clock. */
+    private static final int MIN_SEGMENT_PAGES = 64;
 
-    private ListNode tail = new ListNode(null);
+    private final ConcurrentMap<PageId, Frame> pages = Maps.newConcurrentMap();
+
+    private final Segment[] segments;
+
+    private final AtomicInteger size = new AtomicInteger();
 
     private final int capacity;
 
+    private volatile WriteBack writeBack;
+
     public DefaultPageManager(int capacity) {
+        this(capacity, ClockPolicy.FACTORY);
+    }
+
+    /**
+     * @param policy creates the replacement policy of each segment
+     */
+    public DefaultPageManager(int capacity, ReplacementPolicy.Factory policy) {
         this.capacity = capacity;
-        head.next = tail;
-        tail.prev = head;
+        int n = 1;
+        while (n < MAX_SEGMENTS && n * 2 * MIN_SEGMENT_PAGES <= capacity) {
+            n *= 2;
+        }
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(policy.create((capacity + n - 1) / n));
+        }
     }
 
     @Override
     public Page getOrCreate(PageId pageId, TransactionId transactionId, Permissions permissions) {
-        if (!pages.containsKey(pageId)) {
-            synchronized (this) {
-                if (!pages.containsKey(pageId)) {
-                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
-                    Page page = dbFile.readPage(pageId);
-                    internalAdd(page);
-                    if (pages.size() > this.capacity) {
-                        removeLast();
+        return fetch(pageId, true);
+    }
+
+    @Override
+    public Page get(PageId pageId) {
+        Frame frame = pages.get(pageId);
+        if (frame == null || frame.page == null) {
+            return null;
+        }
+        accessed(frame);
+        return frame.page;
+    }
+
+    @Override
+    public Page prefetch(PageId pageId) {
+        // prefetched pages are not referenced until the scan reaches them
+        return fetch(pageId, false);
+    }
+
+    private Page fetch(PageId pageId, boolean reference) {
+        while (true) {
+            Frame frame = pages.get(pageId);
+            if (frame == null) {
+                Frame loading = new Frame(pageId);
+                frame = pages.putIfAbsent(pageId, loading);
+                if (frame == null) {
+                    if (reference) {
+                        segmentOf(pageId).misses.increment();
                     }
+                    return load(loading, reference);
+                }
+            }
+            Page page = frame.await();
+            if (page != null) {
+                if (reference) {
+                    segmentOf(pageId).hits.increment();
+                    accessed(frame);
                 }
+                return page;
             }
+            // the read failed or the page was removed while read: try again
+        }
+    }
+
+    /**
+     * Reads the page of a frame this thread put in the map, and admits it.
+     */
+    private Page load(Frame frame, boolean reference) {
+        Page page;
+        try {
+            page = load(frame.pageId);
+        } catch (RuntimeException | Error e) {
+            pages.remove(frame.pageId, frame);
+            frame.loaded(null);
+            throw e;
+        }
+        frame.loaded(page);
+        Segment segment = segmentOf(frame.pageId);
+        if (!segment.admit(frame, reference)) {
+            // removed while it was read: the caller gets the page, the pool does not keep it
+            released(page);
+            return page;
+        }
+        return makeRoom(segment, frame) ? page : null;
+    }
+
+    private void accessed(Frame frame) {
+        ReplacementPolicy.Entry entry = frame.entry;
+        if (entry != null) {
+            segmentOf(frame.pageId).policy.access(entry);
         }
-        return get(pageId);
+    }
+
+    /**
+     * Reads a page that is not resident from its file. Called without any
+     * lock held, possibly by several threads at once for different pages.
+     */
+    protected Page load(PageId pageId) {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+        return dbFile.readPage(pageId);
+    }
+
+    /**
+     * Returns whether the specified page object is the resident version of
+     * its page, without counting it as an access.
+     */
+    protected boolean isResident(Page page) {
+        Frame frame = pages.get(page.getId());
+        return frame != null && frame.page == page;
+    }
+
+    /**
+     * Called once a page has left the pool, whether it was evicted or
+     * removed, possibly by several threads at once for different pages.
+     */
+    protected void released(Page page) {
     }
 
     @Override
-    public Page get(PageId pageId) {
-        ListNode node = pages.get(pageId);
-        if (node == null) {
-            return null;
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getHits() {
+        long hits = 0;
+        for (Segment segment : segments) {
+            hits += segment.hits.sum();
+        }
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        long misses = 0;
+        for (Segment segment : segments) {
+            misses += segment.misses.sum();
         }
-        popNode(node);
-        return node.page;
+        return misses;
     }
-    private void internalAdd(Page page) {
-        pages.put(page.getId(), new ListNode(page));
-        popNode(pages.get(page.getId()));
+
+    /**
+     * Returns the number of segments, each with its own policy.
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Returns the hits of {@link #getHits()} on pages of one segment, to
+     * tell how well its policy does.
+     */
+    public long getHits(int segment) {
+        return segments[segment].hits.sum();
+    }
+
+    /**
+     * Returns the misses of {@link #getMisses()} on pages of one segment.
+     */
+    public long getMisses(int segment) {
+        return segments[segment].misses.sum();
+    }
+
+    @Override
+    public void setWriteBack(WriteBack writeBack) {
+        this.writeBack = writeBack;
     }
 
     @Override
     public void add(Page page) {
-        if (!pages.containsKey(page.getId())) {
-            internalAdd(page);
-            if (pages.size() > this.capacity) {
-                removeLast();
-            }
-        } else {
-            popNode(pages.get(page.getId()));
+        Frame frame = pages.get(page.getId());
+        if (frame != null) {
+            accessed(frame);
+            return;
+        }
+        Frame added = new Frame(page.getId());
+        if (pages.putIfAbsent(page.getId(), added) != null) {
+            return;
+        }
+        added.loaded(page);
+        Segment segment = segmentOf(page.getId());
+        if (segment.admit(added, true)) {
+            makeRoom(segment, added);
         }
     }
 
     @Override
     public void remove(PageId pageId) {
-        ListNode node = pages.remove(pageId);
-        if (node == null) {
+        Frame frame = pages.remove(pageId);
+        if (frame == null || frame.page == null) {
             return;
         }
-        removeNode(node);
+        if (segmentOf(pageId).removeFrame(frame)) {
+            released(frame.page);
+        }
     }
 
     @Override
     public void refresh(Page page) {
-        popNode(pages.get(page.getId()));
+        Frame frame = pages.get(page.getId());
+        if (frame != null) {
+            accessed(frame);
+        }
     }
 
     @Override
     public void traverse(Traverser traverser) {
-        pages.forEach((pageId, node) -> {
+        pages.forEach((pageId, frame) -> {
+            Page page = frame.page;
+            if (page == null) {
+                return;
+            }
             try {
-                traverser.action(node.page);
+                traverser.action(page);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -102,59 +272,216 @@ public class DefaultPageManager implements PageManager {
 
     @Override
     public void evict(EvictFunction evictFunction) {
-        Map<PageId, ListNode> iterator = Maps.newHashMap(this.pages);
-        iterator.forEach((pageId, node) -> {
-            if (node.page.isDirty() != null) {
+        Map<PageId, Frame> snapshot = Maps.newHashMap(this.pages);
+        snapshot.forEach((pageId, frame) -> {
+            if (frame.page != null && frame.page.isDirty() != null) {
                 remove(pageId);
-                evictFunction.action(node.page);
+                evictFunction.action(frame.page);
             }
         });
     }
 
-    private void popNode(ListNode node) {
-        removeNode(node);
-
-        ListNode prevFirst = head.next;
-        head.next = node;
-        node.prev = head;
+    private Segment segmentOf(PageId pageId) {
+        int h = pageId.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
 
-        node.next = prevFirst;
-        prevFirst.prev = node;
+    /**
+     * Evicts one page if the pool is over capacity after a page was admitted
+     * to the specified segment, from that segment if it can. The admitted
+     * page itself is only evicted when every other page is dirty.
+     *
+     * @return false if the admitted page was evicted
+     */
+    private boolean makeRoom(Segment first, Frame admitted) {
+        if (size.get() <= capacity) {
+            return true;
+        }
+        int start = 0;
+        while (segments[start] != first) {
+            start++;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            Frame victim = segments[(start + i) % segments.length].evict(admitted, false);
+            if (victim != null) {
+                pages.remove(victim.pageId, victim);
+                released(victim.page);
+                return true;
+            }
+        }
+        WriteBack writeBack = this.writeBack;
+        for (int i = 0; writeBack != null && i < segments.length; i++) {
+            Segment segment = segments[(start + i) % segments.length];
+            Frame victim = segment.evict(admitted, true);
+            if (victim != null && writeBack(segment, victim, writeBack)) {
+                return true;
+            }
+        }
+        if (size.get() <= capacity) {
+            // concurrent admissions evicted the pages this one was to evict
+            return true;
+        }
+        if (first.removeFrame(admitted)) {
+            pages.remove(admitted.pageId, admitted);
+            released(admitted.page);
+            return false;
+        }
+        // removed meanwhile
+        return true;
     }
 
-    private void removeNode(ListNode node) {
-        if (node.prev != null) {
-            node.prev.next = node.next;
+    /**
+     * Writes a dirty page evicted from a segment, which stays in the map
+     * meanwhile so that requests for it do not read it from its file, and
+     * then removes it, unless it was dirtied again or could not be written,
+     * in which case it is admitted again.
+     *
+     * @return whether the page left the pool
+     */
+    private boolean writeBack(Segment segment, Frame victim, WriteBack writeBack) {
+        boolean written;
+        try {
+            if (victim.page.isDirty() != null) {
+                writeBack.write(victim.page);
+            }
+            written = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            written = false;
         }
-        if (node.next != null) {
-            node.next.prev = node.prev;
+        if (written && victim.page.isDirty() == null) {
+            pages.remove(victim.pageId, victim);
+            released(victim.page);
+            return true;
         }
+        if (!segment.admit(victim, true)) {
+            // removed while it was written
+            released(victim.page);
+            return true;
+        }
+        return false;
     }
 
     /**
-     * if the page is dirty (holds a transactionId), we cannot remove it as it's not able to flush it yet (transaction not finished)
+     * The pages of one segment, tracked by its policy, whose monitor guards
+     * them, and the requests for them.
      */
-    private void removeLast() {
-        ListNode last = tail.prev;
-        while (last != head && last.page.isDirty() != null) {
-            last = last.prev;
+    private final class Segment {
+        private final ReplacementPolicy policy;
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private Segment(ReplacementPolicy policy) {
+            this.policy = policy;
         }
-        if (last == null) {
-            return;
+
+        /**
+         * Adds a loaded frame to this segment, unless it was removed from the
+         * map meanwhile.
+         *
+         * @param requested whether the page was requested, rather than prefetched
+         * @return whether the frame was added
+         */
+        boolean admit(Frame frame, boolean requested) {
+            synchronized (policy) {
+                if (pages.get(frame.pageId) != frame) {
+                    return false;
+                }
+                ReplacementPolicy.Entry entry = policy.admit(frame.pageId, requested);
+                entry.attach(frame);
+                frame.entry = entry;
+                size.incrementAndGet();
+                return true;
+            }
+        }
+
+        /**
+         * Removes a frame from this segment.
+         *
+         * @return whether the frame was in this segment
+         */
+        boolean removeFrame(Frame frame) {
+            synchronized (policy) {
+                ReplacementPolicy.Entry entry = frame.entry;
+                if (entry == null) {
+                    return false;
+                }
+                policy.remove(entry);
+                frame.entry = null;
+                size.decrementAndGet();
+                return true;
+            }
+        }
+
+        /**
+         * Removes the page the policy chooses from this segment; the caller
+         * removes it from the map.
+         *
+         * @param spared a frame not to evict
+         * @param dirty whether dirty pages may be chosen
+         * @return the frame of the evicted page, or null if no other page can be evicted
+         */
+        Frame evict(Frame spared, boolean dirty) {
+            synchronized (policy) {
+                ReplacementPolicy.Entry entry = policy.evict(e -> {
+                    Frame frame = (Frame) e.attachment();
+                    return frame != spared && (dirty || frame.page.isDirty() == null);
+                });
+                if (entry == null) {
+                    return null;
+                }
+                Frame frame = (Frame) entry.attachment();
+                frame.entry = null;
+                size.decrementAndGet();
+                return frame;
+            }
         }
-        removeNode(last);
-        pages.remove(last.page.getId());
     }
 
-    private static final class ListNode {
-        private final Page page;
+    /**
+     * A slot of the pool: the page, once read, and its policy entry, once admitted.
+     */
+    private static final class Frame {
+        private final PageId pageId;
+
+        private final CountDownLatch read = new CountDownLatch(1);
 
-        private ListNode prev;
+        private volatile Page page;
 
-        private ListNode next;
+        /** The entry of this frame with the policy of its segment, while it is in the segment */
+        private volatile ReplacementPolicy.Entry entry;
 
-        public ListNode(Page page) {
+        private Frame(PageId pageId) {
+            this.pageId = pageId;
+        }
+
+        private void loaded(Page page) {
             this.page = page;
+            read.countDown();
+        }
+
+        /**
+         * Waits until the page is read.
+         *
+         * @return the page, or null if it could not be read
+         */
+        private Page await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    read.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return page;
         }
     }
 }
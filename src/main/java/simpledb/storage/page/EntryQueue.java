@@ -0,0 +1,79 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * An intrusive doubly linked list of policy entries, most recent first,
+ * so that entries move between lists in constant time.
+ */
+final class EntryQueue {
+
+    /**
+     * An entry that is on at most one queue.
+     */
+    static class Node extends ReplacementPolicy.Entry {
+        private Node prev;
+
+        private Node next;
+
+        /** The queue this entry is on, or null once it left the pool */
+        EntryQueue queue;
+
+        Node(PageId pageId) {
+            super(pageId);
+        }
+    }
+
+    private final Node head = new Node(null);
+
+    private int size;
+
+    EntryQueue() {
+        head.prev = head;
+        head.next = head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void addFirst(Node node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+        node.queue = this;
+        size++;
+    }
+
+    void remove(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.queue = null;
+        size--;
+    }
+
+    void moveToFront(Node node) {
+        remove(node);
+        addFirst(node);
+    }
+
+    /**
+     * Removes the least recent entry the predicate accepts.
+     *
+     * @return the entry, or null if the predicate accepts none
+     */
+    Node removeLast(Predicate<ReplacementPolicy.Entry> evictable) {
+        for (Node node = head.prev; node != head; node = node.prev) {
+            if (evictable.test(node)) {
+                remove(node);
+                return node;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.storage.page;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed number of page-sized frames carved out of direct ByteBuffer slabs
+ * allocated up front, so that the bytes of the pages in a buffer pool live
+ * outside the Java heap. The free frames are kept on a stack of frame
+ * numbers.
+ * <p>
+ * The arena does not know what is built over a frame: its user frees a frame
+ * once nothing reads the page built over it any more, see
+ * {@link ArenaPageManager}.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class FrameArena {
+
+    /** The largest slab allocated, below the 2GB limit of a ByteBuffer. */
+    private static final int MAX_SLAB_SIZE = 1 << 30;
+
+    private final int frameSize;
+
+    private final int framesPerSlab;
+
+    private final ByteBuffer[] slabs;
+
+    private final int[] free;
+
+    private int freeCount;
+
+    /**
+     * @param frames the number of frames
+     * @param frameSize the number of bytes of a frame, the page size
+     */
+    public FrameArena(int frames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerSlab = Math.max(1, MAX_SLAB_SIZE / frameSize);
+        this.slabs = new ByteBuffer[(frames + framesPerSlab - 1) / framesPerSlab];
+        for (int i = 0; i < slabs.length; i++) {
+            int slabFrames = Math.min(framesPerSlab, frames - i * framesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(slabFrames * frameSize);
+        }
+        this.free = new int[frames];
+        // hand out the low frames first
+        for (int i = 0; i < frames; i++) {
+            free[i] = frames - 1 - i;
+        }
+        this.freeCount = frames;
+    }
+
+    /**
+     * Takes a free frame.
+     *
+     * @return the number of the frame, or -1 if every frame is still owned
+     */
+    public synchronized int allocate() {
+        if (freeCount == 0) {
+            return -1;
+        }
+        return free[--freeCount];
+    }
+
+    /**
+     * Returns a buffer over the bytes of a frame, positioned at its start.
+     */
+    public ByteBuffer frame(int frame) {
+        ByteBuffer b = slabs[frame / framesPerSlab].duplicate();
+        int offset = (frame % framesPerSlab) * frameSize;
+        b.position(offset);
+        b.limit(offset + frameSize);
+        return b.slice();
+    }
+
+    /**
+     * Hands back a frame, which may be allocated again right away.
+     */
+    public synchronized void free(int frame) {
+        free[freeCount++] = frame;
+    }
+
+    /**
+     * Returns the number of frames that can be allocated right now.
+     */
+    public synchronized int available() {
+        return freeCount;
+    }
+
+    public int capacity() {
+        return free.length;
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.storage.page;
+
+import simpledb.core.file.FileChannelManager;
+import simpledb.core.file.PageFileChannel;
+import simpledb.storage.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Approximate free space of every page of a heap file, so that inserts can go
+ * straight to a page with room instead of locking every page before it.
+ * <p>
+ * The map is kept in a side file next to the heap file, one byte per page:
+ * 0 means the page has not been seen yet, otherwise the byte is the number of
+ * free slots plus one, capped at {@link #MAX_FREE}. Pages the map has not seen
+ * are treated as candidates, so a missing or discarded side file only costs
+ * one extra look at each page.
+ * <p>
+ * The map is a hint: callers still check the page itself under its lock, and
+ * report what they find through {@link #update}. Entries are written to the
+ * side file together with the pages they describe, see {@link #persist}. A
+ * side file older than the heap file was not kept up to date with it and is
+ * ignored.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class FreeSpaceMap {
+
+    public static final String SUFFIX = ".fsm";
+
+    private static final int UNKNOWN = 0;
+
+    private static final int MAX_FREE = 0xFF - 1;
+
+    private final PageFileChannel channel;
+
+    private byte[] entries;
+
+    public FreeSpaceMap(File heapFile) {
+        File file = new File(heapFile.getPath() + SUFFIX);
+        this.channel = FileChannelManager.getInstance().open(file);
+        this.entries = load(file, heapFile);
+    }
+
+    private byte[] load(File file, File heapFile) {
+        try {
+            long size = channel.size();
+            if (size == 0 || file.lastModified() < heapFile.lastModified()
+                    || size > heapFile.length() / BufferPool.getPageSize()) {
+                return new byte[0];
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            channel.readFully(buffer, 0);
+            return buffer.array();
+        } catch (IOException e) {
+            // the map is only a hint, start over without it
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Returns the first page at or after from that may have a free slot, or -1
+     * if no page before numPages may.
+     */
+    public synchronized int nextCandidate(int from, int numPages) {
+        for (int pageNo = from; pageNo < numPages; pageNo++) {
+            if (pageNo >= entries.length) {
+                return pageNo;
+            }
+            int entry = entries[pageNo] & 0xFF;
+            if (entry == UNKNOWN || entry > 1) {
+                return pageNo;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records the number of free slots of a page.
+     */
+    public synchronized void update(int pageNo, int freeSlots) {
+        if (pageNo >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(pageNo + 1, entries.length * 2));
+        }
+        entries[pageNo] = (byte) (Math.min(freeSlots, MAX_FREE) + 1);
+    }
+
+    /**
+     * Writes the entries of the pages from fromPage to toPage, both inclusive,
+     * to the side file.
+     */
+    public void persist(int fromPage, int toPage) throws IOException {
+        ByteBuffer buffer;
+        synchronized (this) {
+            int end = Math.min(toPage + 1, entries.length);
+            if (fromPage >= end) {
+                return;
+            }
+            buffer = ByteBuffer.wrap(Arrays.copyOfRange(entries, fromPage, end));
+        }
+        channel.write(buffer, fromPage);
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The ids of pages recently evicted, oldest first, which the history based
+ * policies remember to recognize pages that come back.
+ */
+final class GhostList {
+
+    private final LinkedHashSet<PageId> pageIds = new LinkedHashSet<>();
+
+    int size() {
+        return pageIds.size();
+    }
+
+    void add(PageId pageId) {
+        pageIds.add(pageId);
+    }
+
+    /**
+     * @return whether the page was remembered
+     */
+    boolean remove(PageId pageId) {
+        return pageIds.remove(pageId);
+    }
+
+    /**
+     * Forgets the oldest pages until at most the specified number are left.
+     */
+    void trim(int max) {
+        Iterator<PageId> it = pageIds.iterator();
+        for (int n = pageIds.size(); n > max && it.hasNext(); n--) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * The LRU-K policy of O'Neil, O'Neil and Weikum: evicts the page whose K-th
+ * most recent request is the oldest, and first of all pages requested fewer
+ * than K times, least recently requested first. A page read once by a scan
+ * is therefore evicted before any page requested twice. The history of
+ * evicted pages is remembered for as many pages as the segment holds, so
+ * that pages coming back keep their earlier requests.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    public static final Factory FACTORY = capacity -> new LruKPolicy(capacity, DEFAULT_K);
+
+    private final int k;
+
+    /** The resident pages, the next to evict first */
+    private final TreeSet<KEntry> entries = new TreeSet<>(Comparator
+            .comparingLong((KEntry e) -> e.history[e.history.length - 1])
+            .thenComparingLong(e -> e.history[0])
+            .thenComparingLong(e -> e.seq));
+
+    private final Map<PageId, long[]> retained;
+
+    /** Counts requests, to order them */
+    private long time;
+
+    private long seq;
+
+    private static final class KEntry extends Entry {
+        /** The times of the last K requests, most recent first, 0 if none */
+        private final long[] history;
+
+        private final long seq;
+
+        private boolean resident = true;
+
+        private KEntry(PageId pageId, long[] history, long seq) {
+            super(pageId);
+            this.history = history;
+            this.seq = seq;
+        }
+    }
+
+    public LruKPolicy(int capacity, int k) {
+        this.k = k;
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public Entry admit(PageId pageId, boolean requested) {
+        long[] history = retained.remove(pageId);
+        if (history == null) {
+            history = new long[k];
+        }
+        if (requested) {
+            record(history);
+        }
+        KEntry entry = new KEntry(pageId, history, seq++);
+        entries.add(entry);
+        return entry;
+    }
+
+    private void record(long[] history) {
+        System.arraycopy(history, 0, history, 1, history.length - 1);
+        history[0] = ++time;
+    }
+
+    @Override
+    public synchronized void access(Entry entry) {
+        KEntry accessed = (KEntry) entry;
+        if (!accessed.resident) {
+            return;
+        }
+        // the key of an entry must not change while it is in the set
+        entries.remove(accessed);
+        record(accessed.history);
+        entries.add(accessed);
+    }
+
+    @Override
+    public void remove(Entry entry) {
+        KEntry removed = (KEntry) entry;
+        if (removed.resident) {
+            entries.remove(removed);
+            removed.resident = false;
+        }
+    }
+
+    @Override
+    public Entry evict(Predicate<Entry> evictable) {
+        Iterator<KEntry> it = entries.iterator();
+        while (it.hasNext()) {
+            KEntry entry = it.next();
+            if (evictable.test(entry)) {
+                it.remove();
+                entry.resident = false;
+                retained.put(entry.getPageId(), Arrays.copyOf(entry.history, k));
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "LRU-" + k;
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * Evicts the least recently requested page. A single scan larger than the
+ * pool flushes every other page out of it.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    public static final Factory FACTORY = capacity -> new LruPolicy();
+
+    private final EntryQueue queue = new EntryQueue();
+
+    @Override
+    public Entry admit(PageId pageId, boolean requested) {
+        EntryQueue.Node node = new EntryQueue.Node(pageId);
+        queue.addFirst(node);
+        return node;
+    }
+
+    @Override
+    public synchronized void access(Entry entry) {
+        EntryQueue.Node node = (EntryQueue.Node) entry;
+        if (node.queue != null) {
+            queue.moveToFront(node);
+        }
+    }
+
+    @Override
+    public void remove(Entry entry) {
+        EntryQueue.Node node = (EntryQueue.Node) entry;
+        if (node.queue != null) {
+            queue.remove(node);
+        }
+    }
+
+    @Override
+    public Entry evict(Predicate<Entry> evictable) {
+        return queue.removeLast(evictable);
+    }
+
+    @Override
+    public String toString() {
+        return "LRU";
+    }
+}
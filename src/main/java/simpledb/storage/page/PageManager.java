@@ -17,6 +17,33 @@ public interface PageManager {
 
     Page get(PageId pageId);
 
+    /**
+     * Loads the page into the pool without a transaction, if it is not
+     * resident yet. Used for read-ahead: only clean pages are read, and a
+     * version of the page already in the pool is never replaced.
+     *
+     * @return the resident page, or null if it could not be loaded
+     */
+    Page prefetch(PageId pageId);
+
+    int capacity();
+
+    /**
+     * Returns the number of requests through {@link #getOrCreate} that found
+     * the page resident, or being read by another request.
+     */
+    default long getHits() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of requests through {@link #getOrCreate} that read
+     * the page.
+     */
+    default long getMisses() {
+        return 0;
+    }
+
     void add(Page page);
 
     void remove(PageId pageId);
@@ -27,6 +54,46 @@ public interface PageManager {
 
     void evict(EvictFunction evictFunction);
 
+    /**
+     * Lets the pool evict dirty pages when no clean page can be evicted,
+     * writing them with the specified function first, as STEAL buffer
+     * management does; null, the default, keeps dirty pages in the pool.
+     *
+     * @throws UnsupportedOperationException if the manager cannot write pages back
+     */
+    default void setWriteBack(WriteBack writeBack) {
+        if (writeBack != null) {
+            throw new UnsupportedOperationException("dirty pages cannot be evicted from " + getClass().getName());
+        }
+    }
+
+    /**
+     * Holds a page returned to a transaction, so that the memory of the page
+     * is not reused for another page while the transaction may still read
+     * it, even once the page left the pool. The hold lasts until
+     * {@link #unpin} or {@link #unpinAll}. The default does not track holds,
+     * as pages on the heap stay valid as long as they are reachable.
+     *
+     * @return false if the page left the pool before it could be held, in
+     *         which case its memory may have been reused, and the caller
+     *         gets the page again
+     */
+    default boolean pin(TransactionId transactionId, Page page) {
+        return true;
+    }
+
+    /**
+     * Releases one hold of a transaction on a page, see {@link #pin}.
+     */
+    default void unpin(TransactionId transactionId, Page page) {
+    }
+
+    /**
+     * Releases every hold of a transaction, once it completed.
+     */
+    default void unpinAll(TransactionId transactionId) {
+    }
+
     public interface Traverser {
         void action(Page page) throws IOException;
     }
@@ -34,4 +101,12 @@ public interface PageManager {
     public interface EvictFunction {
         void action(Page page);
     }
+
+    /**
+     * Writes a dirty page the pool evicts. Called without any lock of the
+     * manager held, while the page is still resident.
+     */
+    public interface WriteBack {
+        void write(Page page) throws IOException;
+    }
 }
@@ -0,0 +1,169 @@
+package simpledb.storage.page;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sequential read-ahead for a single scan. The scan reports every page it
+ * accesses together with the page it will access next; while the accesses
+ * stay sequential, the pages after it are loaded into the buffer pool on a
+ * background I/O executor, so the scan finds them resident when it gets there.
+ * <p>
+ * The number of pages kept ahead of the scan starts small and doubles every
+ * time the scan catches up with a prefetch still in progress, up to
+ * {@link #MAX_POOL_FRACTION} of the buffer pool. A non-sequential access
+ * starts over.
+ * <p>
+ * Not thread safe: an instance belongs to one iterator.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class PageReadAhead {
+
+    /**
+     * Maximum fraction of the buffer pool a single scan may prefetch ahead of itself.
+     */
+    public static final double MAX_POOL_FRACTION = 0.25;
+
+    private static final int INITIAL_WINDOW = 2;
+
+    private static final ExecutorService IO_EXECUTOR = Executors.newFixedThreadPool(4, new ThreadFactory());
+
+    /**
+     * Tells which page follows a page in scan order.
+     */
+    public interface Successor {
+        /**
+         * @param pid the id of a page
+         * @param page the page itself
+         * @return the id of the page after it, or null at the end of the scan
+         */
+        PageId next(PageId pid, Page page);
+    }
+
+    private final BufferPool bufferPool;
+
+    private final Successor successor;
+
+    private final int maxWindow;
+
+    private int window = INITIAL_WINDOW;
+
+    /** The page the scan is expected to access next. */
+    private PageId expected;
+
+    /** The next page to prefetch, null once the end of the scan is reached. */
+    private PageId frontier;
+
+    /** Pages prefetched past the scan position that it has not accessed yet. */
+    private int ahead;
+
+    private Future<PageId> inFlight;
+
+    public PageReadAhead(BufferPool bufferPool, Successor successor) {
+        this.bufferPool = bufferPool;
+        this.successor = successor;
+        this.maxWindow = Math.max(1, (int) (bufferPool.getNumPages() * MAX_POOL_FRACTION));
+    }
+
+    /**
+     * Records that the scan accessed a page, and prefetches ahead of it if
+     * the access was sequential.
+     *
+     * @param pid the page the scan just accessed
+     * @param next the page it will access after that, or null if it is the last one
+     */
+    public void accessed(PageId pid, PageId next) {
+        boolean sequential = pid.equals(expected);
+        expected = next;
+        if (!sequential) {
+            reset();
+            expected = next;
+            frontier = next;
+            return;
+        }
+        if (ahead > 0) {
+            ahead--;
+        }
+        if (inFlight != null) {
+            if (!inFlight.isDone()) {
+                // caught up with the prefetcher; keep more pages in flight
+                window = Math.min(maxWindow, window * 2);
+                return;
+            }
+            frontier = resolve(inFlight);
+            inFlight = null;
+        }
+        if (ahead == 0) {
+            // the scan overtook the prefetched pages
+            frontier = next;
+        }
+        int count = Math.min(window, maxWindow) - ahead;
+        if (frontier == null || count <= 0 || ahead > window / 2) {
+            return;
+        }
+        final PageId from = frontier;
+        ahead += count;
+        inFlight = IO_EXECUTOR.submit(() -> prefetch(from, count));
+    }
+
+    /**
+     * Forgets the access history, e.g. when the scan is rewound.
+     */
+    public void reset() {
+        window = INITIAL_WINDOW;
+        expected = null;
+        frontier = null;
+        ahead = 0;
+        inFlight = null;
+    }
+
+    /**
+     * Loads up to count pages starting at from.
+     *
+     * @return the page after the last one loaded
+     */
+    private PageId prefetch(PageId from, int count) {
+        PageId current = from;
+        for (int i = 0; i < count && current != null; i++) {
+            Page page = bufferPool.prefetchPage(current);
+            if (page == null) {
+                return null;
+            }
+            current = successor.next(current, page);
+        }
+        return current;
+    }
+
+    private static PageId resolve(Future<PageId> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // read-ahead is best effort; the scan reads the page itself
+            return null;
+        }
+    }
+
+    private static final class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "read-ahead-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * Decides which page a segment of a {@link DefaultPageManager} evicts.
+ * <p>
+ * A policy keeps an {@link Entry} for each resident page of its segment.
+ * {@link #admit}, {@link #remove} and {@link #evict} are called holding the
+ * monitor of the policy; {@link #access} is called without any lock, from any
+ * thread, possibly for an entry that was removed meanwhile, so that hits do
+ * not contend: policies that reorder entries on access synchronize it.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Starts tracking a page that entered the pool.
+     *
+     * @param requested whether the page was requested, rather than prefetched
+     * @return the entry of the page
+     */
+    Entry admit(PageId pageId, boolean requested);
+
+    /**
+     * Records a request for a resident page.
+     */
+    void access(Entry entry);
+
+    /**
+     * Stops tracking a page that left the pool other than by {@link #evict}.
+     */
+    void remove(Entry entry);
+
+    /**
+     * Chooses a page to evict among those the predicate accepts, and stops
+     * tracking it.
+     *
+     * @return the entry of the page, or null if no page can be evicted
+     */
+    Entry evict(Predicate<Entry> evictable);
+
+    /**
+     * Creates the policy of a segment.
+     */
+    interface Factory {
+        /**
+         * @param capacity the number of pages the segment is expected to hold
+         */
+        ReplacementPolicy create(int capacity);
+    }
+
+    /**
+     * A resident page, as a policy tracks it. The manager attaches its own
+     * state to the entry.
+     */
+    class Entry {
+        private final PageId pageId;
+
+        private volatile Object attachment;
+
+        protected Entry(PageId pageId) {
+            this.pageId = pageId;
+        }
+
+        public PageId getPageId() {
+            return pageId;
+        }
+
+        public Object attachment() {
+            return attachment;
+        }
+
+        public void attach(Object attachment) {
+            this.attachment = attachment;
+        }
+    }
+}
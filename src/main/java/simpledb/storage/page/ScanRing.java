@@ -0,0 +1,64 @@
+package simpledb.storage.page;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small private ring of frames a large sequential scan reads its pages
+ * into, instead of the buffer pool: each page read reuses the frame of the
+ * page read that many pages before, so the scan neither evicts the working
+ * set of the pool nor grows the heap with pages it will not read again.
+ * <p>
+ * A frame is only reused once the scan moved past its page, so pages read
+ * through a ring are only valid until the scan has read as many more pages.
+ * Not thread safe: an instance belongs to one iterator.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class ScanRing {
+
+    public static final int DEFAULT_FRAMES = 16;
+
+    private final ByteBuffer[] frames;
+
+    private int next;
+
+    private long reads;
+
+    public ScanRing() {
+        this(DEFAULT_FRAMES);
+    }
+
+    public ScanRing(int frames) {
+        this.frames = new ByteBuffer[frames];
+    }
+
+    /**
+     * Reads a page from its file into the next frame of the ring.
+     */
+    public Page read(PageId pageId) {
+        ByteBuffer frame = frames[next];
+        if (frame == null || frame.capacity() != BufferPool.getPageSize()) {
+            frame = ByteBuffer.allocate(BufferPool.getPageSize());
+            frames[next] = frame;
+        }
+        next = (next + 1) % frames.length;
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+        reads++;
+        return dbFile.readPage(pageId, frame);
+    }
+
+    /**
+     * Returns the number of pages read into the ring.
+     */
+    public long getReads() {
+        return reads;
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.storage.page;
+
+import simpledb.storage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * The 2Q policy of Johnson and Shasha. Pages enter a FIFO queue, A1in, and
+ * are evicted from it without disturbing the main LRU queue, Am; only pages
+ * requested again after they left A1in, while their ids are still in the
+ * ghost queue A1out, are promoted to Am. A scan thus only cycles through A1in.
+ *
+ * @author nick
+ * @e-mail cz739@nyu.edu
+ * 2026/10/18
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    public static final Factory FACTORY = TwoQueuePolicy::new;
+
+    /** The share of the capacity for A1in, as suggested by the paper */
+    private static final double IN_SHARE = 0.25;
+
+    /** The number of evicted ids A1out remembers, relative to the capacity */
+    private static final double OUT_SHARE = 0.5;
+
+    private final EntryQueue in = new EntryQueue();
+
+    private final EntryQueue main = new EntryQueue();
+
+    private final GhostList out = new GhostList();
+
+    private final int maxIn;
+
+    private final int maxOut;
+
+    public TwoQueuePolicy(int capacity) {
+        this.maxIn = Math.max(1, (int) (capacity * IN_SHARE));
+        this.maxOut = Math.max(1, (int) (capacity * OUT_SHARE));
+    }
+
+    @Override
+    public Entry admit(PageId pageId, boolean requested) {
+        EntryQueue.Node node = new EntryQueue.Node(pageId);
+        if (out.remove(pageId)) {
+            main.addFirst(node);
+        } else {
+            in.addFirst(node);
+        }
+        return node;
+    }
+
+    /**
+     * Moves pages of Am to its front; requests for pages still in A1in are
+     * correlated with the one that brought them in, and ignored.
+     */
+    @Override
+    public synchronized void access(Entry entry) {
+        EntryQueue.Node node = (EntryQueue.Node) entry;
+        if (node.queue == main) {
+            main.moveToFront(node);
+        }
+    }
+
+    @Override
+    public void remove(Entry entry) {
+        EntryQueue.Node node = (EntryQueue.Node) entry;
+        if (node.queue != null) {
+            node.queue.remove(node);
+        }
+    }
+
+    @Override
+    public Entry evict(Predicate<Entry> evictable) {
+        EntryQueue.Node node = null;
+        if (in.size() > maxIn || main.size() == 0) {
+            node = evictIn(evictable);
+        }
+        if (node == null) {
+            node = main.removeLast(evictable);
+        }
+        if (node == null) {
+            node = evictIn(evictable);
+        }
+        return node;
+    }
+
+    private EntryQueue.Node evictIn(Predicate<Entry> evictable) {
+        EntryQueue.Node node = in.removeLast(evictable);
+        if (node != null) {
+            out.add(node.getPageId());
+            out.trim(maxOut);
+        }
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "2Q";
+    }
+}
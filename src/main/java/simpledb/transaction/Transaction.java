@@ -41,20 +41,31 @@ public class Transaction {
         transactionComplete(true);
     }
 
-    /** Handle the details of transaction commit / abort */
+    /** Handle the details of transaction commit / abort.
+        A commit that fails leaves the transaction running, for the caller
+        to abort it; an abort that fails still ends it and releases its
+        locks, and recovery undoes its changes. */
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
             //write abort log record and rollback transaction
             if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
+                started = false;
+                try {
+                    Database.getLogFile().logAbort(tid); //does rollback too
+                } finally {
+                    // Release locks, even if the rollback failed
+                    Database.getBufferPool().transactionComplete(tid, false);
+                }
+                return;
             }
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            Database.getBufferPool().transactionComplete(tid, true); // release locks
 
-            // write commit log record
-            if (!abort) {
+            // write commit log record; in STEAL/NO-FORCE mode the buffer pool
+            // wrote it, before releasing the locks
+            if (!Database.getBufferPool().isStealNoForce()) {
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -0,0 +1,126 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.storage.page.ArenaPageManager;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ArenaPageManagerTest extends SimpleDbTestBase {
+
+    private ArenaPageManager pages;
+
+    @Before public void createPool() {
+        pages = new ArenaPageManager(10);
+        Database.resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Scans of files larger than the pool read pages into the arena.
+     */
+    @Test public void scan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        assertTrue(hf.numPages() > pages.capacity());
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertTrue(pages.getArena().available() < pages.getArena().capacity());
+
+        List<List<Integer>> btreeTuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, btreeTuples, 0);
+        Database.resetBufferPool(new BufferPool(new ArenaPageManager(10)));
+        SystemTestUtil.matchTuples(bf, btreeTuples);
+    }
+
+    /**
+     * A page the pool evicted keeps its contents while it is still in use,
+     * however many pages are read after it.
+     */
+    @Test public void evictedPageInUse() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0),
+            Permissions.READ_ONLY);
+        byte[] before = first.getPageData().clone();
+
+        for (int i = 1; i < hf.numPages(); i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertArrayEquals(before, first.getPageData());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Frames of evicted pages are reused once nothing holds them, without
+     * waiting for the garbage collector.
+     */
+    @Test public void framesReused() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        List<List<Integer>> btreeTuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, btreeTuples, 0);
+        assertTrue(hf.numPages() > pages.getArena().capacity());
+
+        // the pages stay reachable, so only unpinning can give their frames back
+        List<Page> held = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < hf.numPages(); i++) {
+                held.add(Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i),
+                    Permissions.READ_ONLY));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            SystemTestUtil.matchTuples(hf, tuples);
+            SystemTestUtil.matchTuples(bf, btreeTuples);
+        }
+        assertEquals(0, pages.getHeapReads());
+        assertEquals(3 * hf.numPages(), held.size());
+    }
+
+    /**
+     * Changes made to pages in the arena reach the file, and aborted ones do not.
+     */
+    @Test public void writeAndAbort() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(Arrays.asList(-i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(1 << 20));
+        t.setField(1, new IntField(1 << 20));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, hf.getFile()), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ArenaPageManagerTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.ExternalTupleSorter;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempBTreeFile() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        return f;
+    }
+
+    /**
+     * More runs than the merge fan-in are spilled, merged in several passes
+     * and come back in order.
+     */
+    @Test public void externalSort() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        ExternalTupleSorter sorter = new ExternalTupleSorter(hf.getTupleDesc(),
+            new BTreeFileEncoder.TupleComparator(0), 100, 4);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<Integer> keys = new ArrayList<>();
+        try (ExternalTupleSorter.SortedIterator sorted = sorter.sort(it)) {
+            while (sorted.hasNext()) {
+                keys.add(((IntField) sorted.next().getField(0)).getValue());
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Integer> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            expected.add(t.get(0));
+        }
+        Collections.sort(expected);
+        assertEquals(expected, keys);
+    }
+
+    /**
+     * A B+ tree built from a heap file holds all its tuples, is well formed,
+     * and answers index scans.
+     */
+    @Test public void buildFromHeapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 500, null, tuples);
+        BTreeFile bf = BTreeFileEncoder.convert(hf, tempBTreeFile(), 1, 1000, 4);
+
+        SystemTestUtil.matchTuples(bf, tuples);
+
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+        IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(42));
+        DbFileIterator it = bf.indexIterator(tid, ipred);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(42), it.next().getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(1) == 42) {
+                expected++;
+            }
+        }
+        assertEquals(expected, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
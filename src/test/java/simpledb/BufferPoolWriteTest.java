@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.junit.After;
@@ -140,6 +141,82 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.flushAllPages() writing a batch of adjacent pages
+     */
+    @Test public void flushManyDirtyPages() throws Exception {
+    	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
+    	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+    	Database.getBufferPool().insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+    	Database.getBufferPool().flushAllPages();
+
+    	// pages 1..10 were flushed together; each should hold the tuple on disk
+    	for (int pgNo = 1; pgNo <= 10; pgNo++) {
+    		HeapPage p = (HeapPage) hfd.readPage(new HeapPageId(hfd.getId(), pgNo));
+    		assertEquals(503, p.getNumEmptySlots());
+    		assertNull(p.isDirty());
+    	}
+    }
+
+    /**
+     * A commit whose pages cannot be written fails, and keeps the locks of
+     * the transaction until it is aborted.
+     */
+    @Test public void commitFailsIfPagesCannotBeWritten() throws Exception {
+        HeapFile failing = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePages(Collection<Page> pages) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, failing.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+
+        try {
+            Database.getBufferPool().transactionComplete(tid, true);
+            fail("expected exception");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+    }
+
+    /**
+     * An abort whose rollback fails still discards the pages of the
+     * transaction and releases its locks.
+     */
+    @Test public void abortReleasesLocksIfRollbackFails() throws Exception {
+        HeapFile failing = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        Database.getBufferPool().setStealNoForce(true);
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, failing.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+
+        try {
+            Database.getBufferPool().transactionComplete(tid, false);
+            fail("expected exception");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+        TransactionId other = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(other, pid, Permissions.READ_ONLY);
+        assertNull(page.isDirty());
+        assertFalse(page.iterator().hasNext());
+        Database.getBufferPool().transactionComplete(other);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,107 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 100, null, tuples);
+        Database.getCatalog().addTable(hf, "loaded");
+    }
+
+    /**
+     * Writes rows (i, 2i) for i in [from, to) to a text file, with a
+     * malformed line in the middle.
+     */
+    private static File input(int from, int to, List<List<Integer>> expected) throws IOException {
+        File f = File.createTempFile("bulk", ".txt");
+        f.deleteOnExit();
+        try (Writer out = new FileWriter(f)) {
+            for (int i = from; i < to; i++) {
+                out.write(i + "," + 2 * i + "\n");
+                expected.add(Arrays.asList(i, 2 * i));
+                if (i == (from + to) / 2) {
+                    out.write("not,a number\n");
+                }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Rows loaded by a committed load scan back after the existing ones,
+     * whatever the chunks they were parsed in.
+     */
+    @Test public void loadAndCommit() throws Exception {
+        File f = input(0, 5000, tuples);
+        int pagesBefore = hf.numPages();
+
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(hf, 4, 1000);
+        assertEquals(5000, loader.load(t.getId(), f, ','));
+        assertEquals(1, loader.getBadLines());
+        t.commit();
+
+        assertTrue(hf.numPages() > pagesBefore);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the loaded pages are on disk, not only in the buffer pool
+        Database.resetBufferPool(100);
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, hf.getFile()), tuples);
+    }
+
+    /**
+     * Aborting the loading transaction empties the pages it appended.
+     */
+    @Test public void loadAndAbort() throws Exception {
+        File f = input(0, 3000, new ArrayList<>());
+
+        Transaction t = new Transaction();
+        t.start();
+        new BulkLoader(hf, 2, 4096).load(t.getId(), f, ',');
+        t.abort();
+
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * The parser runs COPY statements through the bulk loader.
+     */
+    @Test public void copyStatement() throws Exception {
+        File f = input(100, 600, tuples);
+        new Parser().processNextStatement("COPY loaded FROM '" + f.getPath() + "' DELIMITER ',';");
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,306 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.FieldType;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private File file;
+
+    private ColumnFile cf;
+
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("columns", ".dat");
+        file.deleteOnExit();
+        cf = open();
+        tuples = new ArrayList<>();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            cf.insertTuple(tid, row(cf, i, 2 * i, 3 * i));
+            tuples.add(Arrays.asList(i, 2 * i, 3 * i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private static Tuple row(ColumnFile f, int... values) {
+        Tuple t = new Tuple(f.getTupleDesc());
+        for (int i = 0; i < values.length; i++) {
+            t.setField(i, new IntField(values[i]));
+        }
+        return t;
+    }
+
+    private ColumnFile open() {
+        for (int i = 0; i < 3; i++) {
+            new File(file.getPath() + ColumnFile.COLUMN_SUFFIX + i).deleteOnExit();
+        }
+        ColumnFile f = new ColumnFile(file, Utility.getTupleDesc(3, "field"));
+        Database.getCatalog().addTable(f, "columns");
+        return f;
+    }
+
+    /**
+     * Inserted tuples scan back from all columns, and survive reopening.
+     */
+    @Test public void insertAndScan() throws Exception {
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ColumnFile reopened = open();
+        assertEquals(3000, reopened.numRows());
+        TransactionId tid = new TransactionId();
+        reopened.insertTuple(tid, row(reopened, -1, -2, -3));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(Arrays.asList(-1, -2, -3));
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A scan of some of the columns only reads the pages of those columns.
+     */
+    @Test public void scanColumns() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid, Collections.singletonList(2));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(3 * count), t.getField(2));
+            count++;
+        }
+        it.close();
+        assertEquals(3000, count);
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 2, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 0, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted tuples disappear from scans of any column.
+     */
+    @Test public void delete() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        List<Tuple> toDelete = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                toDelete.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : toDelete) {
+            cf.deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.removeIf(tuple -> tuple.get(0) % 2 == 0);
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        tid = new TransactionId();
+        it = cf.iterator(tid, Collections.singletonList(1));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(2, ((IntField) it.next().getField(1)).getValue() % 4);
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * The planner tells a scan of a columnar table which columns the query uses.
+     */
+    @Test public void planUsedColumns() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "c");
+        lp.addProjectField("c.field1", null);
+        lp.addOrderBy("c.field2", false);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), new HashMap<>(), false);
+        while (!(plan instanceof SeqScan)) {
+            plan = ((simpledb.execution.Operator) plan).getChildren()[0];
+        }
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2)), ((SeqScan) plan).getColumns());
+
+        lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "c");
+        lp.addProjectField("*", null);
+        plan = ((Project) lp.physicalPlan(new TransactionId(), new HashMap<>(), false)).getChildren()[0];
+        assertNull(((SeqScan) plan).getColumns());
+    }
+
+    private static int countMatches(DbFile f, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            if (p.filter(it.next())) {
+                count++;
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * A dictionary-encoded column stores codes, reads back one shared field
+     * per value, and compares its fields to plain StringFields by value.
+     */
+    @Test public void dictionaryColumn() throws Exception {
+        File dictFile = File.createTempFile("dict", ".dat");
+        dictFile.deleteOnExit();
+        TupleDesc td = new TupleDesc(new FieldType[] { FieldType.INT_TYPE, FieldType.STRING_TYPE },
+            new String[] { "id", "status" });
+        ColumnFile f = new ColumnFile(dictFile, td, Collections.singletonList(1));
+        new File(f.getColumnFile(0).getPath()).deleteOnExit();
+        new File(f.getColumnFile(1).getPath()).deleteOnExit();
+        new File(f.getColumnFile(1).getPath() + StringDictionary.SUFFIX).deleteOnExit();
+        Database.getCatalog().addTable(f, "dict");
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("status" + (i % 5), FieldType.STRING_LEN));
+            f.insertTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(5, f.getDictionary(1).size());
+        assertEquals(f.numPages(0), f.numPages(1));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f = new ColumnFile(dictFile, td, Collections.singletonList(1));
+        Database.getCatalog().addTable(f, "dict");
+        assertEquals(5, f.getDictionary(1).size());
+
+        tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Map<Field, Field> shared = new HashMap<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            StringField plain = new StringField("status" + (i % 5), FieldType.STRING_LEN);
+            Field status = t.getField(1);
+            assertTrue(status instanceof DictionaryStringField);
+            assertEquals(plain, status);
+            assertEquals(status, plain);
+            assertEquals(plain.hashCode(), status.hashCode());
+            assertSame(shared.computeIfAbsent(plain, k -> status), status);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Predicate eq = new Predicate(1, Predicate.Op.EQUALS, new StringField("status3", FieldType.STRING_LEN));
+        assertEquals(400, countMatches(f, eq));
+        Predicate missing = new Predicate(1, Predicate.Op.EQUALS, new StringField("other", FieldType.STRING_LEN));
+        assertEquals(0, countMatches(f, missing));
+
+        // a value added to the dictionary after a lookup missed it is found
+        tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("other", FieldType.STRING_LEN));
+        f.insertTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, countMatches(f, missing));
+    }
+
+    /**
+     * Values a committed transaction added to a dictionary are on disk
+     * before its pages or their log records are, so a crash that loses
+     * whatever the dictionary did not force leaves every row decodable.
+     */
+    @Test public void dictionaryCrash() throws Exception {
+        File dictFile = File.createTempFile("dict", ".dat");
+        dictFile.deleteOnExit();
+        TupleDesc td = new TupleDesc(new FieldType[] { FieldType.INT_TYPE, FieldType.STRING_TYPE },
+            new String[] { "id", "name" });
+        ColumnFile f = new ColumnFile(dictFile, td, Collections.singletonList(1));
+        File dictionary = new File(f.getColumnFile(1).getPath() + StringDictionary.SUFFIX);
+        new File(f.getColumnFile(0).getPath()).deleteOnExit();
+        new File(f.getColumnFile(1).getPath()).deleteOnExit();
+        dictionary.deleteOnExit();
+        Database.getCatalog().addTable(f, "dict");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setStealNoForce(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 200; i++) {
+            Tuple tuple = new Tuple(td);
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new StringField("name" + i, FieldType.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple);
+        }
+        t.commit();
+
+        // crash, losing what the dictionary did not force
+        try (RandomAccessFile raf = new RandomAccessFile(dictionary, "rw")) {
+            raf.setLength(f.getDictionary(1).getForcedLength());
+        }
+        Database.reset();
+        cf = open();
+        f = new ColumnFile(dictFile, td, Collections.singletonList(1));
+        Database.getCatalog().addTable(f, "dict");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setStealNoForce(true);
+        Database.getLogFile().recover();
+        // the rows recovery redid are counted when the table is opened
+        f = new ColumnFile(dictFile, td, Collections.singletonList(1));
+        Database.getCatalog().addTable(f, "dict");
+        assertEquals(200, f.getDictionary(1).size());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple tuple = it.next();
+            int i = ((IntField) tuple.getField(0)).getValue();
+            assertEquals(new StringField("name" + i, FieldType.STRING_LEN), tuple.getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(200, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
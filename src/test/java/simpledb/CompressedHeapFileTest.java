@@ -0,0 +1,81 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.page.FreeSpaceMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private CompressedHeapFile createCompressed(List<List<Integer>> tuples) throws Exception {
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        File compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        new File(compressed.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        new File(compressed.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        assertTrue(CompressedHeapFile.estimateRatio(plain, 4) > 1.0);
+        CompressedHeapFile.compress(plain, compressed);
+
+        CompressedHeapFile hf = new CompressedHeapFile(compressed, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(plain.length() / BufferPool.getPageSize(), hf.numPages());
+        assertTrue(compressed.length() < plain.length());
+        return hf;
+    }
+
+    /**
+     * Pages of a compressed file read back as the pages of the original file.
+     */
+    @Test public void readCompressed() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CompressedHeapFile hf = createCompressed(tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertTrue(hf.getStats().getRatio() > 1.0);
+        assertEquals(hf.numPages(), hf.getStats().getPagesRead());
+    }
+
+    /**
+     * Written pages are appended in compressed form and survive reopening.
+     */
+    @Test public void writeCompressed() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CompressedHeapFile hf = createCompressed(tuples);
+        int numPages = hf.numPages();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            hf.insertTuple(tid, Utility.getHeapTuple(new int[] { i, -i }));
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(hf.numPages() > numPages);
+        assertTrue(hf.getStats().getPagesWritten() > 0);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.page.DefaultPageManager;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DefaultPageManagerTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    /**
+     * Counts the pages it reads, and is slow to read them.
+     */
+    private static class CountingPageManager extends DefaultPageManager {
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        CountingPageManager(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected Page load(PageId pageId) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.load(pageId);
+        }
+
+        @Override
+        protected void released(Page page) {
+            released.incrementAndGet();
+        }
+    }
+
+    @Before public void createFile() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private int resident(DefaultPageManager pages) {
+        int[] n = new int[1];
+        pages.traverse(page -> n[0]++);
+        return n[0];
+    }
+
+    /**
+     * Threads that miss on the same page at once share a single read.
+     */
+    @Test public void sharedRead() throws Exception {
+        CountingPageManager pages = new CountingPageManager(10);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<Page>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                barrier.await();
+                return pages.getOrCreate(pid(0), new TransactionId(), Permissions.READ_ONLY);
+            }));
+        }
+        Page first = results.get(0).get();
+        for (Future<Page> result : results) {
+            assertSame(first, result.get());
+        }
+        executor.shutdown();
+        assertEquals(1, pages.reads.get());
+    }
+
+    /**
+     * The pool keeps no more clean pages than its capacity, and releases
+     * every page it evicts.
+     */
+    @Test public void capacity() throws Exception {
+        CountingPageManager pages = new CountingPageManager(4);
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertNotNull(pages.getOrCreate(pid(i), null, Permissions.READ_ONLY));
+            assertTrue(resident(pages) <= 4);
+        }
+        assertEquals(4, resident(pages));
+        assertEquals(hf.numPages() - 4, pages.released.get());
+    }
+
+    /**
+     * Dirty pages are never evicted; once every other page is dirty the page
+     * just read is not kept.
+     */
+    @Test public void dirtyPages() throws Exception {
+        DefaultPageManager pages = new DefaultPageManager(2);
+        TransactionId tid = new TransactionId();
+        Page a = pages.getOrCreate(pid(0), tid, Permissions.READ_WRITE);
+        Page b = pages.getOrCreate(pid(1), tid, Permissions.READ_WRITE);
+        a.markDirty(true, tid);
+        b.markDirty(true, tid);
+
+        assertNull(pages.getOrCreate(pid(2), tid, Permissions.READ_ONLY));
+        assertSame(a, pages.get(pid(0)));
+        assertSame(b, pages.get(pid(1)));
+        assertNull(pages.get(pid(2)));
+
+        b.markDirty(false, null);
+        assertNotNull(pages.getOrCreate(pid(2), tid, Permissions.READ_ONLY));
+        assertSame(a, pages.get(pid(0)));
+        assertNull(pages.get(pid(1)));
+    }
+
+    /**
+     * A referenced page gets a second chance over one that was not.
+     */
+    @Test public void secondChance() throws Exception {
+        DefaultPageManager pages = new DefaultPageManager(2);
+        pages.getOrCreate(pid(0), null, Permissions.READ_ONLY);
+        pages.prefetch(pid(1));
+        pages.getOrCreate(pid(2), null, Permissions.READ_ONLY);
+        assertNotNull(pages.get(pid(0)));
+        assertNull(pages.get(pid(1)));
+    }
+
+    /**
+     * Many threads reading pages of a file larger than the pool all get the
+     * pages they asked for.
+     */
+    @Test public void concurrentAccess() throws Exception {
+        DefaultPageManager pages = new DefaultPageManager(8);
+        int numPages = hf.numPages();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            results.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    HeapPageId pid = pid(random.nextInt(numPages));
+                    Page page = pages.getOrCreate(pid, null, Permissions.READ_ONLY);
+                    assertEquals(pid, page.getId());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(resident(pages) <= 8);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DefaultPageManagerTest.class);
+    }
+}
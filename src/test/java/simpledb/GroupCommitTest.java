@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    private static final int COMMITS = 10;
+
+    private File file;
+
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        file = File.createTempFile("group", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    @After public void deleteSegments() {
+        File dir = new File(file.getPath() + ".segments");
+        File[] segments = dir.listFiles();
+        for (File segment : segments == null ? new File[0] : segments) {
+            segment.delete();
+        }
+        dir.delete();
+    }
+
+    private void commit() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+    }
+
+    /**
+     * Commits from every thread concurrently, and waits for them all.
+     */
+    private void commitConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < COMMITS; i++) {
+                    commit();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * A transaction committing alone forces the log once.
+     */
+    @Test public void singleCommitter() throws Exception {
+        for (int i = 0; i < COMMITS; i++) {
+            commit();
+        }
+        assertEquals(COMMITS, log.getForces());
+        assertEquals(2 * COMMITS, log.getTotalRecords());
+    }
+
+    /**
+     * Concurrent commits share forces.
+     */
+    @Test public void concurrentCommitters() throws Exception {
+        log.setMaxGroupDelay(20, TimeUnit.MILLISECONDS);
+        commitConcurrently();
+        assertEquals(2 * THREADS * COMMITS, log.getTotalRecords());
+        assertTrue(log.getForces() < THREADS * COMMITS);
+    }
+
+    /**
+     * Records are appended in large writes, and a record is only forced
+     * once: forcing the log up to a durable LSN does no I/O.
+     */
+    @Test public void lsns() throws Exception {
+        commit();
+        long first = log.getNextLsn();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long second = log.getNextLsn();
+        assertTrue(second > first);
+        log.logXactionBegin(new TransactionId());
+        assertEquals(first, log.getDurableLsn());
+
+        log.force(first);
+        assertTrue(log.getDurableLsn() > second);
+        assertEquals(2, log.getForces());
+        log.force(second);
+        assertEquals(2, log.getForces());
+        log.logCommit(tid);
+        assertEquals(3, log.getForces());
+        assertEquals(log.getNextLsn(), log.getDurableLsn());
+    }
+
+    /**
+     * Appending to a log that was shut down fails.
+     */
+    @Test public void closedLog() throws Exception {
+        commit();
+        log.shutdown();
+        try {
+            commit();
+            fail("expected appending to a closed log to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
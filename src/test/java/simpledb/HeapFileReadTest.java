@@ -1,12 +1,17 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -125,6 +130,67 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    @Test(expected = DbException.class)
+    public void insertTupleMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        mapped.insertTuple(tid, Utility.getHeapTuple(1, 2));
+    }
+
+    /**
+     * Opening another HeapFile on the same file does not pull the shared
+     * channel out from under reads of the first.
+     */
+    @Test
+    public void reopenKeepsChannel() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread opener = new Thread(() -> {
+            while (!done.get()) {
+                new HeapFile(hf.getFile(), td);
+            }
+        });
+        opener.start();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                assertArrayEquals(expected, hf.readPage(pid).getPageData());
+            }
+        } finally {
+            done.set(true);
+            opener.join();
+        }
+    }
+
+    /**
+     * A HeapFile opened on a file that replaced another at the same path
+     * reads the new file.
+     */
+    @Test
+    public void reopenReplacedFile() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        File file = hf.getFile();
+        File other = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 10000, null, null);
+        Files.move(other.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        HeapPage page = (HeapPage) new HeapFile(file, td).readPage(pid);
+        assertEquals(504 - 100, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
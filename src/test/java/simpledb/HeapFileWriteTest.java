@@ -9,9 +9,11 @@ import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.*;
+import simpledb.storage.page.FreeSpaceMap;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
 import java.util.Arrays;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -90,6 +92,30 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts go to a page with free space without locking the full pages
+     * before it, and the free-space map survives reopening the file.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        int tableId = empty.getId();
+        byte[] full = HeapPage.createEmptyPageData();
+        int numTuples = (BufferPool.getPageSize() * 8) / (8 * 8 + 1);
+        Arrays.fill(full, 0, numTuples / 8, (byte) 0xFF);
+        for (int i = numTuples - numTuples % 8; i < numTuples; i++) {
+            full[i / 8] |= (byte) (1 << (i % 8));
+        }
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 0), full));
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 1), full));
+        empty.writePage(new HeapPage(new HeapPageId(tableId, 2), HeapPage.createEmptyPageData()));
+
+        Page page = empty.insertTuple(tid, Utility.getHeapTuple(1, 2)).get(0);
+        assertEquals(2, page.getId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(tableId, 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(tableId, 1)));
+
+        assertEquals(2, new FreeSpaceMap(empty.getFile()).nextCandidate(0, 3));
+    }
+
     /**
      * JUnit suite target
      */
@@ -13,8 +13,11 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -123,6 +126,24 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        Tuple tup = page.getTuple(3);
+        assertEquals(new RecordId(pid, 3), tup.getRecordId());
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[3][1], ((IntField) tup.getField(1)).getValue());
+        // decoded once, then cached
+        assertSame(tup, page.getTuple(3));
+        assertNull(page.getTuple(20));
+
+        // page data is unchanged whether or not slots were decoded
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
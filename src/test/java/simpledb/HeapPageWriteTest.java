@@ -131,6 +131,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for in-place updates of the page data and the before image
+     */
+    @Test public void modifyInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.setBeforeImage();
+        Tuple addition = Utility.getHeapTuple(42, 2);
+        page.insertTuple(addition);
+
+        // the page data reflects the insert without re-serialising the page
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(addition, reread.getTuple(addition.getRecordId().getTupleNumber())));
+
+        // neither the caller's array nor the before image see it
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        page.deleteTuple(addition);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,190 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.page.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 10;
+
+    private static final int HOT = 3;
+
+    private static final ReplacementPolicy.Factory[] POLICIES = {
+        ClockPolicy.FACTORY, LruPolicy.FACTORY, TwoQueuePolicy.FACTORY, LruKPolicy.FACTORY, ArcPolicy.FACTORY
+    };
+
+    private HeapFile hf;
+
+    @Before public void createFile() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 40000, null, null);
+        assertTrue(hf.numPages() > 6 * CAPACITY);
+    }
+
+    private Page request(DefaultPageManager pages, int pageNo) {
+        return pages.getOrCreate(new HeapPageId(hf.getId(), pageNo), null, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Requests a few hot pages repeatedly among cold ones, then scans every
+     * cold page once.
+     *
+     * @param readAhead whether the scan prefetches each page before it
+     *        requests it, as read-ahead does
+     * @return the number of hot pages still resident after the scan
+     */
+    private int hotAfterScan(DefaultPageManager pages, boolean readAhead) {
+        int cold = HOT;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < HOT; i++) {
+                request(pages, i);
+                request(pages, i);
+            }
+            for (int i = 0; i < 4; i++) {
+                request(pages, cold++);
+            }
+        }
+        for (; cold < hf.numPages(); cold++) {
+            if (readAhead) {
+                pages.prefetch(new HeapPageId(hf.getId(), cold));
+            }
+            request(pages, cold);
+        }
+        int resident = 0;
+        for (int i = 0; i < HOT; i++) {
+            if (pages.get(new HeapPageId(hf.getId(), i)) != null) {
+                resident++;
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * A scan larger than the pool flushes the hot pages out of LRU, but not
+     * out of the scan-resistant policies, even when it reads ahead: the
+     * request for a prefetched page is its first, not a second one.
+     */
+    @Test public void scanResistance() {
+        for (boolean readAhead : new boolean[] {false, true}) {
+            assertEquals(0, hotAfterScan(new DefaultPageManager(CAPACITY, LruPolicy.FACTORY), readAhead));
+            assertEquals(HOT, hotAfterScan(new DefaultPageManager(CAPACITY, TwoQueuePolicy.FACTORY), readAhead));
+            assertEquals(HOT, hotAfterScan(new DefaultPageManager(CAPACITY, LruKPolicy.FACTORY), readAhead));
+            assertEquals(HOT, hotAfterScan(new DefaultPageManager(CAPACITY, ArcPolicy.FACTORY), readAhead));
+        }
+    }
+
+    /**
+     * Every policy keeps the pool within its capacity, never evicts dirty
+     * pages, and counts hits and misses.
+     */
+    @Test public void capacityAndDirtyPages() {
+        for (ReplacementPolicy.Factory policy : POLICIES) {
+            String name = policy.create(CAPACITY).toString();
+            DefaultPageManager pages = new DefaultPageManager(CAPACITY, policy);
+            TransactionId tid = new TransactionId();
+            Page dirty = request(pages, 0);
+            dirty.markDirty(true, tid);
+            for (int i = 0; i < hf.numPages(); i++) {
+                assertNotNull(name, request(pages, i % 20));
+                int[] resident = new int[1];
+                pages.traverse(page -> resident[0]++);
+                assertTrue(name, resident[0] <= CAPACITY);
+            }
+            assertSame(name, dirty, pages.get(dirty.getId()));
+            assertEquals(hf.numPages() + 1, pages.getHits() + pages.getMisses());
+            assertTrue(name, pages.getHits() > 0);
+        }
+    }
+
+    /**
+     * Hits and misses are also counted per segment, for the policy of each.
+     */
+    @Test public void segmentHitsAndMisses() {
+        DefaultPageManager pages = new DefaultPageManager(256, ClockPolicy.FACTORY);
+        assertTrue(pages.getSegmentCount() > 1);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                request(pages, i);
+            }
+        }
+        long hits = 0;
+        long misses = 0;
+        for (int i = 0; i < pages.getSegmentCount(); i++) {
+            // every page fits, so each one missed once and hit once
+            assertTrue(pages.getMisses(i) > 0);
+            assertEquals(pages.getMisses(i), pages.getHits(i));
+            hits += pages.getHits(i);
+            misses += pages.getMisses(i);
+        }
+        assertEquals(hf.numPages(), misses);
+        assertEquals(pages.getHits(), hits);
+        assertEquals(pages.getMisses(), misses);
+    }
+
+    /**
+     * Every policy serves concurrent requests for pages of a file larger
+     * than the pool.
+     */
+    @Test public void concurrentAccess() throws Exception {
+        for (ReplacementPolicy.Factory policy : POLICIES) {
+            DefaultPageManager pages = new DefaultPageManager(CAPACITY, policy);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                results.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 2000; i++) {
+                        // a skewed distribution, so that some requests hit
+                        int pageNo = random.nextBoolean() ? random.nextInt(HOT) : random.nextInt(hf.numPages());
+                        assertEquals(pageNo, request(pages, pageNo).getId().getPageNumber());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+            assertEquals(8000, pages.getHits() + pages.getMisses());
+        }
+    }
+
+    /**
+     * The buffer pool reports the hit ratio of its policy.
+     */
+    @Test public void hitRatio() throws Exception {
+        BufferPool pool = Database.resetBufferPool(new BufferPool(CAPACITY, ArcPolicy.FACTORY));
+        assertEquals(0, pool.getHitRatio(), 0);
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(0.5, pool.getHitRatio(), 0);
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
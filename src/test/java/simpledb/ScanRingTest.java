@@ -0,0 +1,134 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.storage.page.DefaultPageManager;
+import simpledb.storage.page.ScanRing;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int POOL = 40;
+
+    private DefaultPageManager pages;
+
+    private BufferPool pool;
+
+    private HeapFile hot;
+
+    private HeapFile big;
+
+    private List<List<Integer>> bigTuples;
+
+    @Before public void createTables() throws Exception {
+        pages = new DefaultPageManager(POOL);
+        pool = Database.resetBufferPool(new BufferPool(pages));
+        hot = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        bigTuples = new ArrayList<>();
+        big = SystemTestUtil.createRandomHeapFile(2, 50000, null, bigTuples);
+        assertTrue(big.numPages() > 2 * POOL);
+    }
+
+    /**
+     * Requests every page of the hot table.
+     */
+    private void touchHot() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++) {
+            pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        pool.transactionComplete(tid);
+    }
+
+    private int hotResident() {
+        int resident = 0;
+        for (int i = 0; i < hot.numPages(); i++) {
+            if (pages.get(new HeapPageId(hot.getId(), i)) != null) {
+                resident++;
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * Only tables larger than the threshold share of the pool are scanned
+     * through a ring, and only pools large enough for one have rings.
+     */
+    @Test public void threshold() {
+        assertNull(pool.newScanRing((int) (POOL * BufferPool.DEFAULT_SCAN_RING_THRESHOLD)));
+        assertNotNull(pool.newScanRing(POOL));
+        pool.setScanRingThreshold(2);
+        assertNull(pool.newScanRing(POOL));
+        assertNull(new BufferPool(10).newScanRing(1000));
+    }
+
+    /**
+     * Scanning a table much larger than the pool leaves the pages already in
+     * the pool alone, and reads none into it.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        touchHot();
+        assertEquals(hot.numPages(), hotResident());
+        long misses = pages.getMisses();
+
+        SystemTestUtil.matchTuples(big, bigTuples);
+        assertEquals(hot.numPages(), hotResident());
+        assertEquals(misses, pages.getMisses());
+        assertNull(pages.get(new HeapPageId(big.getId(), 0)));
+
+        // without a ring, the scan flushes the pool
+        pool.setScanRingThreshold(Double.MAX_VALUE);
+        SystemTestUtil.matchTuples(big, bigTuples);
+        assertEquals(0, hotResident());
+    }
+
+    /**
+     * A scan through a ring sees the changes of its transaction, which are
+     * in pages of the pool.
+     */
+    @Test public void dirtyPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(big.getTupleDesc());
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(i));
+            pool.insertTuple(tid, big.getId(), t);
+            bigTuples.add(Arrays.asList(-i, i));
+        }
+        SystemTestUtil.matchTuples(big, tid, bigTuples);
+        pool.transactionComplete(tid, true);
+    }
+
+    /**
+     * A ring reuses its frames as the scan moves on.
+     */
+    @Test public void recycle() throws Exception {
+        ScanRing ring = new ScanRing(2);
+        TransactionId tid = new TransactionId();
+        Page first = pool.getScanPage(tid, new HeapPageId(big.getId(), 0), ring);
+        byte[] before = first.getPageData().clone();
+        pool.getScanPage(tid, new HeapPageId(big.getId(), 1), ring);
+        assertArrayEquals(before, first.getPageData());
+        Page third = pool.getScanPage(tid, new HeapPageId(big.getId(), 2), ring);
+        assertSame(first.getPageData(), third.getPageData());
+        assertEquals(3, ring.getReads());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
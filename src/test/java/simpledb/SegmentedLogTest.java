@@ -0,0 +1,188 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SegmentedLogTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File dir;
+
+    private File file;
+
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        dir = Files.createTempDirectory("segments").toFile();
+        file = new File(dir, "log");
+        log = new LogFile(file, SEGMENT_SIZE);
+    }
+
+    @After public void deleteLog() {
+        File[] segments = segments();
+        for (File segment : segments) {
+            segment.delete();
+        }
+        new File(file.getPath() + ".segments").delete();
+        file.delete();
+        dir.delete();
+    }
+
+    private File[] segments() {
+        File[] segments = new File(file.getPath() + ".segments").listFiles();
+        return segments == null ? new File[0] : segments;
+    }
+
+    private void commit(int transactions) throws IOException {
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+    }
+
+    /**
+     * Records span segments, which are created full size, and the next one
+     * once the records fill half of the last.
+     */
+    @Test public void preallocatedSegments() throws Exception {
+        commit(1000);
+        long end = log.getNextLsn();
+        assertTrue(end > 4 * SEGMENT_SIZE);
+        File[] segments = segments();
+        assertEquals(end / SEGMENT_SIZE + (end % SEGMENT_SIZE < SEGMENT_SIZE / 2 ? 1 : 2), segments.length);
+        for (File segment : segments) {
+            assertEquals(SEGMENT_SIZE, segment.length());
+        }
+    }
+
+    /**
+     * A checkpoint deletes the segments before the oldest record recovery
+     * needs, and records keep their LSNs.
+     */
+    @Test public void checkpointDeletesSegments() throws Exception {
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        commit(1000);
+        int before = segments().length;
+        log.logCheckpoint();
+        assertEquals(before, segments().length);
+
+        log.logCommit(open);
+        long end = log.getNextLsn();
+        log.logCheckpoint();
+        assertTrue(segments().length <= 3);
+        assertTrue(log.getNextLsn() > end);
+    }
+
+    /**
+     * Recovery finds the end of the log after the last record, across
+     * truncations and restarts.
+     */
+    @Test public void recoverEnd() throws Exception {
+        commit(500);
+        log.logCheckpoint();
+        commit(500);
+        long end = log.getNextLsn();
+
+        log = new LogFile(file, SEGMENT_SIZE);
+        log.recover();
+        assertEquals(end, log.getNextLsn());
+        commit(10);
+        end = log.getNextLsn();
+
+        log = new LogFile(file, SEGMENT_SIZE);
+        log.recover();
+        assertEquals(end, log.getNextLsn());
+    }
+
+    /**
+     * A log that is not recovered starts after the end of the old one.
+     */
+    @Test public void restartKeepsLsns() throws Exception {
+        commit(500);
+        long end = log.getNextLsn();
+
+        log = new LogFile(file, SEGMENT_SIZE);
+        commit(1);
+        assertTrue(log.getNextLsn() > end);
+        assertEquals(1, segments().length);
+    }
+
+    /**
+     * Overwrites the log from one LSN up to another with zeros, as a crash
+     * does to what the operating system did not write of a preallocated
+     * segment.
+     */
+    private void tear(long from, long to) throws IOException {
+        for (long lsn = from; lsn < to; lsn++) {
+            File segment = new File(file.getPath() + ".segments", String.format("%016x", lsn - lsn % SEGMENT_SIZE));
+            try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+                raf.seek(lsn % SEGMENT_SIZE);
+                raf.write(0);
+            }
+        }
+    }
+
+    /**
+     * Recovery ends the log before a record a crash tore, wherever it tore
+     * it, and appends after the last whole record.
+     */
+    @Test public void tornRecord() throws Exception {
+        File table = File.createTempFile("torn", ".dat");
+        table.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(table.getAbsolutePath(), 2);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        while (after.getNumEmptySlots() > 0) {
+            Tuple tuple = new Tuple(hf.getTupleDesc());
+            tuple.setField(0, new IntField(after.getNumEmptySlots()));
+            tuple.setField(1, new IntField(0));
+            after.insertTuple(tuple);
+        }
+
+        for (long tornAt : new long[] {2, 6, 100, 5000, -4}) {
+            commit(10);
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            long update = log.getNextLsn();
+            log.logWrite(tid, before, after);
+            long end = log.getNextLsn();
+            assertTrue(end - update > 2 * HeapPage.createEmptyPageData().length);
+            log.force();
+            tear(tornAt < 0 ? end + tornAt : update + tornAt, end);
+
+            log = new LogFile(file, SEGMENT_SIZE);
+            log.recover();
+            assertEquals(update, log.getNextLsn());
+            commit(1);
+            long next = log.getNextLsn();
+
+            log = new LogFile(file, SEGMENT_SIZE);
+            log.recover();
+            assertEquals(next, log.getNextLsn());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
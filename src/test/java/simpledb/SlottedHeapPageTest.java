@@ -0,0 +1,152 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.FieldType;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new FieldType[] { FieldType.INT_TYPE, FieldType.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, FieldType.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only the bytes they use, so the page holds many
+     * more tuples than a HeapPage of the same schema.
+     */
+    @Test public void insertShortStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int inserted = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(inserted, "s" + inserted));
+                inserted++;
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        int fixed = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(inserted > 3 * fixed);
+
+        // round trip through the page data
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < inserted; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("s" + i, FieldType.STRING_LEN), t.getField(1));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused by compacting the page, and the
+     * remaining tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        try {
+            for (int i = 0; ; i++) {
+                Tuple t = tuple(i, "value " + i);
+                page.insertTuple(t);
+                tuples.add(t);
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        page.setBeforeImage();
+        byte[] before = page.getPageData().clone();
+
+        // delete every other tuple, then insert one that only fits after compaction
+        for (int i = 0; i < tuples.size(); i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < FieldType.STRING_LEN; i++) {
+            sb.append('x');
+        }
+        Tuple big = tuple(-1, sb.toString());
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        for (int i = 1; i < tuples.size(); i += 2) {
+            assertEquals(new StringField("value " + i, FieldType.STRING_LEN), reread.getTuple(i).getField(1));
+        }
+        assertEquals(big.getField(1), reread.getTuple(0).getField(1));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * HeapFileEncoder writes slotted pages that a slotted HeapFile scans.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File in = File.createTempFile("slotted", ".txt");
+        in.deleteOnExit();
+        try (FileWriter w = new FileWriter(in)) {
+            for (int i = 0; i < 1000; i++) {
+                w.write(i + ",name" + i + "\n");
+            }
+        }
+        File out = File.createTempFile("slotted", ".dat");
+        out.deleteOnExit();
+        FieldType[] types = { FieldType.INT_TYPE, FieldType.STRING_TYPE };
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, types, ',', true);
+
+        HeapFile hf = new HeapFile(out, TD, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() < 1000 / (BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1)));
+
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, tuple(1000, "name1000"));
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("name" + i, FieldType.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1001, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
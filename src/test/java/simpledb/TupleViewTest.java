@@ -0,0 +1,154 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.FieldType;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.storage.page.FreeSpaceMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TupleViewTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, null, tuples, "field");
+        Database.getCatalog().addTable(hf, "views");
+    }
+
+    /**
+     * A view iterator returns one view, moved to each tuple in turn.
+     */
+    @Test public void viewIterator() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.viewIterator(tid);
+        it.open();
+        Tuple first = null;
+        List<List<Integer>> seen = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (first == null) {
+                first = t;
+            }
+            assertSame(first, t);
+            TupleView view = (TupleView) t;
+            Tuple copy = view.materialize();
+            assertEquals(view.getRecordId(), copy.getRecordId());
+            List<Integer> row = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(new IntField(view.getInt(i)), copy.getField(i));
+                row.add(view.getInt(i));
+            }
+            seen.add(row);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(new HashSet<>(tuples), new HashSet<>(seen));
+        assertEquals(tuples.size(), seen.size());
+    }
+
+    /**
+     * String fields read back their bytes without the padding.
+     */
+    @Test public void stringFields() throws Exception {
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        TupleDesc td = new TupleDesc(new FieldType[] { FieldType.INT_TYPE, FieldType.STRING_TYPE },
+            new String[] { "id", "name" });
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, "strings");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + i, FieldType.STRING_LEN));
+            strings.insertTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        DbFileIterator it = strings.viewIterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            TupleView view = (TupleView) it.next();
+            String name = "name" + view.getInt(0);
+            assertArrayEquals(name.getBytes(StandardCharsets.ISO_8859_1), view.getStringBytes(1));
+            assertEquals(new StringField(name, FieldType.STRING_LEN), view.getField(1));
+            assertTrue(view.compare(1, Predicate.Op.EQUALS, new StringField(name, FieldType.STRING_LEN)));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(100, count);
+    }
+
+    /**
+     * Planned scans return views; filters and projections pass views on, and
+     * operators that keep tuples materialize them.
+     */
+    @Test public void plan() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "v");
+        lp.addFilter("v.field0", Predicate.Op.LESS_THAN, String.valueOf(1 << 15));
+        lp.addProjectField("v.field2", null);
+        lp.addProjectField("v.field0", null);
+        lp.addOrderBy("v.field0", true);
+        TransactionId tid = new TransactionId();
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("views", new TableStats(hf.getId(), 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertTrue(((SeqScan) scan).isTupleViews());
+
+        Query query = new Query(plan, tid);
+        query.start();
+        List<Tuple> result = new ArrayList<>();
+        while (query.hasNext()) {
+            result.add(query.next());
+        }
+        query.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < (1 << 15)) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+        expected.sort(Comparator.comparing(t -> t.get(1)));
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertFalse(result.get(i) instanceof TupleView);
+            assertEquals(expected.get(i).get(1), (Integer) ((IntField) result.get(i).getField(1)).getValue());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleViewTest.class);
+    }
+}
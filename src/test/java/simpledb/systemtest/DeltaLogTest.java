@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test that small page changes are logged as byte-range deltas, and that
+ * chains of deltas are redone and undone correctly.
+ */
+public class DeltaLogTest extends SimpleDbTestBase {
+
+    private File file;
+
+    private HeapFile hf;
+
+    @Before public void setup() throws IOException {
+        file = File.createTempFile("delta", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private void insert(Transaction t, int from, int to) throws DbException, IOException, TransactionAbortedException {
+        for (int i = from; i < to; i++) {
+            Tuple tuple = new Tuple(hf.getTupleDesc());
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+        }
+    }
+
+    /**
+     * Deletes the tuples whose first field is in the specified range.
+     */
+    private void delete(Transaction t, int from, int to) throws DbException, IOException, TransactionAbortedException {
+        List<Tuple> deleted = new ArrayList<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tuple = scan.next();
+            int value = ((IntField) tuple.getField(0)).getValue();
+            if (value >= from && value < to) {
+                deleted.add(tuple);
+            }
+        }
+        scan.close();
+        for (Tuple tuple : deleted) {
+            Database.getBufferPool().deleteTuple(t.getId(), tuple);
+        }
+    }
+
+    private Set<Integer> scan() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        }
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private void crash(boolean steal) throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().setStealNoForce(steal);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * Committing a one-tuple insert logs a small fraction of a page.
+     */
+    @Test public void smallChangesLogDeltas() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 10);
+        t.commit();
+
+        long before = Database.getLogFile().getNextLsn();
+        t = new Transaction();
+        t.start();
+        insert(t, 10, 11);
+        t.commit();
+        long logged = Database.getLogFile().getNextLsn() - before;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 4);
+        assertEquals(range(0, 11), scan());
+    }
+
+    /**
+     * Successive transactions change the same page, each logging a delta
+     * against the image the previous one logged; recovery redoes the whole
+     * chain on a file that has none of the changes.
+     */
+    private void redoChain(boolean steal) throws Exception {
+        Database.getBufferPool().setStealNoForce(steal);
+        for (int i = 0; i < 5; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, 10 * i, 10 * i + 10);
+            delete(t, 10 * i, 10 * i + 3);
+            t.commit();
+        }
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            expected.addAll(range(10 * i + 3, 10 * i + 10));
+        }
+        assertEquals(expected, scan());
+
+        crash(steal);
+        assertEquals(expected, scan());
+    }
+
+    @Test public void redoChainNoSteal() throws Exception {
+        redoChain(false);
+    }
+
+    @Test public void redoChainSteal() throws Exception {
+        redoChain(true);
+    }
+
+    /**
+     * An aborted transaction's deltas are undone in reverse, both by abort
+     * and by recovery when it never finished.
+     */
+    @Test public void undoChain() throws Exception {
+        Database.getBufferPool().setStealNoForce(true);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 20);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        delete(t, 0, 5);
+        Database.getBufferPool().flushAllPages();
+        insert(t, 100, 105);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+        assertEquals(range(0, 20), scan());
+
+        t = new Transaction();
+        t.start();
+        delete(t, 5, 10);
+        Database.getBufferPool().flushAllPages();
+        insert(t, 200, 205);
+        Database.getBufferPool().flushAllPages();
+
+        crash(true);
+        assertEquals(range(0, 20), scan());
+    }
+
+    /**
+     * A B-tree leaf insert that does not split the leaf is logged as a
+     * delta, and undone on abort.
+     */
+    @Test public void btreeLeafDelta() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+
+        long before = Database.getLogFile().getNextLsn();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), bf.getId(), BTreeUtility.getBTreeTuple(5, 2));
+        t.commit();
+        long logged = Database.getLogFile().getNextLsn() - before;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 4);
+
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), bf.getId(), BTreeUtility.getBTreeTuple(7, 2));
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        t = new Transaction();
+        t.start();
+        DbFileIterator it = bf.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        assertEquals(11, count);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeltaLogTest.class);
+    }
+}
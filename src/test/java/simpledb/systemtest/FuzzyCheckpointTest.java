@@ -0,0 +1,271 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test checkpoints that flush no page, and the background checkpointer and
+ * page writer.
+ */
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+
+    private File file;
+
+    private HeapFile hf;
+
+    @Before public void setup() throws IOException {
+        file = File.createTempFile("fuzzy", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.getBufferPool().setStealNoForce(true);
+    }
+
+    @After public void stop() {
+        Database.getLogFile().stopCheckpointer();
+        Database.getBufferPool().stopBackgroundWriter();
+    }
+
+    private void insert(int from, int to) throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < to; i++) {
+            Tuple tuple = new Tuple(hf.getTupleDesc());
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+        }
+        t.commit();
+    }
+
+    private Set<Integer> scan() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        }
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Counts the tuples of the file on disk, bypassing the pool.
+     */
+    private int tuplesOnDisk() {
+        int count = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void crash() throws IOException {
+        Database.getLogFile().stopCheckpointer();
+        Database.getBufferPool().stopBackgroundWriter();
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().setStealNoForce(true);
+        Database.getLogFile().recover();
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.call()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A checkpoint writes no page; recovery redoes the committed changes
+     * the pages on disk miss from before the checkpoint.
+     */
+    @Test public void checkpointFlushesNothing() throws Exception {
+        insert(0, 100);
+        Database.getLogFile().logCheckpoint();
+        assertEquals(0, tuplesOnDisk());
+        insert(100, 200);
+        Database.getLogFile().logCheckpoint();
+        assertEquals(0, tuplesOnDisk());
+
+        crash();
+        assertEquals(range(0, 200), scan());
+    }
+
+    /**
+     * A checkpoint does not wait for the buffer pool.
+     */
+    @Test public void checkpointDoesNotLockPool() throws Exception {
+        insert(0, 100);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (Database.getBufferPool()) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> checkpoint = executor.submit(() -> {
+                Database.getLogFile().logCheckpoint();
+                return null;
+            });
+            checkpoint.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            holder.join();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The background writer writes committed pages, oldest first.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        insert(0, 2000);
+        assertEquals(0, tuplesOnDisk());
+        Database.getBufferPool().startBackgroundWriter(5, TimeUnit.MILLISECONDS, 2);
+        await(() -> tuplesOnDisk() == 2000);
+        Database.getBufferPool().stopBackgroundWriter();
+        assertTrue(Database.getBufferPool().getBackgroundWrites() >= hf.numPages());
+
+        Database.getLogFile().logCheckpoint();
+        crash();
+        assertEquals(range(0, 2000), scan());
+    }
+
+    /**
+     * The background writer leaves alone a page a transaction holds, which
+     * it may be changing, and writes it once the transaction committed.
+     */
+    @Test public void backgroundWriterSkipsHeldPages() throws Exception {
+        insert(0, 10);
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tuple = new Tuple(hf.getTupleDesc());
+        tuple.setField(0, new IntField(10));
+        tuple.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+
+        Database.getBufferPool().startBackgroundWriter(5, TimeUnit.MILLISECONDS, 10);
+        Thread.sleep(100);
+        assertEquals(0, tuplesOnDisk());
+        assertEquals(0, Database.getBufferPool().getBackgroundWrites());
+
+        t.commit();
+        await(() -> tuplesOnDisk() == 11);
+    }
+
+    /**
+     * A background writer that fails to write a page stops, and commits and
+     * checkpoints fail until it is started again.
+     */
+    @Test public void backgroundWriterFailure() throws Exception {
+        HeapFile failing = new HeapFile(file, hf.getTupleDesc()) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                throw new IOException("disk failed");
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        hf = failing;
+        insert(0, 10);
+
+        Database.getBufferPool().startBackgroundWriter(5, TimeUnit.MILLISECONDS, 10);
+        await(() -> Database.getBufferPool().getBackgroundWriterFailure() != null);
+        assertEquals("disk failed", Database.getBufferPool().getBackgroundWriterFailure().getMessage());
+        assertEquals(0, tuplesOnDisk());
+
+        try {
+            insert(10, 20);
+            fail("expected exception");
+        } catch (IOException e) {
+            assertSame(Database.getBufferPool().getBackgroundWriterFailure(), e.getCause());
+        }
+        try {
+            Database.getLogFile().logCheckpoint();
+            fail("expected exception");
+        } catch (IOException e) {
+            assertSame(Database.getBufferPool().getBackgroundWriterFailure(), e.getCause());
+        }
+        Database.getLogFile().startCheckpointer(10, TimeUnit.MILLISECONDS, 0);
+        await(() -> Database.getLogFile().getCheckpointerFailure() != null);
+        assertEquals(0, Database.getLogFile().getBackgroundCheckpoints());
+
+        Database.getBufferPool().startBackgroundWriter(1, TimeUnit.HOURS, 10);
+        assertNull(Database.getBufferPool().getBackgroundWriterFailure());
+        Database.getLogFile().logCheckpoint();
+    }
+
+    /**
+     * The background checkpointer takes a checkpoint once the log grew
+     * enough, and recovery still redoes every committed change.
+     */
+    @Test public void backgroundCheckpointer() throws Exception {
+        Database.getLogFile().startCheckpointer(1, TimeUnit.HOURS, 16 * 1024);
+        for (int i = 0; i < 20; i++) {
+            insert(100 * i, 100 * i + 100);
+        }
+        await(() -> Database.getLogFile().getBackgroundCheckpoints() > 0);
+
+        crash();
+        assertEquals(range(0, 2000), scan());
+    }
+
+    /**
+     * The background checkpointer also takes a checkpoint every interval.
+     */
+    @Test public void checkpointInterval() throws Exception {
+        insert(0, 10);
+        Database.getLogFile().startCheckpointer(10, TimeUnit.MILLISECONDS, 0);
+        await(() -> Database.getLogFile().getBackgroundCheckpoints() >= 2);
+        Database.getLogFile().stopCheckpointer();
+        long checkpoints = Database.getLogFile().getBackgroundCheckpoints();
+        Thread.sleep(50);
+        assertEquals(checkpoints, Database.getLogFile().getBackgroundCheckpoints());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test recovery that makes the changes to pages on several threads.
+ */
+public class ParallelRecoveryTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 4;
+
+    private File file;
+
+    private HeapFile hf;
+
+    @Before public void setup() throws IOException {
+        file = File.createTempFile("parallel", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.getBufferPool().setStealNoForce(true);
+    }
+
+    private void insert(Transaction t, DbFile f, int from, int to)
+            throws DbException, IOException, TransactionAbortedException {
+        for (int i = from; i < to; i++) {
+            Tuple tuple = new Tuple(f.getTupleDesc());
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple);
+        }
+    }
+
+    private Set<Integer> scan() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        }
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().setStealNoForce(true);
+        Database.getLogFile().setRecoveryThreads(THREADS);
+    }
+
+    /**
+     * Committed changes to many pages are redone, and the changes of a
+     * transaction the crash interrupted are undone, whichever thread makes
+     * them.
+     */
+    @Test public void manyPages() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed, hf, 0, 40000);
+        committed.commit();
+
+        Transaction open = new Transaction();
+        open.start();
+        insert(open, hf, 40000, 50000);
+        Database.getBufferPool().flushAllPages();
+        int pages = hf.numPages();
+
+        crash();
+        Database.getLogFile().recover();
+        assertEquals(range(0, 40000), scan());
+        assertEquals(pages, hf.numPages());
+    }
+
+    private static int recoveryThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("log-recovery")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rollbacks make their changes on the thread of the transaction, and
+     * recoveries share one set of threads.
+     */
+    @Test public void threadsOfRecovery() throws Exception {
+        Database.getLogFile().setRecoveryThreads(THREADS);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        insert(aborted, hf, 0, 40000);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(hf.numPages() > 2 * 16);
+        // the threads of earlier recoveries may still be idling
+        int idle = recoveryThreads();
+        aborted.abort();
+        assertTrue(recoveryThreads() <= idle);
+        assertEquals(range(0, 0), scan());
+
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed, hf, 0, 40000);
+        committed.commit();
+        crash();
+        idle = recoveryThreads();
+        Database.getLogFile().recover();
+        Database.getLogFile().recover();
+        assertTrue(recoveryThreads() <= idle + THREADS);
+        assertEquals(range(0, 40000), scan());
+    }
+
+    /**
+     * B+ tree pages freed by deletes and reused by later inserts, possibly
+     * as pages of another category, are recovered to their last committed
+     * contents.
+     */
+    @Test public void reusedBTreePages() throws Exception {
+        File bFile = File.createTempFile("parallel_index", ".dat");
+        bFile.deleteOnExit();
+        BTreeFile bf = BTreeUtility.openBTreeFile(2, bFile, 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, bf, 0, 5000);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        List<Tuple> deleted = new ArrayList<>();
+        DbFileIterator it = bf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple tuple = it.next();
+            if (((IntField) tuple.getField(0)).getValue() < 4500) {
+                deleted.add(tuple);
+            }
+        }
+        it.close();
+        for (Tuple tuple : deleted) {
+            Database.getBufferPool().deleteTuple(t.getId(), tuple);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        insert(t, bf, 10000, 13000);
+        t.commit();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        bf = BTreeUtility.openBTreeFile(2, bFile, 0);
+        Database.getBufferPool().setStealNoForce(true);
+        Database.getLogFile().setRecoveryThreads(THREADS);
+        Database.getLogFile().recover();
+
+        Set<Integer> expected = range(4500, 5000);
+        expected.addAll(range(10000, 13000));
+        Set<Integer> values = new HashSet<>();
+        t = new Transaction();
+        t.start();
+        it = bf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            assertTrue(values.add(((IntField) it.next().getField(0)).getValue()));
+        }
+        it.close();
+        t.commit();
+        assertEquals(expected, values);
+    }
+
+    /**
+     * A log record of a page id with no registered codec fails recovery.
+     */
+    @Test(expected = IOException.class) public void unknownPageId() throws Exception {
+        PageCodecs.forName("simpledb.storage.NoSuchPageId");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelRecoveryTest.class);
+    }
+}
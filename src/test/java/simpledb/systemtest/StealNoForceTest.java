@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test commits, aborts and recovery with STEAL/NO-FORCE buffer management.
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 3;
+
+    private File file;
+
+    private HeapFile hf;
+
+    @Before public void setup() throws IOException {
+        file = File.createTempFile("steal", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.resetBufferPool(POOL_PAGES).setStealNoForce(true);
+    }
+
+    private void insert(Transaction t, int from, int to) throws DbException, IOException, TransactionAbortedException {
+        for (int i = from; i < to; i++) {
+            Tuple tuple = new Tuple(hf.getTupleDesc());
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+        }
+    }
+
+    private Set<Integer> scan() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        }
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Counts the tuples of the file on disk, bypassing the pool.
+     */
+    private int tuplesOnDisk() {
+        int count = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.resetBufferPool(POOL_PAGES).setStealNoForce(true);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * A commit only forces the log; recovery redoes the changes the file misses.
+     */
+    @Test public void commitWithoutForce() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 10);
+        t.commit();
+        assertEquals(0, tuplesOnDisk());
+        assertEquals(range(0, 10), scan());
+
+        crash();
+        assertEquals(range(0, 10), scan());
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds, and still
+     * commit or abort.
+     */
+    @Test public void largeTransactions() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 2000);
+        assertTrue(hf.numPages() > POOL_PAGES);
+        t.commit();
+        assertEquals(range(0, 2000), scan());
+
+        t = new Transaction();
+        t.start();
+        insert(t, 2000, 4000);
+        t.abort();
+        assertEquals(range(0, 2000), scan());
+    }
+
+    /**
+     * Stolen pages of transactions that did not commit are undone by
+     * recovery, committed changes that never reached the file are redone,
+     * and a second crash after more work recovers to the same state.
+     */
+    @Test public void crashRecovery() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed, 0, 1500);
+        committed.commit();
+
+        Transaction open = new Transaction();
+        open.start();
+        insert(open, 1500, 3000);
+        assertTrue(tuplesOnDisk() > 0);
+
+        crash();
+        assertEquals(range(0, 1500), scan());
+
+        Transaction later = new Transaction();
+        later.start();
+        insert(later, 5000, 5100);
+        later.commit();
+
+        crash();
+        Set<Integer> expected = range(0, 1500);
+        expected.addAll(range(5000, 5100));
+        assertEquals(expected, scan());
+    }
+
+    /**
+     * An aborted transaction does not take away committed changes that were
+     * only in the pool.
+     */
+    @Test public void abortKeepsCommittedChanges() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 10);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        insert(t, 10, 20);
+        t.abort();
+        assertEquals(range(0, 10), scan());
+
+        crash();
+        assertEquals(range(0, 10), scan());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
@@ -14,6 +14,7 @@ import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
+import simpledb.storage.page.FreeSpaceMap;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -86,6 +87,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        new File(temp.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }